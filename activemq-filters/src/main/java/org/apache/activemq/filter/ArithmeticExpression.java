@@ -34,7 +34,7 @@ public abstract class ArithmeticExpression extends BinaryExpression {
 
   public static Expression createPlus(Expression left, Expression right) {
     return new ArithmeticExpression(left, right) {
-      protected Object evaluate(Object lvalue, Object rvalue) {
+      public Object evaluate(Object lvalue, Object rvalue) {
         if (lvalue instanceof String) {
           String text = (String) lvalue;
           String answer = text + rvalue;
@@ -53,7 +53,7 @@ public abstract class ArithmeticExpression extends BinaryExpression {
 
   public static Expression createMinus(Expression left, Expression right) {
     return new ArithmeticExpression(left, right) {
-      protected Object evaluate(Object lvalue, Object rvalue) {
+      public Object evaluate(Object lvalue, Object rvalue) {
         if (lvalue instanceof Number) {
           return minus((Number) lvalue, asNumber(rvalue));
         }
@@ -69,7 +69,7 @@ public abstract class ArithmeticExpression extends BinaryExpression {
   public static Expression createMultiply(Expression left, Expression right) {
     return new ArithmeticExpression(left, right) {
 
-      protected Object evaluate(Object lvalue, Object rvalue) {
+      public Object evaluate(Object lvalue, Object rvalue) {
         if (lvalue instanceof Number) {
           return multiply((Number) lvalue, asNumber(rvalue));
         }
@@ -86,7 +86,7 @@ public abstract class ArithmeticExpression extends BinaryExpression {
   public static Expression createDivide(Expression left, Expression right) {
     return new ArithmeticExpression(left, right) {
 
-      protected Object evaluate(Object lvalue, Object rvalue) {
+      public Object evaluate(Object lvalue, Object rvalue) {
         if (lvalue instanceof Number) {
           return divide((Number) lvalue, asNumber(rvalue));
         }
@@ -103,7 +103,7 @@ public abstract class ArithmeticExpression extends BinaryExpression {
   public static Expression createMod(Expression left, Expression right) {
     return new ArithmeticExpression(left, right) {
 
-      protected Object evaluate(Object lvalue, Object rvalue) {
+      public Object evaluate(Object lvalue, Object rvalue) {
         if (lvalue instanceof Number) {
           return mod((Number) lvalue, asNumber(rvalue));
         }
@@ -192,9 +192,11 @@ public abstract class ArithmeticExpression extends BinaryExpression {
   }
 
   /**
+   * Applies the operator to two already evaluated, non null, operands.
+   *
    * @param lvalue
    * @param rvalue
    * @return
    */
-  protected abstract Object evaluate(Object lvalue, Object rvalue);
+  public abstract Object evaluate(Object lvalue, Object rvalue);
 }
@@ -38,6 +38,11 @@ public abstract class ComparisonExpression extends BinaryExpression implements B
     convertStringExpressions = CONVERT_STRING_EXPRESSIONS.get() != null;
   }
 
+  /** @return true if the string operands are converted to numbers before comparing them */
+  public boolean isConvertStringExpressions() {
+    return convertStringExpressions;
+  }
+
   public static BooleanExpression createBetween(
       Expression value, Expression left, Expression right) {
     return LogicExpression.createAND(
@@ -72,8 +77,11 @@ public abstract class ComparisonExpression extends BinaryExpression implements B
     REGEXP_CONTROL_CHARS.add(Character.valueOf('!'));
   }
 
-  static class LikeExpression extends UnaryExpression implements BooleanExpression {
+  public static class LikeExpression extends UnaryExpression implements BooleanExpression {
 
+    final String regexp;
+    final LikeMatcher likeMatcher;
+    // only for the patterns the LikeMatcher does not handle
     Pattern likePattern;
 
     /** */
@@ -95,7 +103,11 @@ public abstract class ComparisonExpression extends BinaryExpression implements B
       }
       regexp.append("\\z"); // The end of the input
 
-      likePattern = Pattern.compile(regexp.toString(), Pattern.DOTALL);
+      this.regexp = regexp.toString();
+      this.likeMatcher = LikeMatcher.compile(like, escape);
+      if (likeMatcher == null) {
+        likePattern = Pattern.compile(this.regexp, Pattern.DOTALL);
+      }
     }
 
     private boolean shouldEscapeNext(String selector, int i, char escape) {
@@ -120,6 +132,11 @@ public abstract class ComparisonExpression extends BinaryExpression implements B
       }
     }
 
+    /** @return the regular expression the LIKE pattern has been translated to */
+    public String getRegexp() {
+      return regexp;
+    }
+
     /** @see UnaryExpression#getExpressionSymbol() */
     public String getExpressionSymbol() {
       return "LIKE";
@@ -140,7 +157,15 @@ public abstract class ComparisonExpression extends BinaryExpression implements B
         // identifiers. LIKE attemped on: '" + rv.getClass());
       }
 
-      return likePattern.matcher((String) rv).matches() ? Boolean.TRUE : Boolean.FALSE;
+      return matches((String) rv) ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    /** Tests a (non null) value against the LIKE pattern. */
+    public boolean matches(String value) {
+      if (likeMatcher != null) {
+        return likeMatcher.matches(value);
+      }
+      return likePattern.matcher(value).matches();
     }
 
     public boolean matches(MessageEvaluationContext message) throws JMSException {
@@ -377,8 +402,13 @@ public abstract class ComparisonExpression extends BinaryExpression implements B
     return compare(lv, rv);
   }
 
+  /**
+   * Compares two non null values, converting them to a common type when possible.
+   *
+   * @return the result of the comparison, {@link Boolean#FALSE} if the values cannot be compared
+   */
   @SuppressWarnings({"rawtypes", "unchecked"})
-  protected Boolean compare(Comparable lv, Comparable rv) {
+  public Boolean compare(Comparable lv, Comparable rv) {
     Class<? extends Comparable> lc = lv.getClass();
     Class<? extends Comparable> rc = rv.getClass();
     // If the the objects are not of the same type,
@@ -0,0 +1,142 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.filter;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.TextMessage;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import org.apache.activemq.command.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+/**
+ * Evaluates an XPath expression on the body of a {@link TextMessage} or of a {@link BytesMessage},
+ * with the JAXP implementation of the JDK.
+ *
+ * <p>The simple paths, like {@code /order/item[@type='book']}, are evaluated on a stream of the
+ * document, see {@link StreamingXPath}. The other expressions are compiled once per thread and
+ * evaluated on the document parsed with the DocumentBuilder of the thread.
+ *
+ * <p>An instance can be shared by the threads.
+ */
+public final class JAXPXPathEvaluator implements XPathExpression.XPathEvaluator {
+
+  private static final Logger LOG = LoggerFactory.getLogger(JAXPXPathEvaluator.class);
+
+  private static final ThreadLocal<XPath> XPATHS =
+      ThreadLocal.withInitial(JAXPXPathEvaluator::newXPath);
+
+  private final String xpath;
+  // null if the expression is not a simple path
+  private final StreamingXPath streamingXPath;
+  // javax.xml.xpath.XPathExpression is not thread safe
+  private final ThreadLocal<javax.xml.xpath.XPathExpression> compiled;
+
+  /**
+   * @param xpath the expression
+   * @param builder not used, the evaluator uses {@link XPathExpression#getDocumentBuilder()}
+   */
+  public JAXPXPathEvaluator(String xpath, DocumentBuilder builder) {
+    this.xpath = xpath;
+    this.streamingXPath = StreamingXPath.parse(xpath);
+    this.compiled = ThreadLocal.withInitial(() -> compile(xpath));
+    // report the invalid expressions when the selector is built
+    compiled.get();
+  }
+
+  private static XPath newXPath() {
+    XPathFactory factory = XPathFactory.newInstance();
+    try {
+      factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+    } catch (Exception e) {
+      // keep the defaults
+    }
+    return factory.newXPath();
+  }
+
+  private static javax.xml.xpath.XPathExpression compile(String xpath) {
+    try {
+      return XPATHS.get().compile(xpath);
+    } catch (XPathExpressionException e) {
+      throw new RuntimeException(
+          "Invalid XPath Expression: " + xpath + " reason: " + e.getMessage(), e);
+    }
+  }
+
+  @Override
+  public boolean evaluate(Message message) throws JMSException {
+    if (message instanceof TextMessage) {
+      String text = ((TextMessage) message).getText();
+      return text != null && evaluate(new StringReader(text));
+    } else if (message instanceof BytesMessage) {
+      BytesMessage bm = (BytesMessage) message;
+      bm.reset();
+      byte[] data = new byte[(int) bm.getBodyLength()];
+      bm.readBytes(data);
+      bm.reset();
+      return evaluate(new ByteArrayInputStream(data));
+    }
+    return false;
+  }
+
+  private boolean evaluate(Reader text) {
+    try {
+      if (streamingXPath != null) {
+        return streamingXPath.matches(text);
+      }
+      return evaluate(new InputSource(text));
+    } catch (Exception e) {
+      // not a valid document
+      LOG.debug("Cannot evaluate {} on the message", xpath, e);
+      return false;
+    }
+  }
+
+  private boolean evaluate(InputStream data) {
+    try {
+      if (streamingXPath != null) {
+        return streamingXPath.matches(data);
+      }
+      return evaluate(new InputSource(data));
+    } catch (Exception e) {
+      // not a valid document
+      LOG.debug("Cannot evaluate {} on the message", xpath, e);
+      return false;
+    }
+  }
+
+  private boolean evaluate(InputSource source) throws Exception {
+    Document document = XPathExpression.getDocumentBuilder().parse(source);
+    return (Boolean) compiled.get().evaluate(document, XPathConstants.BOOLEAN);
+  }
+
+  @Override
+  public String toString() {
+    return xpath;
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.filter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matches a string against a LIKE pattern without regular expressions.
+ *
+ * <p>The usual patterns ('abc', 'abc%', '%abc', '%abc%') are matched with the String methods, the
+ * patterns with '_' with a wildcard matcher that does not allocate.
+ */
+abstract class LikeMatcher {
+
+  private static final byte LITERAL = 0;
+  private static final byte ANY_CHAR = 1;
+  private static final byte ANY_SEQUENCE = 2;
+
+  /** Tests a (non null) value against the pattern. */
+  abstract boolean matches(String value);
+
+  /**
+   * Compiles the LIKE pattern.
+   *
+   * @param like the pattern
+   * @param escape the escape character, -1 if none
+   * @return the matcher, null if the pattern must be matched with a regular expression
+   */
+  static LikeMatcher compile(String like, int escape) {
+    StringBuilder chars = new StringBuilder(like.length());
+    byte[] types = new byte[like.length()];
+    int length = 0;
+    boolean hasAnyChar = false;
+    for (int i = 0; i < like.length(); i++) {
+      char c = like.charAt(i);
+      if (Character.isSurrogate(c)) {
+        // '_' matches a code point, keep the exact semantics of the regular expression
+        return null;
+      }
+      byte type;
+      if (escape == (0xFFFF & c) && isEscaped(like, i, c)) {
+        i++;
+        c = like.charAt(i);
+        type = LITERAL;
+      } else if (c == '%') {
+        if (length > 0 && types[length - 1] == ANY_SEQUENCE) {
+          continue;
+        }
+        type = ANY_SEQUENCE;
+      } else if (c == '_') {
+        hasAnyChar = true;
+        type = ANY_CHAR;
+      } else {
+        type = LITERAL;
+      }
+      chars.append(c);
+      types[length++] = type;
+    }
+    if (hasAnyChar) {
+      return new Wildcard(chars.toString().toCharArray(), types, length);
+    }
+
+    // only literals and '%', split the pattern around the '%'
+    List<String> segments = new ArrayList<>();
+    StringBuilder segment = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      if (types[i] == ANY_SEQUENCE) {
+        segments.add(segment.toString());
+        segment.setLength(0);
+      } else {
+        segment.append(chars.charAt(i));
+      }
+    }
+    segments.add(segment.toString());
+
+    String prefix = segments.get(0);
+    String suffix = segments.get(segments.size() - 1);
+    switch (segments.size()) {
+      case 1:
+        return new Equals(prefix);
+      case 2:
+        if (prefix.isEmpty() && suffix.isEmpty()) {
+          return new Any();
+        } else if (suffix.isEmpty()) {
+          return new StartsWith(prefix);
+        } else if (prefix.isEmpty()) {
+          return new EndsWith(suffix);
+        }
+        break;
+      case 3:
+        if (prefix.isEmpty() && suffix.isEmpty()) {
+          return new Contains(segments.get(1));
+        }
+        break;
+      default:
+        break;
+    }
+    return new Segments(
+        prefix, segments.subList(1, segments.size() - 1).toArray(new String[0]), suffix);
+  }
+
+  private static boolean isEscaped(String like, int i, char escape) {
+    int next = i + 1;
+    if (next < like.length()) {
+      final char c = like.charAt(next);
+      return (c == '_' || c == '%' || c == escape);
+    }
+    return false;
+  }
+
+  private static final class Equals extends LikeMatcher {
+    private final String literal;
+
+    Equals(String literal) {
+      this.literal = literal;
+    }
+
+    @Override
+    boolean matches(String value) {
+      return literal.equals(value);
+    }
+  }
+
+  private static final class Any extends LikeMatcher {
+    @Override
+    boolean matches(String value) {
+      return true;
+    }
+  }
+
+  private static final class StartsWith extends LikeMatcher {
+    private final String prefix;
+
+    StartsWith(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    boolean matches(String value) {
+      return value.startsWith(prefix);
+    }
+  }
+
+  private static final class EndsWith extends LikeMatcher {
+    private final String suffix;
+
+    EndsWith(String suffix) {
+      this.suffix = suffix;
+    }
+
+    @Override
+    boolean matches(String value) {
+      return value.endsWith(suffix);
+    }
+  }
+
+  private static final class Contains extends LikeMatcher {
+    private final String infix;
+
+    Contains(String infix) {
+      this.infix = infix;
+    }
+
+    @Override
+    boolean matches(String value) {
+      return value.contains(infix);
+    }
+  }
+
+  /** 'prefix%a%b%suffix', the segments are matched from left to right at the first occurrence. */
+  private static final class Segments extends LikeMatcher {
+    private final String prefix;
+    private final String[] segments;
+    private final String suffix;
+
+    Segments(String prefix, String[] segments, String suffix) {
+      this.prefix = prefix;
+      this.segments = segments;
+      this.suffix = suffix;
+    }
+
+    @Override
+    boolean matches(String value) {
+      int end = value.length() - suffix.length();
+      if (end < prefix.length() || !value.startsWith(prefix) || !value.endsWith(suffix)) {
+        return false;
+      }
+      int position = prefix.length();
+      for (String segment : segments) {
+        int index = value.indexOf(segment, position);
+        if (index < 0 || index + segment.length() > end) {
+          return false;
+        }
+        position = index + segment.length();
+      }
+      return true;
+    }
+  }
+
+  /** Patterns with '_', backtracks to the last '%' on a mismatch. */
+  private static final class Wildcard extends LikeMatcher {
+    private final char[] chars;
+    private final byte[] types;
+    private final int length;
+
+    Wildcard(char[] chars, byte[] types, int length) {
+      this.chars = chars;
+      this.types = types;
+      this.length = length;
+    }
+
+    @Override
+    boolean matches(String value) {
+      int valueLength = value.length();
+      int p = 0;
+      int v = 0;
+      int lastSequence = -1;
+      int lastSequenceStart = 0;
+      while (v < valueLength) {
+        byte type = p < length ? types[p] : -1;
+        if (type == ANY_CHAR) {
+          v += Character.charCount(value.codePointAt(v));
+          p++;
+        } else if (type == LITERAL && chars[p] == value.charAt(v)) {
+          v++;
+          p++;
+        } else if (type == ANY_SEQUENCE) {
+          lastSequence = p++;
+          lastSequenceStart = v;
+        } else if (lastSequence >= 0) {
+          // let the last '%' match one more code point
+          lastSequenceStart += Character.charCount(value.codePointAt(lastSequenceStart));
+          v = lastSequenceStart;
+          p = lastSequence + 1;
+        } else {
+          return false;
+        }
+      }
+      while (p < length && types[p] == ANY_SEQUENCE) {
+        p++;
+      }
+      return p == length;
+    }
+  }
+}
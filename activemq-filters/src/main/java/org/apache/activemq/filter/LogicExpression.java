@@ -16,6 +16,7 @@
 package org.apache.activemq.filter;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import javax.jms.JMSException;
 
@@ -33,6 +34,10 @@ public abstract class LogicExpression implements BooleanExpression {
     expressions.add(expression);
   }
 
+  public List<BooleanExpression> getExpressions() {
+    return Collections.unmodifiableList(expressions);
+  }
+
   public BooleanExpression getLeft() {
     if (expressions.size() == 2) {
       return expressions.get(0);
@@ -145,7 +150,7 @@ public abstract class LogicExpression implements BooleanExpression {
     }
   }
 
-  private static class ANDExpression extends LogicExpression {
+  public static class ANDExpression extends LogicExpression {
 
     public ANDExpression(BooleanExpression lvalue, BooleanExpression rvalue) {
       super(lvalue, rvalue);
@@ -0,0 +1,317 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.filter;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * A simple XPath location path, evaluated on a StAX stream of the document without building the
+ * DOM.
+ *
+ * <p>The supported paths are the absolute paths of element names or '*', with the child ('/') or
+ * the descendant ('//') axis and the predicates {@code [@attribute]} and {@code
+ * [@attribute='value']} on any step, like {@code //order[@type='book']/item[@id]}. The names with a
+ * prefix are not supported, the names match the elements and the attributes without a namespace,
+ * like the XPath evaluators do without a namespace context. The {@code text()} predicates are left
+ * to the XPath evaluators: the text nodes of the DOM depend on the comments and on the settings of
+ * the parser.
+ *
+ * <p>The path is true if an element matches. The elements after the first matching element are not
+ * evaluated, but the rest of the document is still read, because a malformed document never
+ * matches, like with the DOM.
+ */
+final class StreamingXPath {
+
+  // the states of the evaluation are the bits of a long
+  private static final int MAX_STEPS = 62;
+
+  private static final ThreadLocal<XMLInputFactory> FACTORIES =
+      ThreadLocal.withInitial(StreamingXPath::newFactory);
+
+  private final Step[] steps;
+  // true if a step uses the descendant axis
+  private final boolean descendants;
+
+  private StreamingXPath(Step[] steps) {
+    this.steps = steps;
+    boolean descendants = false;
+    for (Step step : steps) {
+      descendants |= step.descendant;
+    }
+    this.descendants = descendants;
+  }
+
+  private static XMLInputFactory newFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    return factory;
+  }
+
+  /**
+   * @param xpath the expression
+   * @return the path, null if the expression is not a simple path
+   */
+  static StreamingXPath parse(String xpath) {
+    Parser parser = new Parser(xpath.trim());
+    List<Step> steps = new ArrayList<>();
+    while (!parser.atEnd()) {
+      Step step = parser.step();
+      if (step == null || steps.size() == MAX_STEPS) {
+        return null;
+      }
+      steps.add(step);
+    }
+    return steps.isEmpty() ? null : new StreamingXPath(steps.toArray(new Step[0]));
+  }
+
+  boolean matches(Reader document) throws XMLStreamException {
+    return matches(FACTORIES.get().createXMLStreamReader(document));
+  }
+
+  boolean matches(InputStream document) throws XMLStreamException {
+    return matches(FACTORIES.get().createXMLStreamReader(document));
+  }
+
+  private boolean matches(XMLStreamReader reader) throws XMLStreamException {
+    try {
+      return evaluate(reader);
+    } finally {
+      reader.close();
+    }
+  }
+
+  private boolean evaluate(XMLStreamReader reader) throws XMLStreamException {
+    long lastState = 1L << steps.length;
+    // by depth, the steps matched by the element and by the element or its ancestors,
+    // the bit 0 is the document
+    long[] states = new long[16];
+    long[] reached = new long[16];
+    states[0] = 1;
+    reached[0] = 1;
+    int depth = 0;
+    while (reader.hasNext()) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          long state = 0;
+          for (int i = 0; i < steps.length; i++) {
+            long previous = steps[i].descendant ? reached[depth] : states[depth];
+            if ((previous & (1L << i)) != 0 && steps[i].matches(reader)) {
+              state |= 1L << (i + 1);
+            }
+          }
+          if ((state & lastState) != 0) {
+            skipToEnd(reader);
+            return true;
+          }
+          if (state == 0 && !descendants) {
+            // no element in the subtree can match
+            skipElement(reader);
+            break;
+          }
+          depth++;
+          if (depth == states.length) {
+            states = Arrays.copyOf(states, depth * 2);
+            reached = Arrays.copyOf(reached, depth * 2);
+          }
+          states[depth] = state;
+          reached[depth] = reached[depth - 1] | state;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          depth--;
+          break;
+        case XMLStreamConstants.DTD:
+          // the DocumentBuilder does not accept the documents with a DTD
+          return false;
+        default:
+          break;
+      }
+    }
+    return false;
+  }
+
+  /** Reads the rest of the document, the reader throws an exception if it is malformed. */
+  private static void skipToEnd(XMLStreamReader reader) throws XMLStreamException {
+    while (reader.hasNext()) {
+      reader.next();
+    }
+  }
+
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+  private static boolean hasNoNamespace(String namespace) {
+    return namespace == null || namespace.isEmpty();
+  }
+
+  private static final class Step {
+    private final boolean descendant;
+    // null for '*'
+    private final String name;
+    private final List<String> attributes = new ArrayList<>();
+    // null to check only that the attribute exists
+    private final List<String> values = new ArrayList<>();
+
+    Step(boolean descendant, String name) {
+      this.descendant = descendant;
+      this.name = name;
+    }
+
+    boolean matches(XMLStreamReader reader) {
+      if (name != null
+          && (!name.equals(reader.getLocalName()) || !hasNoNamespace(reader.getNamespaceURI()))) {
+        return false;
+      }
+      for (int i = 0; i < attributes.size(); i++) {
+        if (!matchesAttribute(reader, attributes.get(i), values.get(i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static boolean matchesAttribute(XMLStreamReader reader, String name, String value) {
+      for (int i = 0; i < reader.getAttributeCount(); i++) {
+        if (name.equals(reader.getAttributeLocalName(i))
+            && hasNoNamespace(reader.getAttributeNamespace(i))) {
+          return value == null || value.equals(reader.getAttributeValue(i));
+        }
+      }
+      return false;
+    }
+  }
+
+  /** Parses the supported subset of XPath, the methods return null for the other expressions. */
+  private static final class Parser {
+    private final String xpath;
+    private int pos;
+
+    Parser(String xpath) {
+      this.xpath = xpath;
+    }
+
+    boolean atEnd() {
+      return pos == xpath.length();
+    }
+
+    Step step() {
+      if (!consume("/")) {
+        return null;
+      }
+      boolean descendant = consume("/");
+      String name = null;
+      if (!consume("*")) {
+        name = name();
+        if (name == null) {
+          return null;
+        }
+      }
+      Step step = new Step(descendant, name);
+      while (consume("[")) {
+        skipSpaces();
+        if (consume("@")) {
+          String attribute = name();
+          if (attribute == null) {
+            return null;
+          }
+          String value = null;
+          skipSpaces();
+          if (consume("=")) {
+            value = literal();
+            if (value == null) {
+              return null;
+            }
+          }
+          step.attributes.add(attribute);
+          step.values.add(value);
+        } else {
+          return null;
+        }
+        skipSpaces();
+        if (!consume("]")) {
+          return null;
+        }
+      }
+      return step;
+    }
+
+    private String name() {
+      int start = pos;
+      while (pos < xpath.length()) {
+        char c = xpath.charAt(pos);
+        if (Character.isLetter(c)
+            || c == '_'
+            || (pos > start && (Character.isDigit(c) || c == '-' || c == '.'))) {
+          pos++;
+        } else {
+          break;
+        }
+      }
+      return pos > start ? xpath.substring(start, pos) : null;
+    }
+
+    private String literal() {
+      skipSpaces();
+      if (atEnd()) {
+        return null;
+      }
+      char quote = xpath.charAt(pos);
+      if (quote != '\'' && quote != '"') {
+        return null;
+      }
+      int end = xpath.indexOf(quote, pos + 1);
+      if (end < 0) {
+        return null;
+      }
+      String result = xpath.substring(pos + 1, end);
+      pos = end + 1;
+      return result;
+    }
+
+    private boolean consume(String token) {
+      if (xpath.startsWith(token, pos)) {
+        pos += token.length();
+        return true;
+      }
+      return false;
+    }
+
+    private void skipSpaces() {
+      while (pos < xpath.length() && Character.isWhitespace(xpath.charAt(pos))) {
+        pos++;
+      }
+    }
+  }
+}
@@ -33,85 +33,107 @@ public abstract class UnaryExpression implements Expression {
   }
 
   public static Expression createNegate(Expression left) {
-    return new UnaryExpression(left) {
-      public Object evaluate(MessageEvaluationContext message) throws JMSException {
-        Object rvalue = right.evaluate(message);
-        if (rvalue == null) {
-          return null;
-        }
-        if (rvalue instanceof Number) {
-          return negate((Number) rvalue);
-        }
+    return new NegateExpression(left);
+  }
+
+  public static class NegateExpression extends UnaryExpression {
+    public NegateExpression(Expression right) {
+      super(right);
+    }
+
+    public Object evaluate(MessageEvaluationContext message) throws JMSException {
+      Object rvalue = right.evaluate(message);
+      if (rvalue == null) {
         return null;
       }
-
-      public String getExpressionSymbol() {
-        return "-";
+      if (rvalue instanceof Number) {
+        return negate((Number) rvalue);
       }
-    };
+      return null;
+    }
+
+    public String getExpressionSymbol() {
+      return "-";
+    }
   }
 
   public static BooleanExpression createInExpression(
       PropertyExpression right, List<Object> elements, final boolean not) {
+    return new InExpression(right, elements, not);
+  }
 
-    // Use a HashSet if there are many elements.
-    Collection<Object> t;
-    if (elements.size() == 0) {
-      t = null;
-    } else if (elements.size() < 5) {
-      t = elements;
-    } else {
-      t = new HashSet<Object>(elements);
+  public static class InExpression extends BooleanUnaryExpression {
+    private final Collection<Object> inList;
+    private final boolean not;
+
+    public InExpression(PropertyExpression right, List<Object> elements, boolean not) {
+      super(right);
+      // Use a HashSet as soon as there is more than one element: the elements are strings, the
+      // hash code is cached and one equals() is cheaper than scanning the list.
+      if (elements.size() == 0) {
+        this.inList = null;
+      } else if (elements.size() == 1) {
+        this.inList = elements;
+      } else {
+        this.inList = new HashSet<Object>(elements);
+      }
+      this.not = not;
     }
-    final Collection inList = t;
 
-    return new BooleanUnaryExpression(right) {
-      public Object evaluate(MessageEvaluationContext message) throws JMSException {
+    public Object evaluate(MessageEvaluationContext message) throws JMSException {
 
-        Object rvalue = right.evaluate(message);
-        if (rvalue == null) {
-          return null;
-        }
-        if (rvalue.getClass() != String.class) {
-          return null;
-        }
+      Object rvalue = right.evaluate(message);
+      if (rvalue == null) {
+        return null;
+      }
+      if (rvalue.getClass() != String.class) {
+        return null;
+      }
 
-        if ((inList != null && inList.contains(rvalue)) ^ not) {
-          return Boolean.TRUE;
-        } else {
-          return Boolean.FALSE;
-        }
+      if ((inList != null && inList.contains(rvalue)) ^ not) {
+        return Boolean.TRUE;
+      } else {
+        return Boolean.FALSE;
       }
+    }
 
-      public String toString() {
-        StringBuffer answer = new StringBuffer();
-        answer.append(right);
-        answer.append(" ");
-        answer.append(getExpressionSymbol());
-        answer.append(" ( ");
-
-        int count = 0;
-        for (Iterator i = inList.iterator(); i.hasNext(); ) {
-          Object o = (Object) i.next();
-          if (count != 0) {
-            answer.append(", ");
-          }
-          answer.append(o);
-          count++;
-        }
+    /** @return the elements of the list, null if the list is empty */
+    public Collection<Object> getInList() {
+      return inList;
+    }
 
-        answer.append(" )");
-        return answer.toString();
-      }
+    public boolean isNot() {
+      return not;
+    }
 
-      public String getExpressionSymbol() {
-        if (not) {
-          return "NOT IN";
-        } else {
-          return "IN";
+    public String toString() {
+      StringBuffer answer = new StringBuffer();
+      answer.append(right);
+      answer.append(" ");
+      answer.append(getExpressionSymbol());
+      answer.append(" ( ");
+
+      int count = 0;
+      for (Iterator i = inList.iterator(); i.hasNext(); ) {
+        Object o = (Object) i.next();
+        if (count != 0) {
+          answer.append(", ");
         }
+        answer.append(o);
+        count++;
       }
-    };
+
+      answer.append(" )");
+      return answer.toString();
+    }
+
+    public String getExpressionSymbol() {
+      if (not) {
+        return "NOT IN";
+      } else {
+        return "IN";
+      }
+    }
   }
 
   abstract static class BooleanUnaryExpression extends UnaryExpression
@@ -139,29 +161,35 @@ public abstract class UnaryExpression implements Expression {
   }
 
   public static BooleanExpression createBooleanCast(Expression left) {
-    return new BooleanUnaryExpression(left) {
-      public Object evaluate(MessageEvaluationContext message) throws JMSException {
-        Object rvalue = right.evaluate(message);
-        if (rvalue == null) {
-          return null;
-        }
-        if (!rvalue.getClass().equals(Boolean.class)) {
-          return Boolean.FALSE;
-        }
-        return ((Boolean) rvalue).booleanValue() ? Boolean.TRUE : Boolean.FALSE;
-      }
+    return new BooleanCastExpression(left);
+  }
 
-      public String toString() {
-        return right.toString();
-      }
+  public static class BooleanCastExpression extends BooleanUnaryExpression {
+    public BooleanCastExpression(Expression right) {
+      super(right);
+    }
 
-      public String getExpressionSymbol() {
-        return "";
+    public Object evaluate(MessageEvaluationContext message) throws JMSException {
+      Object rvalue = right.evaluate(message);
+      if (rvalue == null) {
+        return null;
+      }
+      if (!rvalue.getClass().equals(Boolean.class)) {
+        return Boolean.FALSE;
       }
-    };
+      return ((Boolean) rvalue).booleanValue() ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+    public String toString() {
+      return right.toString();
+    }
+
+    public String getExpressionSymbol() {
+      return "";
+    }
   }
 
-  private static Number negate(Number left) {
+  public static Number negate(Number left) {
     Class clazz = left.getClass();
     if (clazz == Integer.class) {
       return Integer.valueOf(-left.intValue());
@@ -234,7 +262,7 @@ public abstract class UnaryExpression implements Expression {
    */
   public abstract String getExpressionSymbol();
 
-  private static class NotExpression extends BooleanUnaryExpression {
+  public static class NotExpression extends BooleanUnaryExpression {
     public NotExpression(BooleanExpression right) {
       super(right);
     }
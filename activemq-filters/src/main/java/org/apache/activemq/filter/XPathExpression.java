@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -38,36 +39,53 @@ public final class XPathExpression implements BooleanExpression {
   private static final Logger LOG = LoggerFactory.getLogger(XPathExpression.class);
   private static final String EVALUATOR_SYSTEM_PROPERTY =
       "org.apache.activemq.XPathEvaluatorClassName";
+  // the Xalan evaluator of ActiveMQ is in activemq-broker, that is not available here
   private static final String DEFAULT_EVALUATOR_CLASS_NAME =
-      "org.apache.activemq.filter.XalanXPathEvaluator";
+      "org.apache.activemq.filter.JAXPXPathEvaluator";
   public static final String DOCUMENT_BUILDER_FACTORY_FEATURE =
       "org.apache.activemq.documentBuilderFactory.feature";
 
+  // the evaluators are shared by the selectors with the same expression
+  private static final int MAX_CACHED_EVALUATORS = 1000;
+
   private static final Constructor EVALUATOR_CONSTRUCTOR;
+  private static final DocumentBuilderFactory BUILDER_FACTORY;
+  // the least recently used evaluators are evicted, access to the map must be synchronized
+  private static final Map<String, XPathEvaluator> EVALUATORS =
+      new LinkedHashMap<String, XPathEvaluator>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, XPathEvaluator> eldest) {
+          return size() > MAX_CACHED_EVALUATORS;
+        }
+      };
+  // DocumentBuilder is not thread safe, this one is only passed to the custom evaluators
   private static DocumentBuilder builder = null;
+  private static final ThreadLocal<DocumentBuilder> BUILDERS =
+      ThreadLocal.withInitial(XPathExpression::newDocumentBuilder);
 
   static {
+    DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+    builderFactory.setNamespaceAware(true);
+    builderFactory.setIgnoringElementContentWhitespace(true);
+    builderFactory.setIgnoringComments(true);
+    try {
+      // set some reasonable defaults
+      builderFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, Boolean.TRUE);
+      builderFactory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+      builderFactory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+      builderFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+    } catch (ParserConfigurationException e) {
+      LOG.warn("Error setting document builder factory feature", e);
+    }
+    // setup the feature from the system property
+    setupFeatures(builderFactory);
+    BUILDER_FACTORY = builderFactory;
+
     String cn = System.getProperty(EVALUATOR_SYSTEM_PROPERTY, DEFAULT_EVALUATOR_CLASS_NAME);
     Constructor m = null;
     try {
       try {
         m = getXPathEvaluatorConstructor(cn);
-        DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
-        builderFactory.setNamespaceAware(true);
-        builderFactory.setIgnoringElementContentWhitespace(true);
-        builderFactory.setIgnoringComments(true);
-        try {
-          // set some reasonable defaults
-          builderFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, Boolean.TRUE);
-          builderFactory.setFeature("http://xml.org/sax/features/external-general-entities", false);
-          builderFactory.setFeature(
-              "http://xml.org/sax/features/external-parameter-entities", false);
-          builderFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
-        } catch (ParserConfigurationException e) {
-          LOG.warn("Error setting document builder factory feature", e);
-        }
-        // setup the feature from the system property
-        setupFeatures(builderFactory);
         builder = builderFactory.newDocumentBuilder();
       } catch (Throwable e) {
         LOG.warn(
@@ -99,7 +117,45 @@ public final class XPathExpression implements BooleanExpression {
 
   XPathExpression(String xpath) {
     this.xpath = xpath;
-    this.evaluator = createEvaluator(xpath);
+    this.evaluator = getEvaluator(xpath);
+  }
+
+  /**
+   * Returns the DocumentBuilder of the current thread, configured like the one passed to the
+   * constructor of the evaluators.
+   *
+   * @return a builder that can be used only by the current thread
+   */
+  public static DocumentBuilder getDocumentBuilder() {
+    DocumentBuilder result = BUILDERS.get();
+    result.reset();
+    return result;
+  }
+
+  private static DocumentBuilder newDocumentBuilder() {
+    try {
+      return BUILDER_FACTORY.newDocumentBuilder();
+    } catch (ParserConfigurationException e) {
+      throw new IllegalStateException("Cannot create a DocumentBuilder", e);
+    }
+  }
+
+  private static XPathEvaluator getEvaluator(String xpath) {
+    XPathEvaluator result;
+    synchronized (EVALUATORS) {
+      result = EVALUATORS.get(xpath);
+    }
+    if (result == null) {
+      // the evaluator is built outside of the lock, it may throw an error for invalid expressions
+      result = createEvaluator(xpath);
+      synchronized (EVALUATORS) {
+        XPathEvaluator existing = EVALUATORS.putIfAbsent(xpath, result);
+        if (existing != null) {
+          result = existing;
+        }
+      }
+    }
+    return result;
   }
 
   private static Constructor getXPathEvaluatorConstructor(String cn)
@@ -141,7 +197,7 @@ public final class XPathExpression implements BooleanExpression {
     }
   }
 
-  private XPathEvaluator createEvaluator(String xpath2) {
+  private static XPathEvaluator createEvaluator(String xpath) {
     try {
       return (XPathEvaluator) EVALUATOR_CONSTRUCTOR.newInstance(new Object[] {xpath, builder});
     } catch (InvocationTargetException e) {
@@ -0,0 +1,111 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.benchmarks;
+
+import com.datastax.oss.pulsar.jms.AcknowledgementBatcher;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.impl.MessageIdImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Acknowledgement of the messages received by an AUTO_ACKNOWLEDGE session, one request per message
+ * or batched with the {@link AcknowledgementBatcher}.
+ *
+ * <p>The consumer does not talk to a broker: each acknowledgement request costs {@link
+ * #requestCost} tokens of CPU, that stands for the command that the client builds and sends.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AutoAcknowledgeBenchmark {
+
+  private static final int MESSAGES = 1000;
+
+  @Param({"0", "1000"})
+  public long requestCost;
+
+  @Param({"10", "100"})
+  public int batchSize;
+
+  private Consumer<?> consumer;
+  private MessageId[] messageIds;
+  private AcknowledgementBatcher batcher;
+
+  @Setup
+  public void setup() {
+    CompletableFuture<Void> done = CompletableFuture.completedFuture(null);
+    consumer =
+        (Consumer<?>)
+            Proxy.newProxyInstance(
+                Consumer.class.getClassLoader(),
+                new Class<?>[] {Consumer.class},
+                (proxy, method, args) -> {
+                  switch (method.getName()) {
+                    case "acknowledge":
+                    case "acknowledgeAsync":
+                      Blackhole.consumeCPU(requestCost);
+                      return method.getReturnType() == void.class ? null : done;
+                    case "hashCode":
+                      return System.identityHashCode(proxy);
+                    case "equals":
+                      return proxy == args[0];
+                    default:
+                      throw new UnsupportedOperationException(method.getName());
+                  }
+                });
+    messageIds = new MessageId[MESSAGES];
+    for (int i = 0; i < MESSAGES; i++) {
+      messageIds[i] = new MessageIdImpl(1, i, -1);
+    }
+    batcher = new AcknowledgementBatcher(batchSize, Long.MAX_VALUE, null);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(MESSAGES)
+  public void acknowledgeEachMessage() throws Exception {
+    for (MessageId messageId : messageIds) {
+      consumer.acknowledge(messageId);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(MESSAGES)
+  public void acknowledgeWithBatcher() {
+    for (MessageId messageId : messageIds) {
+      batcher.add(consumer, messageId);
+    }
+    batcher.flush();
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The lookup of a value in the list of an IN expression, with a linear scan or a HashSet, by size
+ * of the list. InExpression uses the HashSet as soon as the list has more than one value.
+ *
+ * <p>The values share a common prefix, like tenant names, and the probes are other instances of the
+ * strings, like the values decoded from the messages: half of them are in the list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InListBenchmark {
+
+  // a few different probes, so that the results do not depend on the position of one value
+  private static final int NUM_PROBES = 64;
+
+  @Param({"1", "2", "4", "8", "16", "32", "64", "128"})
+  public int size;
+
+  private List<Object> list;
+  private Set<Object> set;
+  private String[] probes;
+  private int next;
+
+  @Setup
+  public void setup() {
+    list = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      list.add("tenant-" + (i * 2 + 1));
+    }
+    set = new HashSet<>(list);
+    probes = new String[NUM_PROBES];
+    for (int i = 0; i < NUM_PROBES; i++) {
+      // the odd values are in the list, spread over all of it
+      int value = i % 2 == 0 ? i * 2 : (i * 2 + 1) % (size * 2);
+      probes[i] = "tenant-" + value;
+    }
+  }
+
+  private String nextProbe() {
+    int index = next;
+    next = (index + 1) % NUM_PROBES;
+    return probes[index];
+  }
+
+  @Benchmark
+  public boolean linearScan() {
+    return list.contains(nextProbe());
+  }
+
+  @Benchmark
+  public boolean hashSet() {
+    return set.contains(nextProbe());
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.benchmarks;
+
+import com.datastax.oss.pulsar.jms.selectors.JMSFilter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.pulsar.broker.service.plugin.EntryFilter;
+import org.apache.pulsar.broker.service.plugin.FilterContext;
+import org.apache.pulsar.common.api.proto.CommandSubscribe;
+import org.apache.pulsar.common.api.proto.CompressionType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link JMSFilter#filterEntry} on the entries of a topic, for a consumer on a shared subscription
+ * with a selector.
+ *
+ * <p>The entries are either single messages (batchSize=0) or batches, with the payload compressed
+ * or not. The time is per entry, divide by the batch size for the time per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JMSFilterBenchmark {
+
+  // a few different entries, so that the results do not depend on one message only
+  private static final int NUM_ENTRIES = 16;
+
+  @Param public SelectorCorpus selector;
+
+  @Param({"0", "10", "100"})
+  public int batchSize;
+
+  @Param({"NONE", "LZ4", "ZSTD"})
+  public CompressionType compression;
+
+  private JMSFilter filter;
+  private Entry[] entries;
+  private FilterContext[] contexts;
+  private int next;
+
+  @Setup
+  public void setup() {
+    filter = new JMSFilter();
+    Map<String, String> consumerMetadata = new HashMap<>();
+    consumerMetadata.put("jms.filtering", "true");
+    consumerMetadata.put("jms.selector", selector.getSelector());
+    consumerMetadata.put("jms.destination.type", "queue");
+    consumerMetadata.put("jms.selector.reject.action", "drop");
+    entries = new Entry[NUM_ENTRIES];
+    contexts = new FilterContext[NUM_ENTRIES];
+    for (int i = 0; i < NUM_ENTRIES; i++) {
+      // with single messages one entry out of two matches
+      entries[i] = SyntheticEntries.entry(i * Math.max(1, batchSize), batchSize, compression);
+      FilterContext context = new FilterContext();
+      context.setSubscription(SyntheticEntries.subscription(CommandSubscribe.SubType.Shared));
+      context.setConsumer(SyntheticEntries.consumer(consumerMetadata));
+      context.setMsgMetadata(SyntheticEntries.parseMetadata(entries[i]));
+      contexts[i] = context;
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    filter.close();
+    for (Entry entry : entries) {
+      entry.release();
+    }
+  }
+
+  @Benchmark
+  public EntryFilter.FilterResult filterEntry() {
+    int index = next;
+    next = (index + 1) % NUM_ENTRIES;
+    return filter.filterEntry(entries[index], contexts[index]);
+  }
+}
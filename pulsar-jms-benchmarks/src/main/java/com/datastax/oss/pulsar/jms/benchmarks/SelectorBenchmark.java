@@ -0,0 +1,76 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.benchmarks;
+
+import com.datastax.oss.pulsar.jms.selectors.SelectorSupport;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import javax.jms.JMSException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Parsing and evaluation of the selectors, on properties already decoded. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SelectorBenchmark {
+
+  @Param public SelectorCorpus selector;
+
+  private SelectorSupport selectorSupport;
+  private Function<String, Object> matchingMessage;
+  private Function<String, Object> notMatchingMessage;
+
+  @Setup
+  public void setup() throws JMSException {
+    selectorSupport = SelectorSupport.build(selector.getSelector(), true);
+    Map<String, Object> matching = SelectorCorpus.typedMessageProperties(0);
+    Map<String, Object> notMatching = SelectorCorpus.typedMessageProperties(1);
+    matchingMessage = matching::get;
+    notMatchingMessage = notMatching::get;
+    if (!selectorSupport.matches(matchingMessage) || selectorSupport.matches(notMatchingMessage)) {
+      throw new IllegalStateException("Unexpected result for " + selector.getSelector());
+    }
+  }
+
+  @Benchmark
+  public SelectorSupport build() throws JMSException {
+    return SelectorSupport.build(selector.getSelector(), true);
+  }
+
+  @Benchmark
+  public boolean matches() throws JMSException {
+    return selectorSupport.matches(matchingMessage);
+  }
+
+  @Benchmark
+  public boolean doesNotMatch() throws JMSException {
+    return selectorSupport.matches(notMatchingMessage);
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * The selectors used by the benchmarks, and the properties of the messages they are evaluated on.
+ *
+ * <p>Every selector matches the messages with an even index, and does not match the others.
+ */
+public enum SelectorCorpus {
+  EQUALITY("region = 'EU'"),
+  LIKE_PREFIX("product LIKE 'shoes-%'"),
+  LIKE_CONTAINS("product LIKE '%-red-%'"),
+  IN_SMALL("tenant IN ('tenant-1', 'tenant-3', 'tenant-5')"),
+  IN_LARGE(
+      "tenant IN ("
+          + IntStream.range(0, 200)
+              .mapToObj(i -> "'tenant-" + (i * 2 + 1) + "'")
+              .collect(Collectors.joining(", "))
+          + ")"),
+  ARITHMETIC("amount * quantity > 1000.0 AND priority + 1 > 5"),
+  HEADER_ONLY("JMSPriority > 4 AND JMSType = 'order'"),
+  NESTED(
+      "((region = 'EU' OR region = 'US') AND (amount > 100.0 OR quantity < 3))"
+          + " AND NOT (product LIKE '%-blue-%' OR (priority < 2 AND tenant = 'tenant-0'))"
+          + " AND (quantity BETWEEN 1 AND 100) AND (region <> 'APAC' OR amount < 10.0)");
+
+  private final String selector;
+
+  SelectorCorpus(String selector) {
+    this.selector = selector;
+  }
+
+  public String getSelector() {
+    return selector;
+  }
+
+  /**
+   * The properties of a message, as set by the JMS client: the values are strings, the type of the
+   * non string values is stored in the "name_jsmtype" property.
+   *
+   * @param index the index of the message, even messages match the selectors
+   * @return the properties
+   */
+  public static Map<String, String> messageProperties(int index) {
+    boolean matching = index % 2 == 0;
+    Map<String, String> properties = new LinkedHashMap<>();
+    properties.put("region", matching ? "EU" : "APAC");
+    properties.put("product", matching ? "shoes-red-" + index : "hats-green-" + index);
+    properties.put("tenant", "tenant-" + (matching ? 1 + (index % 3) * 2 : (index % 100) * 2));
+    properties.put("amount", matching ? "250.5" : "9.5");
+    properties.put("amount_jsmtype", "double");
+    properties.put("quantity", matching ? "10" : "200");
+    properties.put("quantity_jsmtype", "int");
+    properties.put("priority", matching ? "7" : "1");
+    properties.put("priority_jsmtype", "int");
+    properties.put("JMSPriority", matching ? "9" : "1");
+    properties.put("JMSType", matching ? "order" : "invoice");
+    properties.put("JMSConnectionID", "connection-1");
+    return properties;
+  }
+
+  /** The same properties, converted to the types declared by the JMS client. */
+  public static Map<String, Object> typedMessageProperties(int index) {
+    Map<String, String> properties = messageProperties(index);
+    Map<String, Object> result = new LinkedHashMap<>();
+    properties.forEach(
+        (name, value) -> {
+          if (name.endsWith("_jsmtype")) {
+            return;
+          }
+          String type = properties.get(name + "_jsmtype");
+          if ("int".equals(type)) {
+            result.put(name, Integer.parseInt(value));
+          } else if ("double".equals(type)) {
+            result.put(name, Double.parseDouble(value));
+          } else if ("JMSPriority".equals(name)) {
+            result.put(name, Integer.parseInt(value));
+          } else {
+            result.put(name, value);
+          }
+        });
+    return result;
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.impl.EntryImpl;
+import org.apache.pulsar.broker.service.Consumer;
+import org.apache.pulsar.broker.service.Subscription;
+import org.apache.pulsar.common.api.proto.CommandSubscribe;
+import org.apache.pulsar.common.api.proto.CompressionType;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.api.proto.SingleMessageMetadata;
+import org.apache.pulsar.common.compression.CompressionCodec;
+import org.apache.pulsar.common.compression.CompressionCodecProvider;
+import org.apache.pulsar.common.protocol.Commands;
+import org.objenesis.ObjenesisStd;
+
+/**
+ * Builds the entries read by the broker, in the same format written by the Pulsar producer used by
+ * the JMS client, and the broker objects needed to call the filter.
+ */
+final class SyntheticEntries {
+
+  static final String TOPIC_NAME = "persistent://public/default/benchmark";
+
+  private static final byte[] BODY =
+      "{\"orderId\": 1234, \"customer\": \"benchmark\"}".getBytes(StandardCharsets.UTF_8);
+
+  private SyntheticEntries() {}
+
+  /**
+   * Builds an entry.
+   *
+   * @param firstMessage the index of the first message, see {@link
+   *     SelectorCorpus#messageProperties}
+   * @param batchSize the number of messages, 0 for a message that is not part of a batch
+   * @param compression the compression of the payload
+   * @return the entry
+   */
+  static Entry entry(int firstMessage, int batchSize, CompressionType compression) {
+    MessageMetadata metadata = new MessageMetadata();
+    metadata.setProducerName("benchmark");
+    metadata.setSequenceId(firstMessage);
+    metadata.setPublishTime(System.currentTimeMillis());
+    metadata.setEventTime(System.currentTimeMillis());
+    ByteBuf payload;
+    if (batchSize == 0) {
+      SelectorCorpus.messageProperties(firstMessage)
+          .forEach((key, value) -> metadata.addProperty().setKey(key).setValue(value));
+      payload = Unpooled.wrappedBuffer(BODY);
+    } else {
+      metadata.setNumMessagesInBatch(batchSize);
+      payload = Unpooled.buffer();
+      for (int i = 0; i < batchSize; i++) {
+        SingleMessageMetadata singleMessageMetadata = new SingleMessageMetadata();
+        singleMessageMetadata.setPayloadSize(BODY.length);
+        singleMessageMetadata.setSequenceId(firstMessage + i);
+        singleMessageMetadata.setEventTime(System.currentTimeMillis());
+        SelectorCorpus.messageProperties(firstMessage + i)
+            .forEach(
+                (key, value) -> singleMessageMetadata.addProperty().setKey(key).setValue(value));
+        Commands.serializeSingleMessageInBatchWithPayload(
+            singleMessageMetadata, Unpooled.wrappedBuffer(BODY), payload);
+      }
+    }
+    if (compression != CompressionType.NONE) {
+      metadata.setCompression(compression);
+      metadata.setUncompressedSize(payload.readableBytes());
+      CompressionCodec codec = CompressionCodecProvider.getCompressionCodec(compression);
+      payload = codec.encode(payload);
+    }
+    ByteBuf data =
+        Commands.serializeMetadataAndPayload(Commands.ChecksumType.None, metadata, payload);
+    return EntryImpl.create(1, firstMessage, data);
+  }
+
+  /** @return the metadata of the entry, the broker parses it before calling the filters */
+  static MessageMetadata parseMetadata(Entry entry) {
+    MessageMetadata metadata = new MessageMetadata();
+    Commands.parseMessageMetadata(entry.getDataBuffer().duplicate(), metadata);
+    return metadata;
+  }
+
+  /** @return a subscription that only provides what the filter reads */
+  static Subscription subscription(CommandSubscribe.SubType type) {
+    InvocationHandler handler =
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getType":
+              return type;
+            case "getTopicName":
+              return TOPIC_NAME;
+            case "getName":
+              return "benchmark-subscription";
+            case "hashCode":
+              return System.identityHashCode(proxy);
+            case "equals":
+              return proxy == args[0];
+            case "toString":
+              return "benchmark-subscription";
+            default:
+              // getTopic() returns null: the filter then uses its default configuration
+              return null;
+          }
+        };
+    return (Subscription)
+        Proxy.newProxyInstance(
+            SyntheticEntries.class.getClassLoader(), new Class<?>[] {Subscription.class}, handler);
+  }
+
+  /**
+   * Builds a consumer with the given metadata, without running the constructor that needs a
+   * connection.
+   */
+  static Consumer consumer(Map<String, String> metadata) {
+    Consumer consumer = new ObjenesisStd().newInstance(Consumer.class);
+    try {
+      Field field = Consumer.class.getDeclaredField("metadata");
+      field.setAccessible(true);
+      field.set(consumer, metadata);
+    } catch (ReflectiveOperationException err) {
+      throw new IllegalStateException("Cannot set the metadata of the consumer", err);
+    }
+    return consumer;
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import javax.jms.JMSException;
+
+/**
+ * A node of a selector compiled by {@link SelectorCompiler}.
+ *
+ * <p>Nodes are immutable and can be shared between threads, all the per-message state lives in the
+ * {@link CompiledSelector.EvaluationContext}.
+ */
+abstract class CompiledExpression {
+
+  /**
+   * Evaluates the node, with the same semantics of {@link
+   * org.apache.activemq.filter.Expression#evaluate}.
+   */
+  abstract Object evaluate(CompiledSelector.EvaluationContext context) throws JMSException;
+
+  /**
+   * Evaluates the node as a boolean, with the same semantics of {@link
+   * org.apache.activemq.filter.BooleanExpression#matches}.
+   */
+  boolean matches(CompiledSelector.EvaluationContext context) throws JMSException {
+    return evaluate(context) == Boolean.TRUE;
+  }
+
+  /**
+   * Evaluates the node as a number, the numeric nodes override this in order to not box the value.
+   * The value is stored in the context: longValue or doubleValue for the numbers, objectValue for
+   * {@link Numbers#OTHER}.
+   *
+   * @return the kind of the value, see {@link Numbers}
+   */
+  byte evaluateNumber(CompiledSelector.EvaluationContext context) throws JMSException {
+    return context.setNumber(evaluate(context));
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import java.util.Arrays;
+import java.util.function.Function;
+import javax.jms.JMSException;
+
+/**
+ * A selector compiled into a tree of {@link CompiledExpression}s.
+ *
+ * <p>Every distinct property referenced by the selector is assigned a slot, the value is read from
+ * the property accessor at most once per evaluation and then cached in a per-thread {@link
+ * EvaluationContext}, so that evaluating the selector does not allocate.
+ */
+final class CompiledSelector {
+
+  private static final ThreadLocal<EvaluationContext> CONTEXT =
+      ThreadLocal.withInitial(EvaluationContext::new);
+
+  private final CompiledExpression root;
+  private final String[] propertyNames;
+  private final boolean headersOnly;
+
+  CompiledSelector(CompiledExpression root, String[] propertyNames, boolean headersOnly) {
+    this.root = root;
+    this.propertyNames = propertyNames;
+    this.headersOnly = headersOnly;
+  }
+
+  boolean matches(Function<String, Object> messagePropertiesAccessor) throws JMSException {
+    EvaluationContext context =
+        EvaluationContext.acquire(messagePropertiesAccessor, propertyNames.length, 0);
+    try {
+      return root.matches(context);
+    } finally {
+      context.release();
+    }
+  }
+
+  /** @return true if the selector references only the JMS headers, like JMSType or JMSPriority */
+  boolean isHeadersOnly() {
+    return headersOnly;
+  }
+
+  /** @return the names of the properties referenced by the selector, in slot order */
+  String[] getPropertyNames() {
+    return propertyNames.clone();
+  }
+
+  /**
+   * Per-evaluation state, it caches the values of the properties and the results of the nodes
+   * shared by the selectors of a {@link SelectorGroup}.
+   */
+  static final class EvaluationContext {
+    private static final byte NOT_LOADED = -1;
+
+    private Function<String, Object> properties;
+    private NumericPropertyAccessor numericProperties;
+    private Object[] values = new Object[8];
+    private boolean[] loaded = new boolean[8];
+    private byte[] numberKinds = new byte[8];
+    private long[] longValues = new long[8];
+    private double[] doubleValues = new double[8];
+    private Object[] results = new Object[0];
+    private boolean[] evaluated = new boolean[0];
+
+    // the value of the last CompiledExpression#evaluateNumber, see Numbers
+    long longValue;
+    double doubleValue;
+    Object objectValue;
+
+    /** Returns the context of the current thread, it must be released after the evaluation. */
+    static EvaluationContext acquire(
+        Function<String, Object> properties, int propertySlots, int resultSlots) {
+      EvaluationContext context = CONTEXT.get();
+      if (context.properties != null) {
+        // re-entrant call, this is not expected to happen
+        context = new EvaluationContext();
+      }
+      context.reset(properties, propertySlots, resultSlots);
+      return context;
+    }
+
+    void release() {
+      properties = null;
+      numericProperties = null;
+      objectValue = null;
+    }
+
+    private void reset(Function<String, Object> properties, int slots, int resultSlots) {
+      this.properties = properties;
+      this.numericProperties =
+          properties instanceof NumericPropertyAccessor
+              ? (NumericPropertyAccessor) properties
+              : null;
+      if (loaded.length < slots) {
+        values = new Object[slots];
+        loaded = new boolean[slots];
+        numberKinds = new byte[slots];
+        longValues = new long[slots];
+        doubleValues = new double[slots];
+      } else {
+        Arrays.fill(values, 0, slots, null);
+        Arrays.fill(loaded, 0, slots, false);
+      }
+      Arrays.fill(numberKinds, 0, slots, NOT_LOADED);
+      if (evaluated.length < resultSlots) {
+        results = new Object[resultSlots];
+        evaluated = new boolean[resultSlots];
+      } else {
+        Arrays.fill(results, 0, resultSlots, null);
+        Arrays.fill(evaluated, 0, resultSlots, false);
+      }
+    }
+
+    /** Evaluates a node at most once per evaluation. */
+    Object getResult(int slot, CompiledExpression expression) throws JMSException {
+      if (!evaluated[slot]) {
+        results[slot] = expression.evaluate(this);
+        evaluated[slot] = true;
+      }
+      return results[slot];
+    }
+
+    Object getProperty(int slot, String name) {
+      if (!loaded[slot]) {
+        values[slot] = properties.apply(name);
+        loaded[slot] = true;
+      }
+      return values[slot];
+    }
+
+    /** Reads a property as a number, without boxing it if the accessor supports it. */
+    byte getNumber(int slot, String name) {
+      byte kind = numberKinds[slot];
+      if (kind == NOT_LOADED) {
+        kind = Numbers.OTHER;
+        if (numericProperties != null && !loaded[slot]) {
+          objectValue = null;
+          kind = numericProperties.loadNumber(name, this);
+        }
+        if (kind == Numbers.OTHER) {
+          kind = setNumber(getProperty(slot, name));
+        }
+        numberKinds[slot] = kind;
+        longValues[slot] = longValue;
+        doubleValues[slot] = doubleValue;
+        return kind;
+      }
+      longValue = longValues[slot];
+      doubleValue = doubleValues[slot];
+      objectValue = kind == Numbers.OTHER ? values[slot] : null;
+      return kind;
+    }
+
+    /** Stores a boxed value as the current number. */
+    byte setNumber(Object value) {
+      objectValue = value;
+      if (value == null) {
+        return Numbers.NULL;
+      }
+      Class<?> type = value.getClass();
+      if (type == Integer.class) {
+        return setLong(Numbers.INT, (Integer) value);
+      } else if (type == Long.class) {
+        return setLong(Numbers.LONG, (Long) value);
+      } else if (type == Double.class) {
+        return setDouble(Numbers.DOUBLE, (Double) value);
+      } else if (type == Float.class) {
+        return setDouble(Numbers.FLOAT, (Float) value);
+      } else if (type == Short.class) {
+        return setLong(Numbers.SHORT, (Short) value);
+      } else if (type == Byte.class) {
+        return setLong(Numbers.BYTE, (Byte) value);
+      }
+      return Numbers.OTHER;
+    }
+
+    byte setLong(byte kind, long value) {
+      longValue = value;
+      return kind;
+    }
+
+    byte setDouble(byte kind, double value) {
+      doubleValue = value;
+      return kind;
+    }
+  }
+
+  /** A property accessor that can read the numeric properties without boxing them. */
+  interface NumericPropertyAccessor extends Function<String, Object> {
+
+    /**
+     * Reads the value of a property, storing it with {@link EvaluationContext#setLong} or {@link
+     * EvaluationContext#setDouble}.
+     *
+     * @return the kind of the value, {@link Numbers#OTHER} if the property must be read with {@link
+     *     #apply}
+     */
+    byte loadNumber(String name, EvaluationContext context);
+  }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import io.netty.buffer.ByteBuf;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.api.proto.SingleMessageMetadata;
+import org.apache.pulsar.common.protocol.Commands;
+
+/**
+ * Cache of the decoded metadata of the entries of a topic.
+ *
+ * <p>Every subscription of a topic reads the same entries, decompressing a batch and decoding the
+ * metadata of each message is the same work for every subscription. The first subscription that
+ * reads an entry stores the decoded messages here, the other subscriptions only evaluate their
+ * selectors.
+ *
+ * <p>The cache is a fixed size direct mapped table indexed by ledgerId/entryId: subscriptions
+ * usually read the entries at about the same position, so the most recent entries are the useful
+ * ones, and an older entry is simply overwritten.
+ *
+ * <p>With the shared selector evaluation the cache also holds the {@link SelectorGroup} of the
+ * topic, and the entries hold the results of the evaluation of the group.
+ *
+ * <p>The entries rescheduled by a queue consumer whose selector does not match are dispatched again
+ * later, to the same or to another consumer, when they are likely gone from the table. They are
+ * kept aside until they are read again.
+ */
+final class EntryMetadataCache {
+
+  // the rescheduled entries not read again within this time are dropped when there is no room
+  private static final long RESCHEDULED_ENTRY_IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final AtomicReferenceArray<DecodedEntry> entries;
+  private final int mask;
+  private final ConcurrentHashMap<EntryKey, RescheduledEntry> rescheduledEntries =
+      new ConcurrentHashMap<>();
+  private final int maxRescheduledEntries;
+  private volatile long lastWriteNanos = System.nanoTime();
+  private volatile SelectorGroup selectorGroup = SelectorGroup.EMPTY;
+
+  /**
+   * @param size the number of entries
+   * @param maxRescheduledEntries the maximum number of rescheduled entries kept aside
+   */
+  EntryMetadataCache(int size, int maxRescheduledEntries) {
+    int capacity = Integer.highestOneBit(Math.max(1, size) * 2 - 1);
+    this.entries = new AtomicReferenceArray<>(capacity);
+    this.mask = capacity - 1;
+    this.maxRescheduledEntries = maxRescheduledEntries;
+  }
+
+  /** @return the entry, null if it is not in the cache */
+  DecodedEntry get(long ledgerId, long entryId) {
+    int index = index(ledgerId, entryId);
+    DecodedEntry entry = entries.get(index);
+    if (entry != null && entry.ledgerId == ledgerId && entry.entryId == entryId) {
+      return entry;
+    }
+    if (!rescheduledEntries.isEmpty()) {
+      RescheduledEntry rescheduled = rescheduledEntries.remove(new EntryKey(ledgerId, entryId));
+      if (rescheduled != null) {
+        // back to the table, until it is rescheduled again
+        entries.set(index, rescheduled.entry);
+        return rescheduled.entry;
+      }
+    }
+    return null;
+  }
+
+  /** Keeps the entry until it is read again, the broker is going to dispatch it again. */
+  void putRescheduled(DecodedEntry entry) {
+    long now = System.nanoTime();
+    if (rescheduledEntries.size() >= maxRescheduledEntries) {
+      // entries that have been acknowledged or skipped by other means are never read again
+      rescheduledEntries
+          .values()
+          .removeIf(rescheduled -> now - rescheduled.nanos > RESCHEDULED_ENTRY_IDLE_NANOS);
+      if (rescheduledEntries.size() >= maxRescheduledEntries) {
+        return;
+      }
+    }
+    rescheduledEntries.put(
+        new EntryKey(entry.ledgerId, entry.entryId), new RescheduledEntry(entry, now));
+  }
+
+  int rescheduledEntriesCount() {
+    return rescheduledEntries.size();
+  }
+
+  void put(DecodedEntry entry) {
+    entries.set(index(entry.ledgerId, entry.entryId), entry);
+    lastWriteNanos = System.nanoTime();
+  }
+
+  SelectorGroup getSelectorGroup() {
+    return selectorGroup;
+  }
+
+  /**
+   * Adds the selector to the group of the topic.
+   *
+   * @param selector the selector
+   * @param idleNanos the selectors of the group not used for this time are dropped
+   * @return the index of the selector in the current group, -1 if the selector cannot be shared
+   */
+  int registerSelector(SelectorSupport selector, long idleNanos) {
+    if (selector == null || !SelectorGroup.canShare(selector)) {
+      return -1;
+    }
+    long now = System.nanoTime();
+    SelectorGroup current = selectorGroup;
+    int index = current.indexOf(selector.getSelector());
+    if (index < 0) {
+      synchronized (this) {
+        current = selectorGroup;
+        index = current.indexOf(selector.getSelector());
+        if (index < 0) {
+          current = current.add(selector, now, idleNanos);
+          selectorGroup = current;
+          index = current.indexOf(selector.getSelector());
+        }
+      }
+    }
+    current.touch(index, now);
+    return index;
+  }
+
+  long getLastWriteNanos() {
+    return lastWriteNanos;
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+
+  private int index(long ledgerId, long entryId) {
+    long hash = entryId * 31 + ledgerId;
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+
+  /** The position of an entry. */
+  static final class EntryKey {
+    private final long ledgerId;
+    private final long entryId;
+
+    EntryKey(long ledgerId, long entryId) {
+      this.ledgerId = ledgerId;
+      this.entryId = entryId;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof EntryKey)) {
+        return false;
+      }
+      EntryKey key = (EntryKey) other;
+      return key.ledgerId == ledgerId && key.entryId == entryId;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(entryId * 31 + ledgerId);
+    }
+  }
+
+  private static final class RescheduledEntry {
+    private final DecodedEntry entry;
+    private final long nanos;
+
+    RescheduledEntry(DecodedEntry entry, long nanos) {
+      this.entry = entry;
+      this.nanos = nanos;
+    }
+  }
+
+  /**
+   * The messages of an entry. The messages are immutable, the results of the shared selectors are
+   * attached when the entry is first evaluated.
+   *
+   * <p>The messages of a batch are decoded in order, only when a subscription needs them, so the
+   * scan of a batch that stops at the first accepted message does not decode the other ones. The
+   * subscription that needs more messages decodes them from its own copy of the entry, see {@link
+   * #decodeUpTo}.
+   */
+  static final class DecodedEntry {
+    private final long ledgerId;
+    private final long entryId;
+    private final DecodedMessage[] messages;
+    // the first numDecoded messages are in the array
+    private volatile int numDecoded;
+    // the offset of the next message in the uncompressed payload of the batch
+    private int nextMessageOffset;
+    private volatile SelectorGroup.Results selectorResults;
+
+    DecodedEntry(long ledgerId, long entryId, DecodedMessage[] messages) {
+      this.ledgerId = ledgerId;
+      this.entryId = entryId;
+      this.messages = messages;
+      this.numDecoded = messages.length;
+    }
+
+    /** An entry whose messages are not decoded yet. */
+    DecodedEntry(long ledgerId, long entryId, int numMessages) {
+      this.ledgerId = ledgerId;
+      this.entryId = entryId;
+      this.messages = new DecodedMessage[numMessages];
+    }
+
+    int getNumMessages() {
+      return messages.length;
+    }
+
+    int getNumDecoded() {
+      return numDecoded;
+    }
+
+    /** @return the message, null if it is not decoded yet */
+    DecodedMessage getMessage(int index) {
+      return index < numDecoded ? messages[index] : null;
+    }
+
+    /**
+     * Decodes the messages of the batch up to the given index, unless they are already decoded.
+     *
+     * @param uncompressedPayload the uncompressed payload of the batch, its reader index is moved
+     * @param payloadStart the reader index of the first message in the payload
+     */
+    synchronized void decodeUpTo(int index, ByteBuf uncompressedPayload, int payloadStart)
+        throws IOException {
+      int next = numDecoded;
+      if (next > index) {
+        return;
+      }
+      uncompressedPayload.readerIndex(payloadStart + nextMessageOffset);
+      for (; next <= index; next++) {
+        final SingleMessageMetadata singleMessageMetadata = new SingleMessageMetadata();
+        final ByteBuf singleMessagePayload =
+            Commands.deSerializeSingleMessageInBatch(
+                uncompressedPayload, singleMessageMetadata, next, messages.length);
+        final DecodedMessage message;
+        try {
+          message =
+              new DecodedMessage(
+                  new MessagePropertyIndex(singleMessageMetadata.getPropertiesCount()));
+          message.fill(singleMessageMetadata);
+          // the instance is going to be shared, so we convert all the values now,
+          // a value that cannot be converted must fail only the selectors that read it
+          message.getProperties().decodeAll();
+        } finally {
+          singleMessagePayload.release();
+        }
+        messages[next] = message;
+        nextMessageOffset = uncompressedPayload.readerIndex() - payloadStart;
+        // publishes the message to the threads that read numDecoded
+        numDecoded = next + 1;
+      }
+    }
+
+    /** @return the results of the shared selectors, null if the entry has not been evaluated */
+    SelectorGroup.Results getSelectorResults() {
+      return selectorResults;
+    }
+
+    void setSelectorResults(SelectorGroup.Results selectorResults) {
+      this.selectorResults = selectorResults;
+    }
+  }
+
+  /**
+   * The metadata of a message needed by the filter.
+   *
+   * <p>The values are copied out of the metadata, because the metadata references the buffer of the
+   * entry, that is released after filtering. An instance can be reused by calling {@link #fill}
+   * again, once stored in the cache it must not be modified, with the exception of the decoded
+   * JMSCorrelationID, that is always the same immutable value.
+   */
+  static final class DecodedMessage {
+    private static final Object NOT_DECODED = new Object();
+
+    private final MessagePropertyIndex properties;
+    private long eventTime;
+    private boolean hasEventTime;
+    private String partitionKey;
+    private long sequenceId;
+    private boolean hasSequenceId;
+    // the fields of the body referenced by the selectors, null if not decoded
+    private Map<String, Object> bodyFields;
+    // the decoded JMSCorrelationID or NOT_DECODED, a single field so that the threads that share
+    // the instance see one of the two values
+    private Object correlationId = NOT_DECODED;
+
+    DecodedMessage(MessagePropertyIndex properties) {
+      this.properties = properties;
+    }
+
+    void fill(MessageMetadata metadata) {
+      properties.fill(metadata);
+      fillHeaderFields(metadata);
+    }
+
+    void fill(SingleMessageMetadata metadata) {
+      properties.fill(metadata);
+      fillHeaderFields(metadata);
+    }
+
+    /**
+     * Fills only the JMS headers, for the selectors that do not reference the other properties, see
+     * {@link MessagePropertyIndex#fillHeaders}.
+     */
+    void fillHeaders(MessageMetadata metadata) {
+      properties.fillHeaders(metadata);
+      fillHeaderFields(metadata);
+    }
+
+    void fillHeaders(SingleMessageMetadata metadata) {
+      properties.fillHeaders(metadata);
+      fillHeaderFields(metadata);
+    }
+
+    private void fillHeaderFields(MessageMetadata metadata) {
+      hasEventTime = metadata.hasEventTime();
+      eventTime = hasEventTime ? metadata.getEventTime() : 0;
+      partitionKey = metadata.hasPartitionKey() ? metadata.getPartitionKey() : null;
+      hasSequenceId = metadata.hasSequenceId();
+      sequenceId = hasSequenceId ? metadata.getSequenceId() : 0;
+      resetDecodedFields();
+    }
+
+    private void fillHeaderFields(SingleMessageMetadata metadata) {
+      hasEventTime = metadata.hasEventTime();
+      eventTime = hasEventTime ? metadata.getEventTime() : 0;
+      partitionKey = metadata.hasPartitionKey() ? metadata.getPartitionKey() : null;
+      hasSequenceId = metadata.hasSequenceId();
+      sequenceId = hasSequenceId ? metadata.getSequenceId() : 0;
+      resetDecodedFields();
+    }
+
+    private void resetDecodedFields() {
+      bodyFields = null;
+      correlationId = NOT_DECODED;
+    }
+
+    /**
+     * The JMS client encodes the JMSCorrelationID with Base64, the value is decoded once, the
+     * selectors of all the subscriptions then read the same string.
+     *
+     * @return the JMSCorrelationID, null if it is not set
+     */
+    String getCorrelationId() {
+      Object result = correlationId;
+      if (result == NOT_DECODED) {
+        Object value = properties.getObject("JMSCorrelationID");
+        // an invalid value fails every evaluation
+        result =
+            value != null
+                ? new String(Base64.getDecoder().decode(value.toString()), StandardCharsets.UTF_8)
+                : null;
+        correlationId = result;
+      }
+      return (String) result;
+    }
+
+    void setBodyFields(Map<String, Object> bodyFields) {
+      this.bodyFields = bodyFields;
+    }
+
+    /** @return the value of a field of the body, null if it is missing or not decoded */
+    Object getBodyField(String name) {
+      return bodyFields != null ? bodyFields.get(name) : null;
+    }
+
+    MessagePropertyIndex getProperties() {
+      return properties;
+    }
+
+    boolean hasEventTime() {
+      return hasEventTime;
+    }
+
+    long getEventTime() {
+      return eventTime;
+    }
+
+    /** @return the partition key, null if it is not set */
+    String getPartitionKey() {
+      return partitionKey;
+    }
+
+    boolean hasSequenceId() {
+      return hasSequenceId;
+    }
+
+    long getSequenceId() {
+      return sequenceId;
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the selectors of a {@link SelectorGroup} that are conjunctions of terms in the form
+ * {@code property = 'value'}, like {@code region = 'EU' AND type = 'order'}.
+ *
+ * <p>Instead of evaluating these selectors one by one, the value of each indexed property is read
+ * once and the selectors with a term on that value are found with a hash lookup. A selector matches
+ * when all its terms are found. When the selector has other terms, for instance {@code region =
+ * 'EU' AND amount > 10}, the index only selects the candidates, that are evaluated as usual.
+ *
+ * <p>This works only when the value is a string or is missing: for the other types the equality
+ * follows the ActiveMQ conversions, so the selectors with a term on the property are evaluated as
+ * usual.
+ */
+final class EqualityIndex {
+
+  private final int numSelectors;
+  private final String[] names;
+  private final int[] slots;
+  // for each property, the selectors by value, a selector appears once per term
+  private final Map<String, int[]>[] selectorsByValue;
+  // for each property, all the selectors with a term on the property
+  private final int[][] selectors;
+  // for each selector, the number of terms
+  private final int[] numTerms;
+  // the selectors with other terms, that must be evaluated when all the terms are found
+  private final boolean[] partial;
+  private final long[] indexed;
+
+  @SuppressWarnings("unchecked")
+  private EqualityIndex(
+      int numSelectors,
+      Map<String, Integer> slots,
+      Map<String, Map<String, List<Integer>>> terms,
+      int[] numTerms,
+      boolean[] partial) {
+    this.numSelectors = numSelectors;
+    this.numTerms = numTerms;
+    this.partial = partial;
+    int size = terms.size();
+    this.names = new String[size];
+    this.slots = new int[size];
+    this.selectorsByValue = new Map[size];
+    this.selectors = new int[size][];
+    int k = 0;
+    for (Map.Entry<String, Map<String, List<Integer>>> property : terms.entrySet()) {
+      names[k] = property.getKey();
+      this.slots[k] = slots.get(property.getKey());
+      Map<String, int[]> byValue = new HashMap<>();
+      List<Integer> all = new ArrayList<>();
+      property
+          .getValue()
+          .forEach(
+              (value, indexes) -> {
+                byValue.put(value, toArray(indexes));
+                all.addAll(indexes);
+              });
+      selectorsByValue[k] = byValue;
+      selectors[k] = toArray(all);
+      k++;
+    }
+    this.indexed = new long[(numSelectors + 63) >>> 6];
+    for (int i = 0; i < numSelectors; i++) {
+      if (numTerms[i] > 0) {
+        indexed[i >>> 6] |= 1L << i;
+      }
+    }
+  }
+
+  /** @return the per-evaluation state, an instance can be reused for the messages of an entry */
+  Scratch newScratch() {
+    return new Scratch(numSelectors);
+  }
+
+  /**
+   * Resolves the indexed selectors for a message.
+   *
+   * @param context the evaluation context of the message
+   * @param matches receives the selectors that match, starting at offset
+   * @param offset the position of the message in matches
+   * @param resolved receives the selectors resolved by the index, they must not be evaluated
+   * @param scratch the per-evaluation state
+   */
+  void evaluate(
+      CompiledSelector.EvaluationContext context,
+      long[] matches,
+      int offset,
+      long[] resolved,
+      Scratch scratch) {
+    int[] found = scratch.found;
+    for (int k = 0; k < names.length; k++) {
+      Object value;
+      try {
+        value = context.getProperty(slots[k], names[k]);
+      } catch (RuntimeException err) {
+        // the selectors will report the error
+        value = err;
+      }
+      if (value != null && !(value instanceof String)) {
+        // not a plain string comparison
+        for (int selector : selectors[k]) {
+          scratch.touch(selector);
+          found[selector] = Integer.MIN_VALUE;
+        }
+        continue;
+      }
+      int[] matching = value != null ? selectorsByValue[k].get(value) : null;
+      if (matching != null) {
+        for (int selector : matching) {
+          scratch.touch(selector);
+          found[selector]++;
+        }
+      }
+    }
+    System.arraycopy(indexed, 0, resolved, 0, indexed.length);
+    // the selectors not touched do not match
+    for (int i = 0; i < scratch.numTouched; i++) {
+      int selector = scratch.touched[i];
+      int count = found[selector];
+      found[selector] = 0;
+      if (count < 0 || (count == numTerms[selector] && partial[selector])) {
+        // evaluated as usual
+        resolved[selector >>> 6] &= ~(1L << selector);
+      } else if (count == numTerms[selector]) {
+        matches[offset + (selector >>> 6)] |= 1L << selector;
+      }
+    }
+    scratch.numTouched = 0;
+  }
+
+  private static int[] toArray(List<Integer> values) {
+    return values.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /** The terms found for each selector while resolving a message. */
+  static final class Scratch {
+    private final int[] found;
+    private final int[] touched;
+    private int numTouched;
+
+    private Scratch(int numSelectors) {
+      this.found = new int[numSelectors];
+      this.touched = new int[numSelectors];
+    }
+
+    private void touch(int selector) {
+      if (found[selector] == 0) {
+        touched[numTouched++] = selector;
+      }
+    }
+  }
+
+  /** Collects the indexable selectors of a group. */
+  static final class Builder {
+    private final Map<String, Map<String, List<Integer>>> terms = new LinkedHashMap<>();
+    private final int[] numTerms;
+    private final boolean[] partial;
+
+    /** @param numSelectors the number of selectors in the group */
+    Builder(int numSelectors) {
+      this.numTerms = new int[numSelectors];
+      this.partial = new boolean[numSelectors];
+    }
+
+    /**
+     * Adds the term {@code name = 'value'} of a selector.
+     *
+     * @param selector the index of the selector in the group
+     */
+    void addTerm(int selector, String name, String value) {
+      terms
+          .computeIfAbsent(name, n -> new HashMap<>())
+          .computeIfAbsent(value, v -> new ArrayList<>())
+          .add(selector);
+      numTerms[selector]++;
+    }
+
+    /** The selector has terms that are not in the index. */
+    void setPartial(int selector) {
+      partial[selector] = true;
+    }
+
+    /**
+     * @param slots the property slots of the group
+     * @return the index, null if there are no indexable selectors
+     */
+    EqualityIndex build(Map<String, Integer> slots) {
+      return terms.isEmpty()
+          ? null
+          : new EqualityIndex(numTerms.length, slots, terms, numTerms, partial);
+    }
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import java.util.Properties;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.broker.ServiceConfiguration;
+import org.apache.pulsar.broker.service.Subscription;
+import org.apache.pulsar.broker.service.Topic;
+
+/**
+ * Configuration of the {@link JMSFilter}.
+ *
+ * <p>The values are read from the broker configuration (broker.conf), the Pulsar broker keeps the
+ * entries it does not know in {@link ServiceConfiguration#getProperties()}.
+ */
+@Slf4j
+final class FilterConfiguration {
+
+  static final FilterConfiguration DEFAULT = new FilterConfiguration(new Properties(), false);
+
+  /**
+   * Number of decoded batch entries kept for each topic, in order to share them among the
+   * subscriptions. Set 0 to disable the cache.
+   */
+  static final String ENTRY_METADATA_CACHE_SIZE = "jmsFilterEntryMetadataCacheSize";
+
+  /**
+   * Evaluate the selectors of all the subscriptions of a topic together, once per entry. This
+   * requires the entry metadata cache.
+   */
+  static final String SHARED_SELECTOR_EVALUATION = "jmsFilterSharedSelectorEvaluation";
+
+  /**
+   * Maximum number of entries rescheduled by the queue consumers that are kept decoded for each
+   * topic, until the broker dispatches them again. This requires the entry metadata cache.
+   */
+  static final String RESCHEDULED_ENTRIES_CACHE_SIZE = "jmsFilterRescheduledEntriesCacheSize";
+
+  /**
+   * Maximum number of entries parked by each queue consumer: the entries rescheduled because the
+   * selector does not match, that are rescheduled again without evaluating the selector. Set 0 to
+   * disable parking.
+   */
+  static final String PARKED_ENTRIES_PER_CONSUMER = "jmsFilterParkedEntriesPerConsumer";
+
+  /** Maximum number of parsed selectors kept in memory by the filter. */
+  static final String SELECTOR_CACHE_SIZE = "jmsFilterSelectorCacheSize";
+
+  /**
+   * Publish the metrics of the filter, by topic and subscription, on the Prometheus endpoint of the
+   * broker. Disabled by default, every subscription adds its own series.
+   */
+  static final String METRICS_ENABLED = "jmsFilterMetricsEnabled";
+
+  /**
+   * Number of threads that evaluate the selectors on the messages of a batch entry in parallel,
+   * shared by all the subscriptions. Set 0 to evaluate the messages on the dispatcher thread.
+   */
+  static final String PARALLEL_EVALUATION_THREADS = "jmsFilterParallelEvaluationThreads";
+
+  /** Minimum number of messages of a batch entry for the parallel evaluation. */
+  static final String PARALLEL_EVALUATION_MIN_MESSAGES = "jmsFilterParallelEvaluationMinMessages";
+
+  private final int entryMetadataCacheSize;
+  private final boolean sharedSelectorEvaluation;
+  private final boolean batchIndexAcknowledgment;
+  private final int rescheduledEntriesCacheSize;
+  private final int parkedEntriesPerConsumer;
+  private final int selectorCacheSize;
+  private final boolean metricsEnabled;
+  private final int parallelEvaluationThreads;
+  private final int parallelEvaluationMinMessages;
+
+  FilterConfiguration(Properties properties, boolean batchIndexAcknowledgment) {
+    this.batchIndexAcknowledgment = batchIndexAcknowledgment;
+    this.entryMetadataCacheSize = getInt(properties, ENTRY_METADATA_CACHE_SIZE, 32);
+    this.sharedSelectorEvaluation =
+        Boolean.parseBoolean(properties.getProperty(SHARED_SELECTOR_EVALUATION, "false").trim());
+    this.rescheduledEntriesCacheSize = getInt(properties, RESCHEDULED_ENTRIES_CACHE_SIZE, 1000);
+    this.parkedEntriesPerConsumer = getInt(properties, PARKED_ENTRIES_PER_CONSUMER, 1000);
+    this.selectorCacheSize = Math.max(1, getInt(properties, SELECTOR_CACHE_SIZE, 1000));
+    this.metricsEnabled =
+        Boolean.parseBoolean(properties.getProperty(METRICS_ENABLED, "false").trim());
+    this.parallelEvaluationThreads =
+        Math.max(0, getInt(properties, PARALLEL_EVALUATION_THREADS, 0));
+    this.parallelEvaluationMinMessages =
+        Math.max(1, getInt(properties, PARALLEL_EVALUATION_MIN_MESSAGES, 64));
+  }
+
+  static FilterConfiguration fromBroker(Subscription subscription) {
+    try {
+      Topic topic = subscription.getTopic();
+      ServiceConfiguration configuration = topic.getBrokerService().getPulsar().getConfiguration();
+      FilterConfiguration result =
+          new FilterConfiguration(
+              configuration.getProperties(),
+              configuration.isAcknowledgmentAtBatchIndexLevelEnabled());
+      log.info("JMSFilter configuration {}", result);
+      return result;
+    } catch (RuntimeException err) {
+      log.info("Cannot read the broker configuration, using the default configuration", err);
+      return DEFAULT;
+    }
+  }
+
+  int getEntryMetadataCacheSize() {
+    return entryMetadataCacheSize;
+  }
+
+  boolean isSharedSelectorEvaluation() {
+    return sharedSelectorEvaluation && entryMetadataCacheSize > 0;
+  }
+
+  int getRescheduledEntriesCacheSize() {
+    return rescheduledEntriesCacheSize;
+  }
+
+  int getParkedEntriesPerConsumer() {
+    return parkedEntriesPerConsumer;
+  }
+
+  /**
+   * The broker keeps track of the acknowledged messages inside a batch only with
+   * acknowledgmentAtBatchIndexLevelEnabled=true, this is needed in order to filter the single
+   * messages of a batch.
+   */
+  boolean isBatchIndexAcknowledgment() {
+    return batchIndexAcknowledgment;
+  }
+
+  int getSelectorCacheSize() {
+    return selectorCacheSize;
+  }
+
+  boolean isMetricsEnabled() {
+    return metricsEnabled;
+  }
+
+  int getParallelEvaluationThreads() {
+    return parallelEvaluationThreads;
+  }
+
+  int getParallelEvaluationMinMessages() {
+    return parallelEvaluationMinMessages;
+  }
+
+  private static int getInt(Properties properties, String key, int defaultValue) {
+    String value = properties.getProperty(key);
+    if (value == null || value.trim().isEmpty()) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException err) {
+      log.error("Invalid value '{}' for {}, using {}", value, key, defaultValue);
+      return defaultValue;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "FilterConfiguration{"
+        + "entryMetadataCacheSize="
+        + entryMetadataCacheSize
+        + ", sharedSelectorEvaluation="
+        + sharedSelectorEvaluation
+        + ", batchIndexAcknowledgment="
+        + batchIndexAcknowledgment
+        + ", rescheduledEntriesCacheSize="
+        + rescheduledEntriesCacheSize
+        + ", parkedEntriesPerConsumer="
+        + parkedEntriesPerConsumer
+        + ", selectorCacheSize="
+        + selectorCacheSize
+        + ", metricsEnabled="
+        + metricsEnabled
+        + ", parallelEvaluationThreads="
+        + parallelEvaluationThreads
+        + ", parallelEvaluationMinMessages="
+        + parallelEvaluationMinMessages
+        + '}';
+  }
+}
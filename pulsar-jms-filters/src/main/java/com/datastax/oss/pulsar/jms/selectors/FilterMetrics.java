@@ -0,0 +1,265 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+import io.prometheus.client.Histogram;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.broker.service.plugin.EntryFilter.FilterResult;
+
+/**
+ * Metrics of the {@link JMSFilter}, by topic and subscription.
+ *
+ * <p>The metrics are registered in the default Prometheus registry, that the broker exposes
+ * together with its own metrics on the /metrics endpoint. The series of a subscription are removed
+ * when no consumer uses them any more. The metrics of the selector caches are not by subscription,
+ * they are the sums over the filters loaded by the broker.
+ */
+@Slf4j
+final class FilterMetrics {
+
+  private static final String[] LABELS = {"topic", "subscription"};
+
+  static final Counter ENTRIES =
+      Counter.build()
+          .name("pulsar_jmsfilter_entries")
+          .help("Entries processed by the JMS filter, by result (accept, reject, reschedule)")
+          .labelNames("topic", "subscription", "result")
+          .create();
+
+  static final Histogram PROCESSING_TIME =
+      Histogram.build()
+          .name("pulsar_jmsfilter_processing_time_seconds")
+          .help("Time spent by the JMS filter on an entry")
+          .labelNames(LABELS)
+          .buckets(0.000_001, 0.000_005, 0.000_01, 0.000_05, 0.000_1, 0.000_5, 0.001, 0.01, 0.1)
+          .create();
+
+  static final Histogram BATCH_MESSAGES_SCANNED =
+      Histogram.build()
+          .name("pulsar_jmsfilter_batch_messages_scanned")
+          .help("Messages of a batch entry read by the JMS filter before knowing the result")
+          .labelNames(LABELS)
+          .buckets(1, 2, 5, 10, 20, 50, 100, 200, 500, 1000)
+          .create();
+
+  static final Counter DECOMPRESSED_BYTES =
+      Counter.build()
+          .name("pulsar_jmsfilter_decompressed_bytes")
+          .help("Bytes of batch payloads decompressed by the JMS filter")
+          .labelNames(LABELS)
+          .create();
+
+  static final Counter PARKED_ENTRIES =
+      Counter.build()
+          .name("pulsar_jmsfilter_parked_entries")
+          .help("Entries rescheduled again by a consumer without evaluating its selector")
+          .labelNames(LABELS)
+          .create();
+
+  static final Collector SELECTOR_CACHE = new SelectorCacheCollector();
+
+  private static final AtomicBoolean registered = new AtomicBoolean();
+
+  // the selector caches of the filters, published by SELECTOR_CACHE
+  private static final Set<SelectorCache> selectorCaches = new HashSet<>();
+  // the counters of the caches that have been unregistered, so that the totals never decrease,
+  // guarded by selectorCaches
+  private static long unregisteredHits;
+  private static long unregisteredMisses;
+  private static long unregisteredEvictions;
+
+  // the metrics in use, by topic and subscription
+  private static final ConcurrentHashMap<List<String>, SubscriptionMetrics> subscriptions =
+      new ConcurrentHashMap<>();
+
+  private FilterMetrics() {}
+
+  /** Registers the metrics in the default registry, only the first call has effect. */
+  static void register() {
+    if (!registered.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      CollectorRegistry.defaultRegistry.register(ENTRIES);
+      CollectorRegistry.defaultRegistry.register(PROCESSING_TIME);
+      CollectorRegistry.defaultRegistry.register(BATCH_MESSAGES_SCANNED);
+      CollectorRegistry.defaultRegistry.register(DECOMPRESSED_BYTES);
+      CollectorRegistry.defaultRegistry.register(PARKED_ENTRIES);
+      CollectorRegistry.defaultRegistry.register(SELECTOR_CACHE);
+    } catch (IllegalArgumentException err) {
+      // the filter has been loaded twice, with different classloaders
+      log.warn("Cannot register the metrics of the JMSFilter", err);
+    }
+  }
+
+  /** Publishes the counters of a selector cache, until the filter is closed. */
+  static void registerSelectorCache(SelectorCache cache) {
+    synchronized (selectorCaches) {
+      selectorCaches.add(cache);
+    }
+  }
+
+  static void unregisterSelectorCache(SelectorCache cache) {
+    synchronized (selectorCaches) {
+      if (selectorCaches.remove(cache)) {
+        unregisteredHits += cache.getHits();
+        unregisteredMisses += cache.getMisses();
+        unregisteredEvictions += cache.getEvictions();
+      }
+    }
+  }
+
+  /**
+   * Returns the metrics of a subscription, every call must be paired with a call to {@link
+   * #release}.
+   */
+  static SubscriptionMetrics acquire(String topic, String subscription) {
+    return subscriptions.compute(
+        Arrays.asList(topic, subscription),
+        (key, metrics) -> {
+          if (metrics == null) {
+            metrics = new SubscriptionMetrics(topic, subscription);
+          }
+          metrics.references++;
+          return metrics;
+        });
+  }
+
+  /** Releases the metrics of a subscription, the series are removed with the last reference. */
+  static void release(SubscriptionMetrics metrics) {
+    subscriptions.computeIfPresent(
+        Arrays.asList(metrics.topic, metrics.subscription),
+        (key, current) -> {
+          if (current != metrics || --current.references > 0) {
+            return current;
+          }
+          current.remove();
+          return null;
+        });
+  }
+
+  /** The metrics of a subscription, resolved once in order to avoid the lookup of the labels. */
+  static final class SubscriptionMetrics {
+    private final String topic;
+    private final String subscription;
+    // guarded by the map of the subscriptions
+    private int references;
+    private final Counter.Child accepted;
+    private final Counter.Child rejected;
+    private final Counter.Child rescheduled;
+    private final Histogram.Child processingTime;
+    private final Histogram.Child batchMessagesScanned;
+    private final Counter.Child decompressedBytes;
+    private final Counter.Child parkedEntries;
+
+    SubscriptionMetrics(String topic, String subscription) {
+      this.topic = topic;
+      this.subscription = subscription;
+      this.accepted = ENTRIES.labels(topic, subscription, "accept");
+      this.rejected = ENTRIES.labels(topic, subscription, "reject");
+      this.rescheduled = ENTRIES.labels(topic, subscription, "reschedule");
+      this.processingTime = PROCESSING_TIME.labels(topic, subscription);
+      this.batchMessagesScanned = BATCH_MESSAGES_SCANNED.labels(topic, subscription);
+      this.decompressedBytes = DECOMPRESSED_BYTES.labels(topic, subscription);
+      this.parkedEntries = PARKED_ENTRIES.labels(topic, subscription);
+    }
+
+    void recordResult(FilterResult result, long startNanos) {
+      processingTime.observe((System.nanoTime() - startNanos) / 1_000_000_000.0);
+      switch (result) {
+        case ACCEPT:
+          accepted.inc();
+          break;
+        case REJECT:
+          rejected.inc();
+          break;
+        default:
+          rescheduled.inc();
+          break;
+      }
+    }
+
+    void recordBatchMessagesScanned(int messages) {
+      batchMessagesScanned.observe(messages);
+    }
+
+    void recordDecompressedBytes(int bytes) {
+      decompressedBytes.inc(bytes);
+    }
+
+    void recordParkedEntry() {
+      parkedEntries.inc();
+    }
+
+    private void remove() {
+      ENTRIES.remove(topic, subscription, "accept");
+      ENTRIES.remove(topic, subscription, "reject");
+      ENTRIES.remove(topic, subscription, "reschedule");
+      PROCESSING_TIME.remove(topic, subscription);
+      BATCH_MESSAGES_SCANNED.remove(topic, subscription);
+      DECOMPRESSED_BYTES.remove(topic, subscription);
+      PARKED_ENTRIES.remove(topic, subscription);
+    }
+  }
+
+  private static final class SelectorCacheCollector extends Collector {
+    @Override
+    public List<MetricFamilySamples> collect() {
+      long hits;
+      long misses;
+      long evictions;
+      long size = 0;
+      synchronized (selectorCaches) {
+        hits = unregisteredHits;
+        misses = unregisteredMisses;
+        evictions = unregisteredEvictions;
+        for (SelectorCache cache : selectorCaches) {
+          hits += cache.getHits();
+          misses += cache.getMisses();
+          evictions += cache.getEvictions();
+          size += cache.size();
+        }
+      }
+      CounterMetricFamily requests =
+          new CounterMetricFamily(
+              "pulsar_jmsfilter_selector_cache_requests",
+              "Lookups of the selectors in the cache, by result (hit, miss)",
+              Collections.singletonList("result"));
+      requests.addMetric(Collections.singletonList("hit"), hits);
+      requests.addMetric(Collections.singletonList("miss"), misses);
+      return Arrays.asList(
+          requests,
+          new CounterMetricFamily(
+              "pulsar_jmsfilter_selector_cache_evictions",
+              "Selectors evicted from the cache",
+              evictions),
+          new GaugeMetricFamily(
+              "pulsar_jmsfilter_selector_cache_size", "Selectors in the cache", size));
+    }
+  }
+}
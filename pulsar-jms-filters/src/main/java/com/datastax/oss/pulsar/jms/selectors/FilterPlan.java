@@ -0,0 +1,210 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import javax.jms.JMSException;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.broker.service.plugin.EntryFilter.FilterResult;
+
+/**
+ * The filtering settings of a consumer, read once from the metadata of the consumer and from the
+ * properties of its subscription.
+ *
+ * <p>The metadata of a consumer never changes, and the broker replaces the properties of a
+ * subscription with a new map when they are updated, so a plan is valid as long as the subscription
+ * returns the same map instance.
+ */
+@Slf4j
+@Getter
+final class FilterPlan {
+
+  // do not update the last access time of a plan more often than this
+  private static final long TOUCH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  /** The consumer, or the subscription for the evaluations without a consumer. */
+  private final Object owner;
+  /** The properties of the subscription the plan was built from, compared by identity. */
+  private final Map<String, String> subscriptionProperties;
+
+  private final boolean jmsFiltering;
+  private final String topicName;
+  private final SelectorSupport selector;
+  private final SelectorSupport selectorOnSubscription;
+  /** The fields of the body referenced by the selectors. */
+  private final Set<String> bodyFields;
+  /**
+   * The selectors reference only the JMS headers, the filter does not need the other properties of
+   * the messages.
+   */
+  private final boolean headersOnly;
+  /** A selector cannot be built, the entries are rescheduled and the plan is not cached. */
+  private final boolean selectorError;
+
+  private final String destinationTypeForTheClient;
+  // noLocal filter
+  private final String filterJMSConnectionID;
+  private final boolean forceDropRejected;
+  private final boolean batchIndexFiltering;
+  private final FilterResult rejectResultForSelector;
+  /** The entries rescheduled by the selector, null if the consumer does not reschedule. */
+  private final ParkedEntries parkedEntries;
+  /** The metrics of the subscription, null if the metrics are disabled. */
+  private final FilterMetrics.SubscriptionMetrics metrics;
+
+  private volatile long lastAccessNanos = System.nanoTime();
+  private volatile boolean closed;
+
+  /**
+   * Builds the plan.
+   *
+   * @param owner the consumer, or the subscription if there is no consumer
+   * @param subscriptionProperties the properties of the subscription, null if not supported
+   * @param topicName the name of the topic
+   * @param consumerMetadata the metadata of the consumer
+   * @param selectors the cache of the selectors
+   * @param batchIndexAcknowledgment if the broker supports batch index acknowledgement
+   * @param maxParkedEntries the maximum number of entries parked by the consumer
+   * @param metrics the metrics of the subscription, null if the metrics are disabled
+   */
+  FilterPlan(
+      Object owner,
+      Map<String, String> subscriptionProperties,
+      String topicName,
+      Map<String, String> consumerMetadata,
+      SelectorCache selectors,
+      boolean batchIndexAcknowledgment,
+      int maxParkedEntries,
+      FilterMetrics.SubscriptionMetrics metrics) {
+    this.owner = owner;
+    this.metrics = metrics;
+    this.subscriptionProperties = subscriptionProperties;
+    this.topicName = topicName;
+    Map<String, String> properties =
+        subscriptionProperties != null ? subscriptionProperties : Collections.emptyMap();
+    this.jmsFiltering =
+        "true".equals(consumerMetadata.get("jms.filtering"))
+            || "true".equals(properties.get("jms.filtering"));
+    this.destinationTypeForTheClient = consumerMetadata.get("jms.destination.type");
+    this.filterJMSConnectionID = consumerMetadata.getOrDefault("jms.filter.JMSConnectionID", "");
+    this.forceDropRejected =
+        "true".equals(consumerMetadata.getOrDefault("jms.force.drop.rejected", "false"));
+    // acknowledge the messages of a batch that are to be dropped,
+    // the consumer will receive only the other messages
+    this.batchIndexFiltering =
+        "true".equals(consumerMetadata.get("jms.filter.batch.index")) && batchIndexAcknowledgment;
+    String jmsSelectorRejectAction = consumerMetadata.get("jms.selector.reject.action");
+    if ("drop".equals(jmsSelectorRejectAction) || forceDropRejected) {
+      // this is the common behaviour for a Topics
+      // or happens for Queues with jms.acknowledgeRejectedMessages=true
+      this.rejectResultForSelector = FilterResult.REJECT;
+    } else {
+      // this is the common behaviour for a Queue
+      this.rejectResultForSelector = FilterResult.RESCHEDULE;
+    }
+    this.parkedEntries =
+        jmsFiltering && rejectResultForSelector == FilterResult.RESCHEDULE && maxParkedEntries > 0
+            ? new ParkedEntries(maxParkedEntries)
+            : null;
+
+    if (!jmsFiltering) {
+      this.selector = null;
+      this.selectorOnSubscription = null;
+      this.selectorError = false;
+      this.bodyFields = Collections.emptySet();
+      this.headersOnly = true;
+      return;
+    }
+    String jmsSelector = consumerMetadata.getOrDefault("jms.selector", "");
+    SelectorSupport selector =
+        selectors.computeIfAbsent(
+            jmsSelector,
+            s -> {
+              try {
+                return SelectorSupport.build(s, true);
+              } catch (JMSException err) {
+                log.error("Cannot build selector from '{}'", jmsSelector, err);
+                return null;
+              }
+            });
+    String jmsSelectorOnSubscription = properties.getOrDefault("jms.selector", "");
+    SelectorSupport selectorOnSubscription =
+        selectors.computeIfAbsent(
+            jmsSelectorOnSubscription,
+            s -> {
+              try {
+                return SelectorSupport.build(s, true);
+              } catch (JMSException err) {
+                log.error(
+                    "Cannot build subscription selector from '{}'", jmsSelectorOnSubscription, err);
+                return null;
+              }
+            });
+    this.selectorError =
+        (selector == null && !jmsSelector.isEmpty())
+            || (selectorOnSubscription == null && !jmsSelectorOnSubscription.isEmpty());
+    // the filter cannot read the body of the messages, the client evaluates the XPath selectors
+    this.selector = selector != null && selector.isXPath() ? null : selector;
+    this.selectorOnSubscription =
+        selectorOnSubscription != null && selectorOnSubscription.isXPath()
+            ? null
+            : selectorOnSubscription;
+    Set<String> bodyFields = new TreeSet<>();
+    if (this.selector != null) {
+      bodyFields.addAll(this.selector.getBodyFields());
+    }
+    if (this.selectorOnSubscription != null) {
+      bodyFields.addAll(this.selectorOnSubscription.getBodyFields());
+    }
+    this.bodyFields = bodyFields.isEmpty() ? Collections.emptySet() : bodyFields;
+    this.headersOnly =
+        !selectorError
+            && (this.selector == null || this.selector.isHeadersOnly())
+            && (this.selectorOnSubscription == null || this.selectorOnSubscription.isHeadersOnly());
+  }
+
+  /** @return true if the plan has been built for the owner and the subscription properties */
+  boolean isValidFor(Object owner, Map<String, String> subscriptionProperties) {
+    return this.owner == owner && this.subscriptionProperties == subscriptionProperties;
+  }
+
+  /** @return true if the plan has been dropped, it must not be used for new entries */
+  boolean isClosed() {
+    return closed;
+  }
+
+  /** Releases the metrics, the plan is not used any more. */
+  void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (metrics != null) {
+      FilterMetrics.release(metrics);
+    }
+  }
+
+  void touch(long now) {
+    if (now - lastAccessNanos > TOUCH_INTERVAL_NANOS) {
+      lastAccessNanos = now;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link FilterPlan}s of the consumers, by identity of the consumer.
+ *
+ * <p>The broker filters the entries of a read for one consumer at a time, so every thread remembers
+ * the last plan it used and most lookups do not reach the map. The filter is not notified when a
+ * consumer goes away, the plans that are not used for a while are dropped and closed. The threads
+ * reference their last plan weakly, so that they do not retain a consumer that went away.
+ */
+final class FilterPlanCache {
+
+  // drop the plans of the consumers that did not receive entries recently
+  private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+  private static final long EVICTION_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final long idleNanos;
+  private final long evictionIntervalNanos;
+  private final ConcurrentHashMap<OwnerKey, FilterPlan> plans = new ConcurrentHashMap<>();
+  private final ThreadLocal<WeakReference<FilterPlan>> lastPlan = new ThreadLocal<>();
+  private volatile long lastEvictionNanos = System.nanoTime();
+
+  FilterPlanCache() {
+    this(IDLE_NANOS, EVICTION_INTERVAL_NANOS);
+  }
+
+  FilterPlanCache(long idleNanos, long evictionIntervalNanos) {
+    this.idleNanos = idleNanos;
+    this.evictionIntervalNanos = evictionIntervalNanos;
+  }
+
+  /**
+   * @param owner the consumer, or the subscription if there is no consumer
+   * @param subscriptionProperties the current properties of the subscription
+   * @return the plan, null if there is no plan or if the subscription properties changed
+   */
+  FilterPlan get(Object owner, Map<String, String> subscriptionProperties) {
+    long now = System.nanoTime();
+    evictIdlePlans(now);
+    WeakReference<FilterPlan> last = lastPlan.get();
+    FilterPlan plan = last != null ? last.get() : null;
+    if (plan == null || plan.getOwner() != owner || plan.isClosed()) {
+      plan = plans.get(new OwnerKey(owner));
+      if (plan == null) {
+        return null;
+      }
+      lastPlan.set(new WeakReference<>(plan));
+    }
+    if (!plan.isValidFor(owner, subscriptionProperties)) {
+      return null;
+    }
+    plan.touch(now);
+    return plan;
+  }
+
+  void put(FilterPlan plan) {
+    FilterPlan previous = plans.put(new OwnerKey(plan.getOwner()), plan);
+    if (previous != null && previous != plan) {
+      // the subscription properties changed
+      previous.close();
+    }
+    lastPlan.set(new WeakReference<>(plan));
+    evictIdlePlans(System.nanoTime());
+  }
+
+  private void evictIdlePlans(long now) {
+    if (now - lastEvictionNanos <= evictionIntervalNanos) {
+      return;
+    }
+    lastEvictionNanos = now;
+    for (Map.Entry<OwnerKey, FilterPlan> entry : plans.entrySet()) {
+      FilterPlan idle = entry.getValue();
+      if (now - idle.getLastAccessNanos() > idleNanos && plans.remove(entry.getKey(), idle)) {
+        idle.close();
+      }
+    }
+  }
+
+  int size() {
+    return plans.size();
+  }
+
+  void clear() {
+    for (Map.Entry<OwnerKey, FilterPlan> entry : plans.entrySet()) {
+      if (plans.remove(entry.getKey(), entry.getValue())) {
+        entry.getValue().close();
+      }
+    }
+    lastPlan.remove();
+  }
+
+  /** The consumers are compared by identity, Consumer.equals depends on its connection. */
+  private static final class OwnerKey {
+    private final Object owner;
+
+    OwnerKey(Object owner) {
+      this.owner = owner;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof OwnerKey && ((OwnerKey) other).owner == owner;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(owner);
+    }
+  }
+}
@@ -15,13 +15,16 @@
  */
 package com.datastax.oss.pulsar.jms.selectors;
 
+import com.datastax.oss.pulsar.jms.selectors.EntryMetadataCache.DecodedEntry;
+import com.datastax.oss.pulsar.jms.selectors.EntryMetadataCache.DecodedMessage;
 import io.netty.buffer.ByteBuf;
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import java.io.IOException;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import javax.jms.Destination;
 import javax.jms.JMSException;
@@ -31,13 +34,16 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.activemq.command.ActiveMQQueue;
 import org.apache.activemq.command.ActiveMQTopic;
 import org.apache.bookkeeper.mledger.Entry;
+import org.apache.bookkeeper.mledger.impl.PositionImpl;
 import org.apache.pulsar.broker.service.Consumer;
 import org.apache.pulsar.broker.service.Subscription;
+import org.apache.pulsar.broker.service.Topic;
 import org.apache.pulsar.broker.service.persistent.PersistentSubscription;
 import org.apache.pulsar.broker.service.plugin.EntryFilter;
 import org.apache.pulsar.broker.service.plugin.FilterContext;
+import org.apache.pulsar.common.api.proto.CommandAck;
 import org.apache.pulsar.common.api.proto.CommandSubscribe;
-import org.apache.pulsar.common.api.proto.KeyValue;
+import org.apache.pulsar.common.api.proto.CompressionType;
 import org.apache.pulsar.common.api.proto.MessageMetadata;
 import org.apache.pulsar.common.api.proto.SingleMessageMetadata;
 import org.apache.pulsar.common.compression.CompressionCodec;
@@ -47,86 +53,95 @@ import org.apache.pulsar.common.protocol.Commands;
 @Slf4j
 public class JMSFilter implements EntryFilter {
 
-  private final ConcurrentHashMap<String, SelectorSupport> selectors = new ConcurrentHashMap<>();
+  // the message is filled for every entry that is not cached, this way we reuse the storage
+  private static final ThreadLocal<DecodedMessage> DECODED_MESSAGE =
+      ThreadLocal.withInitial(() -> new DecodedMessage(new MessagePropertyIndex()));
+
+  // drop the cache of a topic that did not receive new entries recently
+  private static final long ENTRY_METADATA_CACHE_IDLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+  // drop the shared selectors that are no longer used by any subscription
+  private static final long SHARED_SELECTOR_IDLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+  private final SelectorCache selectors =
+      new SelectorCache(FilterConfiguration.DEFAULT.getSelectorCacheSize());
+
+  private final FilterPlanCache filterPlans = new FilterPlanCache();
+
+  private final MessageBodyDecoders bodyDecoders = new MessageBodyDecoders();
+
+  private final ConcurrentHashMap<String, EntryMetadataCache> entryMetadataCaches =
+      new ConcurrentHashMap<>();
+
+  private volatile FilterConfiguration configuration;
+
+  // null if the messages of the batches are evaluated on the dispatcher thread
+  private volatile ParallelEvaluator parallelEvaluator;
 
   @Override
   public FilterResult filterEntry(Entry entry, FilterContext context) {
-    Consumer consumer = context.getConsumer();
-    Map<String, String> consumerMetadata =
-        consumer != null ? consumer.getMetadata() : Collections.emptyMap();
     Subscription subscription = context.getSubscription();
-    boolean jmsFiltering = "true".equals(consumerMetadata.get("jms.filtering"));
-    final String jmsSelectorOnSubscription;
-    if (subscription instanceof PersistentSubscription) {
-      // in 2.10 only PersistentSubscription has getSubscriptionProperties method
-      Map<String, String> subscriptionProperties =
-          ((PersistentSubscription) subscription).getSubscriptionProperties();
-      if (subscriptionProperties != null) {
-        jmsSelectorOnSubscription = subscriptionProperties.getOrDefault("jms.selector", "");
-        jmsFiltering = jmsFiltering || "true".equals(subscriptionProperties.get("jms.filtering"));
-      } else {
-        jmsSelectorOnSubscription = "";
-      }
-    } else {
-      jmsSelectorOnSubscription = "";
-    }
-    if (!jmsFiltering) {
+    FilterPlan plan = getFilterPlan(context.getConsumer(), subscription);
+    if (!plan.isJmsFiltering()) {
       return FilterResult.ACCEPT;
     }
-    String topicName = context.getSubscription().getTopicName();
-    String jmsSelector = consumerMetadata.getOrDefault("jms.selector", "");
-    String destinationTypeForTheClient = consumerMetadata.get("jms.destination.type");
-    String jmsSelectorRejectAction = consumerMetadata.get("jms.selector.reject.action");
-    // noLocal filter
-    String filterJMSConnectionID = consumerMetadata.getOrDefault("jms.filter.JMSConnectionID", "");
-    boolean forceDropRejected =
-        "true".equals(consumerMetadata.getOrDefault("jms.force.drop.rejected", "false"));
-    final FilterResult rejectResultForSelector;
-    if ("drop".equals(jmsSelectorRejectAction) || forceDropRejected) {
-      // this is the common behaviour for a Topics
-      // or happens for Queues with jms.acknowledgeRejectedMessages=true
-      rejectResultForSelector = FilterResult.REJECT;
-    } else {
-      // this is the common behaviour for a Queue
-      rejectResultForSelector = FilterResult.RESCHEDULE;
+    FilterMetrics.SubscriptionMetrics metrics = plan.getMetrics();
+    if (metrics == null) {
+      return filterEntry(entry, context, plan);
+    }
+    long start = System.nanoTime();
+    FilterResult result = filterEntry(entry, context, plan);
+    metrics.recordResult(result, start);
+    if (plan.isSelectorError()) {
+      // the plan is not cached
+      plan.close();
     }
+    return result;
+  }
+
+  private FilterResult filterEntry(Entry entry, FilterContext context, FilterPlan plan) {
+    Subscription subscription = context.getSubscription();
+    FilterMetrics.SubscriptionMetrics metrics = plan.getMetrics();
     MessageMetadata metadata = context.getMsgMetadata();
     if (metadata.hasMarkerType()) {
       // special messages...ignore
       return FilterResult.ACCEPT;
     }
-    SelectorSupport selector =
-        selectors.computeIfAbsent(
-            jmsSelector,
-            s -> {
-              try {
-                return SelectorSupport.build(s, !jmsSelector.isEmpty());
-              } catch (JMSException err) {
-                log.error("Cannot build selector from '{}'", jmsSelector, err);
-                return null;
-              }
-            });
-    if (selector == null && !jmsSelector.isEmpty()) {
+    if (plan.isSelectorError()) {
       // error creating the selector. try again later
       return FilterResult.RESCHEDULE;
     }
-
-    SelectorSupport selectorOnSubscription =
-        selectors.computeIfAbsent(
-            jmsSelectorOnSubscription,
-            s -> {
-              try {
-                return SelectorSupport.build(s, !jmsSelectorOnSubscription.isEmpty());
-              } catch (JMSException err) {
-                log.error(
-                    "Cannot build subscription selector from '{}'", jmsSelectorOnSubscription, err);
-                return null;
-              }
-            });
-    if (selectorOnSubscription == null && !jmsSelectorOnSubscription.isEmpty()) {
-      // error creating the selector. try again later
+    ParkedEntries parkedEntries = plan.getParkedEntries();
+    if (parkedEntries != null
+        && parkedEntries.isParked(
+            entry.getLedgerId(), entry.getEntryId(), System.currentTimeMillis())) {
+      // the selector already rejected the entry
+      if (metrics != null) {
+        metrics.recordParkedEntry();
+      }
       return FilterResult.RESCHEDULE;
     }
+    MessageBodyDecoder bodyDecoder = null;
+    if (!plan.getBodyFields().isEmpty()
+        && metadata.hasSchemaVersion()
+        && metadata.getEncryptionKeysCount() == 0) {
+      CompletableFuture<MessageBodyDecoder> decoder =
+          bodyDecoders.get(
+              subscription, plan.getTopicName(), metadata.getSchemaVersion(), plan.getBodyFields());
+      if (!decoder.isDone()) {
+        // loading the schema, try again later
+        return FilterResult.RESCHEDULE;
+      }
+      bodyDecoder = decoder.join();
+    }
+    String topicName = plan.getTopicName();
+    String destinationTypeForTheClient = plan.getDestinationTypeForTheClient();
+    String filterJMSConnectionID = plan.getFilterJMSConnectionID();
+    boolean forceDropRejected = plan.isForceDropRejected();
+    boolean batchIndexFiltering = plan.isBatchIndexFiltering();
+    FilterResult rejectResultForSelector = plan.getRejectResultForSelector();
+    SelectorSupport selector = plan.getSelector();
+    SelectorSupport selectorOnSubscription = plan.getSelectorOnSubscription();
 
     CommandSubscribe.SubType subType = subscription.getType();
     if (subType == null) {
@@ -147,104 +162,291 @@ public class JMSFilter implements EntryFilter {
     }
 
     try {
+      // other subscriptions of the topic may have already decoded this entry,
+      // but not the fields of the body
+      EntryMetadataCache cache =
+          plan.getBodyFields().isEmpty() ? getEntryMetadataCache(subscription, topicName) : null;
+      boolean sharedSelectorEvaluation =
+          cache != null && getConfiguration(subscription).isSharedSelectorEvaluation();
+
       if (metadata.hasNumMessagesInBatch()) {
 
         // this is batch message
         // we can reject/reschedule it only if all the messages are to be rejects
         // we must accept it if at least one message passes the filters
 
-        ByteBuf payload = entry.getDataBuffer().slice();
-        Commands.skipMessageMetadata(payload);
-        final int uncompressedSize = metadata.getUncompressedSize();
-        final CompressionCodec codec =
-            CompressionCodecProvider.getCompressionCodec(metadata.getCompression());
-        final ByteBuf uncompressedPayload = codec.decode(payload, uncompressedSize);
+        // the messages are decoded only when the scan reaches them
+        final DecodedEntry decodedEntry =
+            cache != null ? getDecodedEntry(cache, entry, metadata) : null;
+        final CachedBatchReader cachedBatch =
+            decodedEntry != null
+                ? new CachedBatchReader(decodedEntry, entry, metadata, metrics)
+                : null;
+        final ByteBuf uncompressedPayload =
+            decodedEntry == null ? uncompressPayload(entry, metadata, metrics) : null;
+        int scanned = 0;
         try {
+          SelectorGroup.Results sharedResults =
+              sharedSelectorEvaluation
+                  ? evaluateSharedSelectors(
+                      cache, decodedEntry, cachedBatch, topicName, selector, selectorOnSubscription)
+                  : null;
+          int selectorIndex = indexOf(sharedResults, selector);
+          int selectorOnSubscriptionIndex = indexOf(sharedResults, selectorOnSubscription);
+
+          DecodedMessage currentMessage = DECODED_MESSAGE.get();
           int numMessages = metadata.getNumMessagesInBatch();
+
+          // the selectors not evaluated by the shared evaluation can be evaluated in parallel,
+          // only if the result of every message is needed: otherwise the first accepted message
+          // ends the scan
+          ParallelEvaluator parallel = parallelEvaluator;
+          SelectorSupport parallelSelector = selectorIndex < 0 ? selector : null;
+          SelectorSupport parallelSelectorOnSubscription =
+              selectorOnSubscriptionIndex < 0 ? selectorOnSubscription : null;
+          DecodedMessage[] decodedMessages = null;
+          byte[] selectorResults = null;
+          byte[] selectorOnSubscriptionResults = null;
+          if (batchIndexFiltering
+              && parallel != null
+              && parallel.isParallel(numMessages)
+              && (parallelSelector != null || parallelSelectorOnSubscription != null)) {
+            // only the boundaries of the messages are read here, the tasks decode them
+            final SingleMessageMetadata[] singleMessageMetadata =
+                decodedEntry == null ? new SingleMessageMetadata[numMessages] : null;
+            final ByteBuf[] payloads = decodedEntry == null ? new ByteBuf[numMessages] : null;
+            final DecodedMessage[] messages =
+                decodedEntry == null ? new DecodedMessage[numMessages] : null;
+            final MessageBodyDecoder messageBodyDecoder = bodyDecoder;
+            final boolean headersOnly = plan.isHeadersOnly();
+            try {
+              if (decodedEntry == null) {
+                splitMessages(uncompressedPayload, numMessages, singleMessageMetadata, payloads);
+              } else {
+                // the tasks read the messages from the cached entry
+                cachedBatch.decodeAll();
+              }
+              byte[][] results =
+                  parallel.evaluate(
+                      numMessages,
+                      i -> {
+                        final DecodedMessage message;
+                        if (decodedEntry != null) {
+                          message = decodedEntry.getMessage(i);
+                        } else {
+                          message = new DecodedMessage(new MessagePropertyIndex());
+                          decodeMessage(
+                              singleMessageMetadata[i],
+                              payloads[i],
+                              message,
+                              messageBodyDecoder,
+                              headersOnly);
+                          messages[i] = message;
+                        }
+                        return new PropertyEvaluator(
+                            message, destinationTypeForTheClient, topicName);
+                      },
+                      parallelSelector,
+                      parallelSelectorOnSubscription);
+              decodedMessages = messages;
+              selectorResults = results[0];
+              selectorOnSubscriptionResults = results[1];
+            } finally {
+              if (payloads != null) {
+                for (ByteBuf payload : payloads) {
+                  if (payload != null) {
+                    payload.release();
+                  }
+                }
+              }
+            }
+          }
           boolean oneAccepted = false;
           boolean allExpired = true;
-          boolean allFilteredBySubscriptionFilter = !jmsSelectorOnSubscription.isEmpty();
+          // the expiration of the first message that is not expired
+          long liveExpiration = 0;
+          boolean allFilteredBySubscriptionFilter = selectorOnSubscription != null;
+          BitSet droppedIndexes = null;
           for (int i = 0; i < numMessages; i++) {
-            final SingleMessageMetadata singleMessageMetadata = new SingleMessageMetadata();
-            final ByteBuf singleMessagePayload =
-                Commands.deSerializeSingleMessageInBatch(
-                    uncompressedPayload, singleMessageMetadata, i, numMessages);
-            try {
-              PropertyEvaluator typedProperties =
-                  new PropertyEvaluator(
-                      singleMessageMetadata.getPropertiesCount(),
-                      singleMessageMetadata.getPropertiesList(),
-                      destinationTypeForTheClient,
-                      topicName,
-                      singleMessageMetadata,
-                      null);
-              // noLocal filter
-              // all the messages in the batch come from the Producer/Connection
-              // so we can reject the whole batch immediately at the first entry
-              if (!filterJMSConnectionID.isEmpty()
-                  && filterJMSConnectionID.equals(typedProperties.apply("JMSConnectionID"))) {
-                if (isExclusive || forceDropRejected) {
-                  return FilterResult.REJECT;
-                } else {
-                  return FilterResult.RESCHEDULE;
-                }
+            scanned++;
+            final DecodedMessage message;
+            if (cachedBatch != null) {
+              message = cachedBatch.getMessage(i);
+            } else if (decodedMessages != null) {
+              message = decodedMessages[i];
+            } else {
+              decodeSingleMessage(
+                  uncompressedPayload,
+                  i,
+                  numMessages,
+                  currentMessage,
+                  bodyDecoder,
+                  plan.isHeadersOnly());
+              message = currentMessage;
+            }
+            PropertyEvaluator typedProperties =
+                new PropertyEvaluator(message, destinationTypeForTheClient, topicName);
+            // noLocal filter
+            // all the messages in the batch come from the Producer/Connection
+            // so we can reject the whole batch immediately at the first entry
+            if (i == 0
+                && !filterJMSConnectionID.isEmpty()
+                && filterJMSConnectionID.equals(typedProperties.apply("JMSConnectionID"))) {
+              if (isExclusive || forceDropRejected) {
+                return FilterResult.REJECT;
+              } else {
+                return FilterResult.RESCHEDULE;
               }
+            }
 
-              // timeToLive filter
+            // timeToLive filter
+            // the expiration of a message matters only until we find one that is not expired,
+            // unless we have to drop the expired messages from the batch
+            boolean expired = false;
+            if (allExpired || batchIndexFiltering) {
               long jmsExpiration = getJMSExpiration(typedProperties);
-              if (jmsExpiration > 0 && System.currentTimeMillis() > jmsExpiration) {
-                // we are going to send the batch to the client
-                // in this case, this way the client
-                // can discard it
-              } else {
+              expired = jmsExpiration > 0 && System.currentTimeMillis() > jmsExpiration;
+              if (!expired) {
+                if (allExpired) {
+                  liveExpiration = jmsExpiration;
+                }
                 allExpired = false;
               }
+              // the expired messages are sent to the client, that discards them
+            }
 
-              boolean matches = true;
-
-              if (selector != null) {
-                matches = matches(typedProperties, selector);
+            if (batchIndexFiltering) {
+              // we need the result of every message
+              boolean matchesSelector =
+                  selector == null
+                      || matches(
+                          typedProperties,
+                          selector,
+                          sharedResults,
+                          selectorResults,
+                          i,
+                          selectorIndex);
+              boolean matchesSubscriptionFilter =
+                  selectorOnSubscription == null
+                      || matches(
+                          typedProperties,
+                          selectorOnSubscription,
+                          sharedResults,
+                          selectorOnSubscriptionResults,
+                          i,
+                          selectorOnSubscriptionIndex);
+              if (matchesSubscriptionFilter) {
+                allFilteredBySubscriptionFilter = false;
+              }
+              oneAccepted = oneAccepted || (matchesSelector && matchesSubscriptionFilter);
+              if (expired
+                  || !matchesSubscriptionFilter
+                  || (!matchesSelector && rejectResultForSelector == FilterResult.REJECT)) {
+                if (droppedIndexes == null) {
+                  droppedIndexes = new BitSet(numMessages);
+                }
+                droppedIndexes.set(i);
               }
+              continue;
+            }
 
-              if (!jmsSelectorOnSubscription.isEmpty()) {
+            if (!oneAccepted) {
+              boolean matchesSelector =
+                  selector == null
+                      || matches(
+                          typedProperties,
+                          selector,
+                          sharedResults,
+                          selectorResults,
+                          i,
+                          selectorIndex);
+              // the subscription filter is needed to accept the message,
+              // or to know if it filters out the whole batch
+              if (selectorOnSubscription != null
+                  && (matchesSelector || allFilteredBySubscriptionFilter)) {
                 boolean matchesSubscriptionFilter =
-                    matches(typedProperties, selectorOnSubscription);
-                matches = matches && matchesSubscriptionFilter;
+                    matches(
+                        typedProperties,
+                        selectorOnSubscription,
+                        sharedResults,
+                        selectorOnSubscriptionResults,
+                        i,
+                        selectorOnSubscriptionIndex);
                 if (matchesSubscriptionFilter) {
                   allFilteredBySubscriptionFilter = false;
                 }
+                oneAccepted = matchesSelector && matchesSubscriptionFilter;
+              } else {
+                oneAccepted = matchesSelector;
               }
+            }
 
-              oneAccepted = oneAccepted || matches;
-            } finally {
-              singleMessagePayload.release();
+            if (oneAccepted && !allExpired) {
+              // the other messages cannot change the result
+              return FilterResult.ACCEPT;
             }
           }
           if (allExpired) {
             return FilterResult.REJECT;
           }
-          if (allFilteredBySubscriptionFilter && !jmsSelectorOnSubscription.isEmpty()) {
+          if (allFilteredBySubscriptionFilter) {
             return FilterResult.REJECT;
           }
           if (oneAccepted) {
+            if (droppedIndexes != null) {
+              if (droppedIndexes.cardinality() == numMessages) {
+                return FilterResult.REJECT;
+              }
+              acknowledgeBatchIndexes(subscription, entry, numMessages, droppedIndexes);
+            }
             return FilterResult.ACCEPT;
           }
+          if (rejectResultForSelector == FilterResult.RESCHEDULE) {
+            reschedule(cache, decodedEntry, parkedEntries, entry, liveExpiration);
+          }
           return rejectResultForSelector;
         } finally {
-          uncompressedPayload.release();
+          if (uncompressedPayload != null) {
+            uncompressedPayload.release();
+          }
+          if (cachedBatch != null) {
+            cachedBatch.release();
+          }
+          if (metrics != null) {
+            metrics.recordBatchMessagesScanned(scanned);
+          }
         }
       } else {
 
         // here we are dealing with a single message,
         // so we can reject the message more easily
+        final DecodedMessage message;
+        DecodedEntry decodedEntry = null;
+        SelectorGroup.Results sharedResults = null;
+        if (sharedSelectorEvaluation) {
+          decodedEntry = getDecodedEntry(cache, entry, metadata);
+          message = decodedEntry.getMessage(0);
+          sharedResults =
+              evaluateSharedSelectors(
+                  cache, decodedEntry, null, topicName, selector, selectorOnSubscription);
+        } else {
+          message = DECODED_MESSAGE.get();
+          if (plan.isHeadersOnly()) {
+            message.fillHeaders(metadata);
+          } else {
+            message.fill(metadata);
+          }
+          if (bodyDecoder != null) {
+            ByteBuf payload = uncompressPayload(entry, metadata, metrics);
+            try {
+              decodeBody(bodyDecoder, payload, message);
+            } finally {
+              payload.release();
+            }
+          }
+        }
         PropertyEvaluator typedProperties =
-            new PropertyEvaluator(
-                metadata.getPropertiesCount(),
-                metadata.getPropertiesList(),
-                destinationTypeForTheClient,
-                topicName,
-                null,
-                metadata);
+            new PropertyEvaluator(message, destinationTypeForTheClient, topicName);
 
         // timetoLive filter
         long jmsExpiration = getJMSExpiration(typedProperties);
@@ -254,8 +456,15 @@ public class JMSFilter implements EntryFilter {
           return FilterResult.REJECT;
         }
 
-        if (!jmsSelectorOnSubscription.isEmpty()) {
-          boolean matchesSubscriptionFilter = matches(typedProperties, selectorOnSubscription);
+        if (selectorOnSubscription != null) {
+          boolean matchesSubscriptionFilter =
+              matches(
+                  typedProperties,
+                  selectorOnSubscription,
+                  sharedResults,
+                  null,
+                  0,
+                  indexOf(sharedResults, selectorOnSubscription));
           // the subscription filter always deletes the messages
           if (!matchesSubscriptionFilter) {
             return FilterResult.REJECT;
@@ -264,7 +473,14 @@ public class JMSFilter implements EntryFilter {
 
         boolean matches = true;
         if (selector != null) {
-          matches = matches(typedProperties, selector);
+          matches =
+              matches(
+                  typedProperties,
+                  selector,
+                  sharedResults,
+                  null,
+                  0,
+                  indexOf(sharedResults, selector));
         }
 
         if (!filterJMSConnectionID.isEmpty()
@@ -279,6 +495,9 @@ public class JMSFilter implements EntryFilter {
         if (matches) {
           return FilterResult.ACCEPT;
         }
+        if (rejectResultForSelector == FilterResult.RESCHEDULE) {
+          reschedule(cache, decodedEntry, parkedEntries, entry, jmsExpiration);
+        }
         return rejectResultForSelector;
       }
 
@@ -290,17 +509,375 @@ public class JMSFilter implements EntryFilter {
     }
   }
 
+  /**
+   * Keeps track of an entry rescheduled because the selector does not match.
+   *
+   * @param expiration the expiration of the messages that are not expired, 0 if they never expire
+   */
+  private static void reschedule(
+      EntryMetadataCache cache,
+      DecodedEntry decodedEntry,
+      ParkedEntries parkedEntries,
+      Entry entry,
+      long expiration) {
+    if (decodedEntry != null) {
+      // another consumer of the queue is going to read the entry again
+      cache.putRescheduled(decodedEntry);
+    }
+    if (parkedEntries != null) {
+      // and this consumer is going to reject it again
+      parkedEntries.park(entry.getLedgerId(), entry.getEntryId(), expiration);
+    }
+  }
+
+  /**
+   * Acknowledges some messages of a batch. The broker sends the entry to the consumer together with
+   * the acknowledged indexes, and the consumer skips those messages.
+   *
+   * <p>This is a side effect of the evaluation of the filter: the dropped messages are acknowledged
+   * on the cursor of the subscription while the entry is being filtered, before it is dispatched,
+   * and they stay acknowledged even if the dispatch fails and the entry is read again. The
+   * evaluations that are not done for a consumer, like the backlog analysis, never acknowledge,
+   * because batch index filtering is enabled by the metadata of the consumer. The consumer does not
+   * evaluate the selectors again on the messages that it receives, so every message of the batch
+   * that does not match must be acknowledged here.
+   */
+  private static void acknowledgeBatchIndexes(
+      Subscription subscription, Entry entry, int numMessages, BitSet droppedIndexes) {
+    // the bits set in the ackSet are the messages that are still to be acknowledged
+    BitSet ackSet = new BitSet(numMessages);
+    ackSet.set(0, numMessages);
+    ackSet.andNot(droppedIndexes);
+    subscription.acknowledgeMessage(
+        Collections.singletonList(
+            PositionImpl.get(entry.getLedgerId(), entry.getEntryId(), ackSet.toLongArray())),
+        CommandAck.AckType.Individual,
+        Collections.emptyMap());
+  }
+
+  private static ByteBuf uncompressPayload(
+      Entry entry, MessageMetadata metadata, FilterMetrics.SubscriptionMetrics metrics)
+      throws IOException {
+    ByteBuf payload = entry.getDataBuffer().slice();
+    Commands.skipMessageMetadata(payload);
+    final int uncompressedSize = metadata.getUncompressedSize();
+    if (metrics != null && metadata.getCompression() != CompressionType.NONE) {
+      metrics.recordDecompressedBytes(uncompressedSize);
+    }
+    final CompressionCodec codec =
+        CompressionCodecProvider.getCompressionCodec(metadata.getCompression());
+    return codec.decode(payload, uncompressedSize);
+  }
+
+  private static void decodeSingleMessage(
+      ByteBuf uncompressedPayload,
+      int index,
+      int numMessages,
+      DecodedMessage message,
+      MessageBodyDecoder bodyDecoder,
+      boolean headersOnly)
+      throws IOException {
+    final SingleMessageMetadata singleMessageMetadata = new SingleMessageMetadata();
+    final ByteBuf singleMessagePayload =
+        Commands.deSerializeSingleMessageInBatch(
+            uncompressedPayload, singleMessageMetadata, index, numMessages);
+    try {
+      decodeMessage(singleMessageMetadata, singleMessagePayload, message, bodyDecoder, headersOnly);
+    } finally {
+      singleMessagePayload.release();
+    }
+  }
+
+  private static void decodeMessage(
+      SingleMessageMetadata singleMessageMetadata,
+      ByteBuf singleMessagePayload,
+      DecodedMessage message,
+      MessageBodyDecoder bodyDecoder,
+      boolean headersOnly) {
+    if (headersOnly) {
+      message.fillHeaders(singleMessageMetadata);
+    } else {
+      message.fill(singleMessageMetadata);
+    }
+    if (bodyDecoder != null) {
+      decodeBody(bodyDecoder, singleMessagePayload, message);
+    }
+  }
+
+  /**
+   * Reads the metadata of all the messages of a batch, the messages are in sequence and the
+   * boundaries of a message are known only after reading the previous one.
+   */
+  private static void splitMessages(
+      ByteBuf uncompressedPayload,
+      int numMessages,
+      SingleMessageMetadata[] singleMessageMetadata,
+      ByteBuf[] payloads)
+      throws IOException {
+    for (int i = 0; i < numMessages; i++) {
+      singleMessageMetadata[i] = new SingleMessageMetadata();
+      payloads[i] =
+          Commands.deSerializeSingleMessageInBatch(
+              uncompressedPayload, singleMessageMetadata[i], i, numMessages);
+    }
+  }
+
+  /** Decodes the fields of the body referenced by the selectors. */
+  private static void decodeBody(
+      MessageBodyDecoder bodyDecoder, ByteBuf payload, DecodedMessage message) {
+    try {
+      message.setBodyFields(bodyDecoder.decode(payload));
+    } catch (IOException | RuntimeException err) {
+      // the fields are missing, like for a message without a schema
+      log.debug("Cannot decode the body of the message", err);
+      message.setBodyFields(Collections.emptyMap());
+    }
+  }
+
+  /**
+   * Reads the entry from the cache, or stores it into the cache. The message of a single message
+   * entry is decoded now, the messages of a batch are decoded by {@link CachedBatchReader}.
+   */
+  private static DecodedEntry getDecodedEntry(
+      EntryMetadataCache cache, Entry entry, MessageMetadata metadata) {
+    DecodedEntry decodedEntry = cache.get(entry.getLedgerId(), entry.getEntryId());
+    if (decodedEntry != null) {
+      return decodedEntry;
+    }
+    if (metadata.hasNumMessagesInBatch()) {
+      decodedEntry =
+          new DecodedEntry(
+              entry.getLedgerId(), entry.getEntryId(), metadata.getNumMessagesInBatch());
+    } else {
+      DecodedMessage message =
+          new DecodedMessage(new MessagePropertyIndex(metadata.getPropertiesCount()));
+      message.fill(metadata);
+      // the instance is going to be shared, so we convert all the values now,
+      // a value that cannot be converted must fail only the selectors that read it
+      message.getProperties().decodeAll();
+      decodedEntry =
+          new DecodedEntry(entry.getLedgerId(), entry.getEntryId(), new DecodedMessage[] {message});
+    }
+    cache.put(decodedEntry);
+    return decodedEntry;
+  }
+
+  /**
+   * Reads the messages of a cached batch. The messages that no subscription has decoded yet are
+   * decoded from the payload of this entry, that is uncompressed only if needed.
+   */
+  private static final class CachedBatchReader {
+    private final DecodedEntry decodedEntry;
+    private final Entry entry;
+    private final MessageMetadata metadata;
+    private final FilterMetrics.SubscriptionMetrics metrics;
+    private ByteBuf uncompressedPayload;
+    private int payloadStart;
+
+    CachedBatchReader(
+        DecodedEntry decodedEntry,
+        Entry entry,
+        MessageMetadata metadata,
+        FilterMetrics.SubscriptionMetrics metrics) {
+      this.decodedEntry = decodedEntry;
+      this.entry = entry;
+      this.metadata = metadata;
+      this.metrics = metrics;
+    }
+
+    DecodedMessage getMessage(int index) throws IOException {
+      DecodedMessage message = decodedEntry.getMessage(index);
+      if (message == null) {
+        if (uncompressedPayload == null) {
+          uncompressedPayload = uncompressPayload(entry, metadata, metrics);
+          payloadStart = uncompressedPayload.readerIndex();
+        }
+        decodedEntry.decodeUpTo(index, uncompressedPayload, payloadStart);
+        message = decodedEntry.getMessage(index);
+      }
+      return message;
+    }
+
+    /** Decodes all the messages, needed before they are read by other threads. */
+    void decodeAll() throws IOException {
+      int numMessages = decodedEntry.getNumMessages();
+      if (numMessages > 0) {
+        getMessage(numMessages - 1);
+      }
+    }
+
+    void release() {
+      if (uncompressedPayload != null) {
+        uncompressedPayload.release();
+      }
+    }
+  }
+
+  /**
+   * Evaluates the selectors of all the subscriptions of the topic on the entry, unless another
+   * subscription already did it.
+   *
+   * @param cachedBatch decodes the messages of a batch, null for a single message
+   * @return the results, null if the selectors cannot be shared
+   */
+  private static SelectorGroup.Results evaluateSharedSelectors(
+      EntryMetadataCache cache,
+      DecodedEntry decodedEntry,
+      CachedBatchReader cachedBatch,
+      String topicName,
+      SelectorSupport selector,
+      SelectorSupport selectorOnSubscription)
+      throws IOException {
+    boolean shareSelector = cache.registerSelector(selector, SHARED_SELECTOR_IDLE_NANOS) >= 0;
+    boolean shareSelectorOnSubscription =
+        cache.registerSelector(selectorOnSubscription, SHARED_SELECTOR_IDLE_NANOS) >= 0;
+    if (!shareSelector && !shareSelectorOnSubscription) {
+      return null;
+    }
+    SelectorGroup.Results results = decodedEntry.getSelectorResults();
+    if (results == null
+        || (shareSelector && indexOf(results, selector) < 0)
+        || (shareSelectorOnSubscription && indexOf(results, selectorOnSubscription) < 0)) {
+      if (cachedBatch != null) {
+        // the group is evaluated on every message
+        cachedBatch.decodeAll();
+      }
+      // JMSDestination is the only property that depends on the consumer,
+      // and the selectors that use it are not shared
+      results =
+          cache
+              .getSelectorGroup()
+              .evaluate(decodedEntry, message -> new PropertyEvaluator(message, null, topicName));
+      decodedEntry.setSelectorResults(results);
+    }
+    return results;
+  }
+
+  private static int indexOf(SelectorGroup.Results results, SelectorSupport selector) {
+    if (results == null || selector == null) {
+      return -1;
+    }
+    return results.getGroup().indexOf(selector.getSelector());
+  }
+
+  /** @return the filtering settings of the consumer, built if needed */
+  private FilterPlan getFilterPlan(Consumer consumer, Subscription subscription) {
+    Object owner = consumer != null ? consumer : subscription;
+    // in 2.10 only PersistentSubscription has getSubscriptionProperties method
+    Map<String, String> subscriptionProperties =
+        subscription instanceof PersistentSubscription
+            ? ((PersistentSubscription) subscription).getSubscriptionProperties()
+            : null;
+    FilterPlan plan = filterPlans.get(owner, subscriptionProperties);
+    if (plan != null) {
+      return plan;
+    }
+    FilterConfiguration configuration = getConfiguration(subscription);
+    plan =
+        new FilterPlan(
+            owner,
+            subscriptionProperties,
+            subscription.getTopicName(),
+            consumer != null ? consumer.getMetadata() : Collections.emptyMap(),
+            selectors,
+            configuration.isBatchIndexAcknowledgment(),
+            configuration.getParkedEntriesPerConsumer(),
+            configuration.isMetricsEnabled()
+                ? FilterMetrics.acquire(subscription.getTopicName(), subscription.getName())
+                : null);
+    if (!plan.isSelectorError()) {
+      filterPlans.put(plan);
+    }
+    return plan;
+  }
+
+  private FilterConfiguration getConfiguration(Subscription subscription) {
+    FilterConfiguration current = configuration;
+    if (current != null) {
+      return current;
+    }
+    // the dispatcher threads of many subscriptions may get here together,
+    // only one of them must start the thread pool
+    synchronized (this) {
+      current = configuration;
+      if (current == null) {
+        current = FilterConfiguration.fromBroker(subscription);
+        selectors.setMaxSize(current.getSelectorCacheSize());
+        if (current.isMetricsEnabled()) {
+          FilterMetrics.register();
+          FilterMetrics.registerSelectorCache(selectors);
+        }
+        if (current.getParallelEvaluationThreads() > 0) {
+          parallelEvaluator =
+              new ParallelEvaluator(
+                  current.getParallelEvaluationThreads(),
+                  current.getParallelEvaluationMinMessages());
+        }
+        configuration = current;
+      }
+      return current;
+    }
+  }
+
+  /** @return the cache for the topic, null if the entries of the topic must not be cached */
+  private EntryMetadataCache getEntryMetadataCache(Subscription subscription, String topicName) {
+    FilterConfiguration configuration = getConfiguration(subscription);
+    int size = configuration.getEntryMetadataCacheSize();
+    if (size <= 0) {
+      return null;
+    }
+    Topic topic = subscription.getTopic();
+    if (topic == null
+        || (topic.getSubscriptions().size() <= 1 && subscription.getConsumers().size() <= 1)) {
+      // nobody else is going to read the entry,
+      // with many consumers the entries rescheduled by one consumer are read by the others
+      return null;
+    }
+    EntryMetadataCache cache = entryMetadataCaches.get(topicName);
+    if (cache == null) {
+      evictIdleEntryMetadataCaches();
+      cache =
+          entryMetadataCaches.computeIfAbsent(
+              topicName,
+              t -> new EntryMetadataCache(size, configuration.getRescheduledEntriesCacheSize()));
+    }
+    return cache;
+  }
+
+  private void evictIdleEntryMetadataCaches() {
+    long now = System.nanoTime();
+    entryMetadataCaches
+        .values()
+        .removeIf(cache -> now - cache.getLastWriteNanos() > ENTRY_METADATA_CACHE_IDLE_NANOS);
+  }
+
   @AllArgsConstructor
-  private static class PropertyEvaluator implements Function<String, Object> {
-    private int propertiesCount;
-    private List<KeyValue> propertiesList;
+  private static class PropertyEvaluator implements CompiledSelector.NumericPropertyAccessor {
+    private DecodedMessage message;
     private String destinationTypeForTheClient;
     private String topicName;
-    private SingleMessageMetadata singleMessageMetadata;
-    private MessageMetadata metadata;
 
     private Object getProperty(String name) {
-      return JMSFilter.getProperty(propertiesCount, propertiesList, name);
+      return message.getProperties().getObject(name);
+    }
+
+    @Override
+    public byte loadNumber(String name, CompiledSelector.EvaluationContext context) {
+      switch (name) {
+        case "JMSTimestamp":
+          return context.setLong(
+              Numbers.LONG, message.hasEventTime() ? message.getEventTime() : 0L);
+        case "JMSExpiration":
+          // a plain property, converted like in apply()
+          return message.getProperties().loadNumber(name, context);
+        default:
+          break;
+      }
+      if (name.startsWith("JMS") || name.startsWith(SelectorSupport.BODY_FIELD_PREFIX)) {
+        // the headers and the fields of the body are converted by apply()
+        return Numbers.OTHER;
+      }
+      return message.getProperties().loadNumber(name, context);
     }
 
     @Override
@@ -332,14 +909,7 @@ public class JMSFilter implements EntryFilter {
         case "JMSMessageId":
           return getProperty(name);
         case "JMSCorrelationID":
-          {
-            String _correlationId = safeString(getProperty("JMSCorrelationID"));
-            if (_correlationId != null) {
-              return new String(Base64.getDecoder().decode(_correlationId), StandardCharsets.UTF_8);
-            } else {
-              return null;
-            }
-          }
+          return message.getCorrelationId();
         case "JMSPriority":
           {
             Object jmsPriorityString = getProperty("JMSPriority");
@@ -369,15 +939,8 @@ public class JMSFilter implements EntryFilter {
           }
         case "JMSTimestamp":
           {
-            if (singleMessageMetadata != null) {
-              if (singleMessageMetadata.hasEventTime()) {
-                return singleMessageMetadata.getEventTime();
-              }
-            }
-            if (metadata != null) {
-              if (metadata.hasEventTime()) {
-                return metadata.getEventTime();
-              }
+            if (message.hasEventTime()) {
+              return message.getEventTime();
             }
             return 0L; // must be a long
           }
@@ -386,13 +949,8 @@ public class JMSFilter implements EntryFilter {
           return 0;
         case "JMSXGroupID":
           {
-            if (singleMessageMetadata != null && singleMessageMetadata.hasPartitionKey()) {
-              return singleMessageMetadata.getPartitionKey();
-            }
-            if (metadata != null && metadata.hasPartitionKey()) {
-              return metadata.getPartitionKey();
-            }
-            return "";
+            String partitionKey = message.getPartitionKey();
+            return partitionKey != null ? partitionKey : "";
           }
         case "JMSXGroupSeq":
           {
@@ -400,16 +958,19 @@ public class JMSFilter implements EntryFilter {
             if (rawJMSXGroupSeq != null) {
               return rawJMSXGroupSeq;
             }
-            if (singleMessageMetadata != null && singleMessageMetadata.hasSequenceId()) {
-              return singleMessageMetadata.getSequenceId() + "";
-            }
-            if (metadata != null && metadata.hasSequenceId()) {
-              return metadata.getSequenceId() + "";
+            if (message.hasSequenceId()) {
+              return message.getSequenceId() + "";
             }
             return "0";
           }
         default:
-          return getProperty(name);
+          {
+            Object value = getProperty(name);
+            if (value == null && name.startsWith(SelectorSupport.BODY_FIELD_PREFIX)) {
+              return message.getBodyField(name);
+            }
+            return value;
+          }
       }
     }
   }
@@ -427,65 +988,17 @@ public class JMSFilter implements EntryFilter {
     return jmsExpiration;
   }
 
-  private static Object getProperty(
-      int propertiesCount, List<KeyValue> propertiesList, String name) {
-    if (propertiesCount <= 0) {
-      return null;
-    }
-    String type = null;
-    String value = null;
-    String typeProperty = propertyType(name);
-    for (KeyValue keyValue : propertiesList) {
-      String key = keyValue.getKey();
-      if (key.equals(typeProperty)) {
-        type = keyValue.getValue();
-      } else if (key.equals(name)) {
-        value = keyValue.getValue();
-      }
-      if (type != null && value != null) {
-        break;
-      }
-    }
-    return getObjectProperty(value, type);
-  }
-
   @Override
   public void close() {
+    FilterMetrics.unregisterSelectorCache(selectors);
     selectors.clear();
-  }
-
-  private static String propertyType(String name) {
-    return name + "_jsmtype";
-  }
-
-  private static Object getObjectProperty(String value, String type) {
-    if (value == null) {
-      return null;
-    }
-    if (type == null) {
-      // strings
-      return value;
-    }
-    switch (type) {
-      case "string":
-        return value;
-      case "boolean":
-        return Boolean.parseBoolean(value);
-      case "float":
-        return Float.parseFloat(value);
-      case "double":
-        return Double.parseDouble(value);
-      case "int":
-        return Integer.parseInt(value);
-      case "short":
-        return Short.parseShort(value);
-      case "byte":
-        return Byte.parseByte(value);
-      case "long":
-        return Long.parseLong(value);
-      default:
-        // string
-        return value;
+    filterPlans.clear();
+    bodyDecoders.clear();
+    entryMetadataCaches.clear();
+    ParallelEvaluator parallel = parallelEvaluator;
+    if (parallel != null) {
+      parallelEvaluator = null;
+      parallel.close();
     }
   }
 
@@ -493,9 +1006,21 @@ public class JMSFilter implements EntryFilter {
     return value == null ? null : value.toString();
   }
 
-  private static boolean matches(Function<String, Object> typedProperties, SelectorSupport selector)
+  private static boolean matches(
+      Function<String, Object> typedProperties,
+      SelectorSupport selector,
+      SelectorGroup.Results sharedResults,
+      byte[] parallelResults,
+      int message,
+      int index)
       throws JMSException {
-
+    if (index >= 0 && sharedResults.isEvaluated(message, index)) {
+      return sharedResults.matches(message, index);
+    }
+    if (parallelResults != null && parallelResults[message] != ParallelEvaluator.NOT_EVALUATED) {
+      return parallelResults[message] == ParallelEvaluator.MATCHES;
+    }
+    // evaluated here, or evaluated again in order to report the error
     return selector.matches(typedProperties);
   }
 }
@@ -0,0 +1,259 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufUtil;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericEnumSymbol;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.pulsar.common.schema.SchemaType;
+
+/**
+ * Decodes the fields of the body of a message that are referenced by the selectors, like {@code
+ * body$orderType} or {@code body$customer$country}, for the messages with an AVRO or a JSON schema.
+ *
+ * <p>Only the referenced fields are decoded: the AVRO decoder reads the record with a schema that
+ * contains only those fields, and skips the others, the JSON decoder skips the values of the other
+ * fields. The values are converted like the client does for the messages with a schema: strings,
+ * numbers and booleans, records, arrays and the other types are not visible to the selectors.
+ *
+ * <p>A decoder is built for a version of the schema and can be shared by the threads.
+ */
+abstract class MessageBodyDecoder {
+
+  private final String[] names;
+  // for each name, the path in the body
+  private final String[][] paths;
+
+  private MessageBodyDecoder(Collection<String> names) {
+    this.names = names.toArray(new String[0]);
+    this.paths = new String[this.names.length][];
+    for (int i = 0; i < this.names.length; i++) {
+      paths[i] = this.names[i].substring(SelectorSupport.BODY_FIELD_PREFIX.length()).split("\\$");
+    }
+  }
+
+  /**
+   * @param type the type of the schema
+   * @param schema the definition of the schema
+   * @param names the referenced names, see {@link SelectorSupport#BODY_FIELD_PREFIX}
+   * @return the decoder, null if the messages with this type of schema are not supported
+   */
+  static MessageBodyDecoder create(SchemaType type, byte[] schema, Collection<String> names) {
+    switch (type) {
+      case AVRO:
+        Schema avroSchema = parseSchema(schema);
+        return avroSchema.getType() == Schema.Type.RECORD ? new Avro(avroSchema, names) : null;
+      case JSON:
+        return new Json(names);
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Decodes the referenced fields.
+   *
+   * @param payload the payload of the message, it is not consumed
+   * @return the values by referenced name, the missing fields are not reported
+   */
+  final Map<String, Object> decode(ByteBuf payload) throws IOException {
+    Object body = read(payload);
+    Map<String, Object> result = new HashMap<>();
+    for (int i = 0; i < names.length; i++) {
+      Object value = body;
+      for (String field : paths[i]) {
+        value = field(value, field);
+        if (value == null) {
+          break;
+        }
+      }
+      value = toSelectorValue(value);
+      if (value != null) {
+        result.put(names[i], value);
+      }
+    }
+    return result;
+  }
+
+  abstract Object read(ByteBuf payload) throws IOException;
+
+  abstract Object field(Object value, String field);
+
+  abstract Object toSelectorValue(Object value);
+
+  /** The top level fields referenced by the selectors. */
+  final Set<String> topLevelFields() {
+    Set<String> result = new LinkedHashSet<>();
+    for (String[] path : paths) {
+      result.add(path[0]);
+    }
+    return result;
+  }
+
+  private static Schema parseSchema(byte[] schema) {
+    return new Schema.Parser().parse(new String(schema, StandardCharsets.UTF_8));
+  }
+
+  private static final class Avro extends MessageBodyDecoder {
+    private final GenericDatumReader<GenericRecord> reader;
+
+    Avro(Schema writerSchema, Collection<String> names) {
+      super(names);
+      // the decoder skips the fields that are not in the reader schema
+      List<Schema.Field> fields = new ArrayList<>();
+      for (String name : topLevelFields()) {
+        Schema.Field field = writerSchema.getField(name);
+        if (field != null) {
+          fields.add(new Schema.Field(field, field.schema()));
+        }
+      }
+      Schema readerSchema =
+          Schema.createRecord(
+              writerSchema.getName(),
+              writerSchema.getDoc(),
+              writerSchema.getNamespace(),
+              false,
+              fields);
+      this.reader = new GenericDatumReader<>(writerSchema, readerSchema);
+    }
+
+    @Override
+    Object read(ByteBuf payload) throws IOException {
+      final BinaryDecoder decoder;
+      if (payload.hasArray()) {
+        decoder =
+            DecoderFactory.get()
+                .binaryDecoder(
+                    payload.array(),
+                    payload.arrayOffset() + payload.readerIndex(),
+                    payload.readableBytes(),
+                    null);
+      } else {
+        decoder = DecoderFactory.get().binaryDecoder(ByteBufUtil.getBytes(payload), null);
+      }
+      return reader.read(null, decoder);
+    }
+
+    @Override
+    Object field(Object value, String field) {
+      if (value instanceof GenericRecord) {
+        GenericRecord record = (GenericRecord) value;
+        return record.getSchema().getField(field) != null ? record.get(field) : null;
+      }
+      return null;
+    }
+
+    @Override
+    Object toSelectorValue(Object value) {
+      if (value instanceof CharSequence || value instanceof GenericEnumSymbol) {
+        return value.toString();
+      }
+      if (value instanceof Number || value instanceof Boolean) {
+        return value;
+      }
+      return null;
+    }
+  }
+
+  private static final class Json extends MessageBodyDecoder {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory FACTORY = MAPPER.getFactory();
+
+    private final Set<String> topLevelFields;
+
+    Json(Collection<String> names) {
+      super(names);
+      this.topLevelFields = topLevelFields();
+    }
+
+    @Override
+    Object read(ByteBuf payload) throws IOException {
+      Map<String, JsonNode> fields = new HashMap<>();
+      try (JsonParser parser =
+          FACTORY.createParser((InputStream) new ByteBufInputStream(payload.duplicate(), false))) {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+          return fields;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String name = parser.getCurrentName();
+          parser.nextToken();
+          if (topLevelFields.contains(name)) {
+            fields.put(name, parser.readValueAsTree());
+          } else {
+            parser.skipChildren();
+          }
+        }
+      }
+      return fields;
+    }
+
+    @Override
+    Object field(Object value, String field) {
+      if (value instanceof Map) {
+        return ((Map<?, ?>) value).get(field);
+      }
+      if (value instanceof JsonNode && ((JsonNode) value).isObject()) {
+        return ((JsonNode) value).get(field);
+      }
+      return null;
+    }
+
+    @Override
+    Object toSelectorValue(Object value) {
+      if (!(value instanceof JsonNode)) {
+        return null;
+      }
+      JsonNode node = (JsonNode) value;
+      if (node.isTextual()) {
+        return node.textValue();
+      }
+      if (node.isBoolean()) {
+        return node.booleanValue();
+      }
+      if (node.isInt()) {
+        return node.intValue();
+      }
+      if (node.isIntegralNumber()) {
+        return node.longValue();
+      }
+      if (node.isNumber()) {
+        return node.doubleValue();
+      }
+      return null;
+    }
+  }
+}
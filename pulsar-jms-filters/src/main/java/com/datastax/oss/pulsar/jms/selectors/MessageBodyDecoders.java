@@ -0,0 +1,106 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.broker.service.Subscription;
+import org.apache.pulsar.broker.service.schema.SchemaRegistryService;
+import org.apache.pulsar.common.naming.TopicName;
+import org.apache.pulsar.common.util.FutureUtil;
+
+/**
+ * The {@link MessageBodyDecoder}s, by version of the schema and by referenced fields.
+ *
+ * <p>The schemas are read from the schema registry of the broker without blocking the dispatcher:
+ * until the schema is available the filter reschedules the entries.
+ */
+@Slf4j
+final class MessageBodyDecoders {
+
+  // the decoders are small, this only protects from an unbounded number of schema versions
+  private static final int MAX_DECODERS = 1000;
+
+  private final ConcurrentHashMap<String, CompletableFuture<MessageBodyDecoder>> decoders =
+      new ConcurrentHashMap<>();
+
+  /**
+   * @param subscription the subscription, used to access the schema registry
+   * @param topicName the name of the topic
+   * @param schemaVersion the version of the schema of the message
+   * @param fields the fields referenced by the selectors
+   * @return the decoder, it completes with null if the schema is not supported
+   */
+  CompletableFuture<MessageBodyDecoder> get(
+      Subscription subscription, String topicName, byte[] schemaVersion, Set<String> fields) {
+    String schemaId = TopicName.get(topicName).getSchemaName();
+    String key = schemaId + "@" + Base64.getEncoder().encodeToString(schemaVersion) + "/" + fields;
+    CompletableFuture<MessageBodyDecoder> decoder = decoders.get(key);
+    if (decoder != null) {
+      return decoder;
+    }
+    if (decoders.size() >= MAX_DECODERS) {
+      decoders.clear();
+    }
+    CompletableFuture<MessageBodyDecoder> loading = new CompletableFuture<>();
+    decoder = decoders.putIfAbsent(key, loading);
+    if (decoder != null) {
+      return decoder;
+    }
+    load(subscription, schemaId, schemaVersion, fields)
+        .whenComplete(
+            (result, err) -> {
+              if (err != null) {
+                log.error("Cannot load the schema {}", key, err);
+                // try again with the next entry
+                decoders.remove(key, loading);
+                loading.complete(null);
+              } else {
+                loading.complete(result);
+              }
+            });
+    return loading;
+  }
+
+  private static CompletableFuture<MessageBodyDecoder> load(
+      Subscription subscription, String schemaId, byte[] schemaVersion, Set<String> fields) {
+    try {
+      SchemaRegistryService registry =
+          subscription.getTopic().getBrokerService().getPulsar().getSchemaRegistryService();
+      return registry
+          .getSchema(schemaId, registry.versionFromBytes(schemaVersion))
+          .thenApply(
+              schema ->
+                  schema != null
+                      ? MessageBodyDecoder.create(
+                          schema.schema.getType(), schema.schema.getData(), fields)
+                      : null);
+    } catch (RuntimeException err) {
+      return FutureUtil.failedFuture(err);
+    }
+  }
+
+  int size() {
+    return decoders.size();
+  }
+
+  void clear() {
+    decoders.clear();
+  }
+}
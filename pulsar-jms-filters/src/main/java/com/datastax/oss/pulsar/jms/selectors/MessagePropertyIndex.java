@@ -0,0 +1,318 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import org.apache.pulsar.common.api.proto.KeyValue;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.api.proto.SingleMessageMetadata;
+
+/**
+ * Index over the properties of a message.
+ *
+ * <p>The index is an open addressing hash table keyed by property name, it is filled with one pass
+ * over the properties of the metadata. The JMS client stores the type of a property in a companion
+ * property named "name_jsmtype", the index stores the type in the same slot of the property, so
+ * that a lookup returns both the value and the type without building the name of the companion
+ * property.
+ *
+ * <p>Instances are meant to be reused: {@link #fill} clears the previous contents and the internal
+ * arrays grow only when a message has more properties than any message seen before.
+ */
+final class MessagePropertyIndex {
+
+  private static final String TYPE_SUFFIX = "_jsmtype";
+  // the JMS client stores the headers, like JMSType or JMSCorrelationID, in properties
+  private static final String HEADER_PREFIX = "JMS";
+  private static final int MIN_CAPACITY = 16;
+
+  // the key of the entry, it may contain the _jsmtype suffix,
+  // only the first "nameLengths[slot]" characters are the name of the property
+  private String[] names;
+  private int[] nameLengths;
+  private int[] hashes;
+  private String[] values;
+  private String[] types;
+  private Object[] objects;
+  private boolean[] decoded;
+  private int[] usedSlots;
+  private int size;
+  private int mask;
+
+  MessagePropertyIndex() {
+    allocate(MIN_CAPACITY);
+  }
+
+  /**
+   * Creates a compact index, for instances that are filled only once.
+   *
+   * @param expectedProperties the number of properties of the message, including the type keys
+   */
+  MessagePropertyIndex(int expectedProperties) {
+    allocate(Math.max(2, Integer.highestOneBit(Math.max(1, expectedProperties * 2) - 1) << 1));
+  }
+
+  private void allocate(int capacity) {
+    names = new String[capacity];
+    nameLengths = new int[capacity];
+    hashes = new int[capacity];
+    values = new String[capacity];
+    types = new String[capacity];
+    objects = new Object[capacity];
+    decoded = new boolean[capacity];
+    usedSlots = new int[capacity];
+    mask = capacity - 1;
+    size = 0;
+  }
+
+  void fill(MessageMetadata metadata) {
+    int count = metadata.getPropertiesCount();
+    prepare(count);
+    for (int i = 0; i < count; i++) {
+      put(metadata.getPropertyAt(i));
+    }
+  }
+
+  void fill(SingleMessageMetadata metadata) {
+    int count = metadata.getPropertiesCount();
+    prepare(count);
+    for (int i = 0; i < count; i++) {
+      put(metadata.getPropertyAt(i));
+    }
+  }
+
+  /**
+   * Indexes only the properties that hold the JMS headers, the other properties are skipped without
+   * hashing them.
+   */
+  void fillHeaders(MessageMetadata metadata) {
+    int count = metadata.getPropertiesCount();
+    prepare(count);
+    for (int i = 0; i < count; i++) {
+      KeyValue keyValue = metadata.getPropertyAt(i);
+      if (keyValue.getKey().startsWith(HEADER_PREFIX)) {
+        put(keyValue);
+      }
+    }
+  }
+
+  void fillHeaders(SingleMessageMetadata metadata) {
+    int count = metadata.getPropertiesCount();
+    prepare(count);
+    for (int i = 0; i < count; i++) {
+      KeyValue keyValue = metadata.getPropertyAt(i);
+      if (keyValue.getKey().startsWith(HEADER_PREFIX)) {
+        put(keyValue);
+      }
+    }
+  }
+
+  private void prepare(int count) {
+    // keep the load factor under 0.5
+    int capacity = mask + 1;
+    if (count * 2 > capacity) {
+      allocate(Math.max(MIN_CAPACITY, Integer.highestOneBit(count * 2 - 1) << 1));
+      return;
+    }
+    for (int i = 0; i < size; i++) {
+      int slot = usedSlots[i];
+      names[slot] = null;
+      values[slot] = null;
+      types[slot] = null;
+      objects[slot] = null;
+      decoded[slot] = false;
+    }
+    size = 0;
+  }
+
+  private void put(KeyValue keyValue) {
+    String key = keyValue.getKey();
+    boolean isType = key.endsWith(TYPE_SUFFIX);
+    int length = isType ? key.length() - TYPE_SUFFIX.length() : key.length();
+    int hash = hash(key, length);
+    int slot = findSlot(key, length, hash);
+    if (names[slot] == null) {
+      names[slot] = key;
+      nameLengths[slot] = length;
+      hashes[slot] = hash;
+      usedSlots[size++] = slot;
+    }
+    if (isType) {
+      types[slot] = keyValue.getValue();
+    } else {
+      values[slot] = keyValue.getValue();
+    }
+  }
+
+  /** @return the slot that contains the name, or the empty slot where it should be inserted */
+  private int findSlot(String name, int length, int hash) {
+    int slot = spread(hash) & mask;
+    while (true) {
+      String current = names[slot];
+      if (current == null
+          || (hashes[slot] == hash
+              && nameLengths[slot] == length
+              && current.regionMatches(0, name, 0, length))) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private int lookup(String name) {
+    if (size == 0) {
+      return -1;
+    }
+    int slot = findSlot(name, name.length(), name.hashCode());
+    return names[slot] != null ? slot : -1;
+  }
+
+  /** @return the raw value of the property, null if the property is not set */
+  String getValue(String name) {
+    int slot = lookup(name);
+    return slot >= 0 ? values[slot] : null;
+  }
+
+  /**
+   * Returns the value of the property, converted to the type declared by the JMS client. The value
+   * is converted only once.
+   *
+   * @return the value, null if the property is not set
+   */
+  Object getObject(String name) {
+    int slot = lookup(name);
+    if (slot < 0) {
+      return null;
+    }
+    if (!decoded[slot]) {
+      objects[slot] = convert(values[slot], types[slot]);
+      decoded[slot] = true;
+    }
+    return objects[slot];
+  }
+
+  /**
+   * Reads a numeric property without boxing it, see {@link
+   * CompiledSelector.NumericPropertyAccessor}.
+   *
+   * @return the kind of the value, {@link Numbers#OTHER} if the property is not a number or the
+   *     value cannot be converted, {@link #getObject} then returns the value or reports the error
+   */
+  byte loadNumber(String name, CompiledSelector.EvaluationContext context) {
+    int slot = lookup(name);
+    if (slot < 0 || values[slot] == null) {
+      return Numbers.NULL;
+    }
+    if (decoded[slot]) {
+      return context.setNumber(objects[slot]);
+    }
+    String type = types[slot];
+    if (type == null) {
+      return Numbers.OTHER;
+    }
+    String value = values[slot];
+    try {
+      switch (type) {
+        case "int":
+          return context.setLong(Numbers.INT, Integer.parseInt(value));
+        case "long":
+          return context.setLong(Numbers.LONG, Long.parseLong(value));
+        case "short":
+          return context.setLong(Numbers.SHORT, Short.parseShort(value));
+        case "byte":
+          return context.setLong(Numbers.BYTE, Byte.parseByte(value));
+        case "double":
+          return context.setDouble(Numbers.DOUBLE, Double.parseDouble(value));
+        case "float":
+          return context.setDouble(Numbers.FLOAT, Float.parseFloat(value));
+        default:
+          return Numbers.OTHER;
+      }
+    } catch (NumberFormatException err) {
+      return Numbers.OTHER;
+    }
+  }
+
+  /**
+   * Converts all the values, after this call the index can be shared among threads, as long as it
+   * is not filled again. A value that cannot be converted is left as is: {@link #getObject} reports
+   * the error again on every read, without changing the index.
+   *
+   * @return false if one of the values cannot be converted to its declared type
+   */
+  boolean decodeAll() {
+    boolean allDecoded = true;
+    for (int i = 0; i < size; i++) {
+      int slot = usedSlots[i];
+      if (!decoded[slot]) {
+        try {
+          objects[slot] = convert(values[slot], types[slot]);
+        } catch (NumberFormatException err) {
+          allDecoded = false;
+          continue;
+        }
+        decoded[slot] = true;
+      }
+    }
+    return allDecoded;
+  }
+
+  // same as String.hashCode() on the first "length" chars
+  private static int hash(String key, int length) {
+    if (length == key.length()) {
+      return key.hashCode();
+    }
+    int h = 0;
+    for (int i = 0; i < length; i++) {
+      h = 31 * h + key.charAt(i);
+    }
+    return h;
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private static Object convert(String value, String type) {
+    if (value == null) {
+      return null;
+    }
+    if (type == null) {
+      // strings
+      return value;
+    }
+    switch (type) {
+      case "string":
+        return value;
+      case "boolean":
+        return Boolean.parseBoolean(value);
+      case "float":
+        return Float.parseFloat(value);
+      case "double":
+        return Double.parseDouble(value);
+      case "int":
+        return Integer.parseInt(value);
+      case "short":
+        return Short.parseShort(value);
+      case "byte":
+        return Byte.parseByte(value);
+      case "long":
+        return Long.parseLong(value);
+      default:
+        // string
+        return value;
+    }
+  }
+}
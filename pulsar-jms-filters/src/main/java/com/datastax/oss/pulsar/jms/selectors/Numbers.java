@@ -0,0 +1,154 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+/**
+ * Unboxed numbers for the compiled selectors.
+ *
+ * <p>A number is represented by its kind, the Java type the ActiveMQ expressions would see, and by
+ * a long (byte, short, int and long) or a double (float and double) value. The operations reproduce
+ * the type promotions of ComparisonExpression.compare and ArithmeticExpression, including their
+ * quirks, the combinations that ActiveMQ does not handle as a plain comparison are reported as
+ * {@link #UNSUPPORTED} and evaluated on the boxed values.
+ */
+final class Numbers {
+
+  static final byte NULL = 0;
+  static final byte BYTE = 1;
+  static final byte SHORT = 2;
+  static final byte INT = 3;
+  static final byte LONG = 4;
+  static final byte FLOAT = 5;
+  static final byte DOUBLE = 6;
+  /** Not a number, the value is available as an object. */
+  static final byte OTHER = 7;
+
+  /** The values cannot be compared, the comparison is false. */
+  static final int NOT_COMPARABLE = Integer.MIN_VALUE;
+  /** The comparison must be evaluated on the boxed values. */
+  static final int UNSUPPORTED = Integer.MAX_VALUE;
+
+  private Numbers() {}
+
+  static boolean isNumber(byte kind) {
+    return kind != NULL && kind != OTHER;
+  }
+
+  private static boolean isFloating(byte kind) {
+    return kind == FLOAT || kind == DOUBLE;
+  }
+
+  static double toDouble(byte kind, long longValue, double doubleValue) {
+    return isFloating(kind) ? doubleValue : longValue;
+  }
+
+  static Object box(byte kind, long longValue, double doubleValue, Object object) {
+    switch (kind) {
+      case NULL:
+        return null;
+      case BYTE:
+        return Byte.valueOf((byte) longValue);
+      case SHORT:
+        return Short.valueOf((short) longValue);
+      case INT:
+        return Integer.valueOf((int) longValue);
+      case LONG:
+        return Long.valueOf(longValue);
+      case FLOAT:
+        return Float.valueOf((float) doubleValue);
+      case DOUBLE:
+        return Double.valueOf(doubleValue);
+      default:
+        return object;
+    }
+  }
+
+  /**
+   * Compares two numbers like ComparisonExpression.compare.
+   *
+   * @return the result of compareTo, {@link #NOT_COMPARABLE} or {@link #UNSUPPORTED}
+   */
+  static int compare(byte lk, long l, double dl, byte rk, long r, double dr) {
+    if (lk == rk) {
+      switch (lk) {
+        case FLOAT:
+          return Float.compare((float) dl, (float) dr);
+        case DOUBLE:
+          return Double.compare(dl, dr);
+        default:
+          return Long.compare(l, r);
+      }
+    }
+    // ActiveMQ converts only in some directions, for instance Integer to Long but not Integer to
+    // Short, the other combinations are not comparable
+    switch (lk) {
+      case BYTE:
+        return compareWithWider(l, rk, r, dr);
+      case SHORT:
+        return rk == BYTE ? NOT_COMPARABLE : compareWithWider(l, rk, r, dr);
+      case INT:
+        return rk == BYTE || rk == SHORT ? NOT_COMPARABLE : compareWithWider(l, rk, r, dr);
+      case LONG:
+        return rk == BYTE || rk == SHORT ? NOT_COMPARABLE : compareWithWider(l, rk, r, dr);
+      case FLOAT:
+        switch (rk) {
+          case INT:
+          case LONG:
+            return Float.compare((float) dl, (float) r);
+          case DOUBLE:
+            return Double.compare(dl, dr);
+          default:
+            return NOT_COMPARABLE;
+        }
+      case DOUBLE:
+        switch (rk) {
+          case INT:
+          case LONG:
+            return Double.compare(dl, (double) r);
+          case FLOAT:
+            // ActiveMQ compares a Double to a Float, that fails
+            return UNSUPPORTED;
+          default:
+            return NOT_COMPARABLE;
+        }
+      default:
+        return UNSUPPORTED;
+    }
+  }
+
+  // the left value is an integer, converted to the type of the right value
+  private static int compareWithWider(long l, byte rk, long r, double dr) {
+    switch (rk) {
+      case FLOAT:
+        return Float.compare((float) l, (float) dr);
+      case DOUBLE:
+        return Double.compare((double) l, dr);
+      default:
+        return Long.compare(l, r);
+    }
+  }
+
+  /** @return the kind of the result of +, - and * like ArithmeticExpression */
+  static byte arithmeticKind(byte lk, byte rk) {
+    if (isFloating(lk) || isFloating(rk)) {
+      return DOUBLE;
+    } else if (lk == LONG || rk == LONG) {
+      return LONG;
+    } else {
+      return INT;
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Evaluates the selectors on the messages of a batch entry in parallel, on a bounded ForkJoinPool
+ * shared by all the subscriptions.
+ *
+ * <p>The broker calls the filter on the dispatcher thread of the subscription, one entry at a time,
+ * so with expensive selectors a subscription uses at most one core. For the batch entries with many
+ * messages the selectors are evaluated in parallel, then the filter combines the results in the
+ * order of the messages, like it does when it evaluates them one by one.
+ */
+@Slf4j
+final class ParallelEvaluator {
+
+  /** The selector has not been evaluated on the message, or the evaluation failed. */
+  static final byte NOT_EVALUATED = 0;
+
+  static final byte MATCHES = 1;
+  static final byte DOES_NOT_MATCH = 2;
+
+  // the messages evaluated by a single task
+  private static final int MESSAGES_PER_TASK = 16;
+
+  private final ForkJoinPool pool;
+  private final int minMessages;
+
+  /**
+   * @param parallelism the number of threads
+   * @param minMessages the minimum number of messages of an entry for the parallel evaluation
+   */
+  ParallelEvaluator(int parallelism, int minMessages) {
+    this.pool =
+        new ForkJoinPool(
+            parallelism,
+            p -> {
+              ForkJoinWorkerThread thread =
+                  ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+              thread.setName("jms-filter-evaluator-" + thread.getPoolIndex());
+              return thread;
+            },
+            null,
+            false);
+    this.minMessages = Math.max(1, minMessages);
+  }
+
+  /**
+   * @return true if the messages of an entry with the given size should be evaluated in parallel
+   */
+  boolean isParallel(int numMessages) {
+    return numMessages >= minMessages;
+  }
+
+  /**
+   * Evaluates the selectors on all the messages, the errors are not reported: the messages are
+   * {@link #NOT_EVALUATED}, the caller evaluates them again and handles the error.
+   *
+   * @param numMessages the number of messages
+   * @param properties the accessor of the properties of each message
+   * @param selectors the selectors, the null elements are not evaluated
+   * @return for each selector the result by message, null for the selectors not evaluated
+   */
+  byte[][] evaluate(
+      int numMessages,
+      IntFunction<Function<String, Object>> properties,
+      SelectorSupport... selectors) {
+    byte[][] results = new byte[selectors.length][];
+    for (int i = 0; i < selectors.length; i++) {
+      if (selectors[i] != null) {
+        results[i] = new byte[numMessages];
+      }
+    }
+    pool.invoke(new Evaluation(properties, selectors, results, 0, numMessages));
+    return results;
+  }
+
+  void close() {
+    pool.shutdownNow();
+  }
+
+  private static final class Evaluation extends RecursiveAction {
+    private final IntFunction<Function<String, Object>> properties;
+    private final SelectorSupport[] selectors;
+    private final byte[][] results;
+    private final int from;
+    private final int to;
+
+    Evaluation(
+        IntFunction<Function<String, Object>> properties,
+        SelectorSupport[] selectors,
+        byte[][] results,
+        int from,
+        int to) {
+      this.properties = properties;
+      this.selectors = selectors;
+      this.results = results;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > MESSAGES_PER_TASK) {
+        int middle = (from + to) >>> 1;
+        invokeAll(
+            new Evaluation(properties, selectors, results, from, middle),
+            new Evaluation(properties, selectors, results, middle, to));
+        return;
+      }
+      for (int message = from; message < to; message++) {
+        // a message is evaluated by a single thread
+        Function<String, Object> messageProperties = properties.apply(message);
+        for (int i = 0; i < selectors.length; i++) {
+          if (selectors[i] == null) {
+            continue;
+          }
+          try {
+            results[i][message] =
+                selectors[i].matches(messageProperties) ? MATCHES : DOES_NOT_MATCH;
+          } catch (Exception err) {
+            log.debug("Cannot evaluate {}", selectors[i], err);
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import com.datastax.oss.pulsar.jms.selectors.EntryMetadataCache.EntryKey;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The entries rescheduled by a queue consumer because its selector does not match.
+ *
+ * <p>The broker dispatches a rescheduled entry again after a while, often to the same consumer, and
+ * as long as nobody else accepts it the entry keeps going around. The result of the selector does
+ * not change, unless the message expires, so the consumer parks the entry: when it reads the entry
+ * again it reschedules it without decoding it.
+ *
+ * <p>The parked entries belong to the {@link FilterPlan} of the consumer: a new consumer, or new
+ * selectors, evaluate the entries again.
+ */
+final class ParkedEntries {
+
+  // the entries not read again within this time have been acknowledged by another consumer
+  private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final ConcurrentHashMap<EntryKey, Parked> entries = new ConcurrentHashMap<>();
+  private final int maxEntries;
+
+  /** @param maxEntries the maximum number of parked entries */
+  ParkedEntries(int maxEntries) {
+    this.maxEntries = maxEntries;
+  }
+
+  /**
+   * @param nowMillis the current time, in order to detect the expired messages
+   * @return true if the entry has been parked and must be rescheduled again
+   */
+  boolean isParked(long ledgerId, long entryId, long nowMillis) {
+    if (entries.isEmpty()) {
+      return false;
+    }
+    EntryKey key = new EntryKey(ledgerId, entryId);
+    Parked parked = entries.get(key);
+    if (parked == null) {
+      return false;
+    }
+    if (parked.expiration > 0 && nowMillis > parked.expiration) {
+      // the messages must be evaluated again, they may be expired now
+      entries.remove(key);
+      return false;
+    }
+    parked.nanos = System.nanoTime();
+    return true;
+  }
+
+  /**
+   * Parks an entry.
+   *
+   * @param expiration the time after which the entry must be evaluated again, 0 for never
+   */
+  void park(long ledgerId, long entryId, long expiration) {
+    long now = System.nanoTime();
+    if (entries.size() >= maxEntries) {
+      entries.values().removeIf(parked -> now - parked.nanos > IDLE_NANOS);
+      if (entries.size() >= maxEntries) {
+        return;
+      }
+    }
+    entries.put(new EntryKey(ledgerId, entryId), new Parked(expiration, now));
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  private static final class Parked {
+    private final long expiration;
+    private volatile long nanos;
+
+    Parked(long expiration, long nanos) {
+      this.expiration = expiration;
+      this.nanos = nanos;
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bounded cache of the parsed selectors.
+ *
+ * <p>The selectors are looked up by their text, after collapsing the whitespace outside of the
+ * string literals, so that the lookup does not need to parse the selector. Selectors with a
+ * different text but the same parsed expression share the same {@link SelectorSupport}.
+ *
+ * <p>When the cache grows over its maximum size the least recently used selectors are evicted.
+ */
+@Slf4j
+final class SelectorCache {
+
+  // access ordered, the eldest entry is the least recently used selector, guarded by this
+  private final LinkedHashMap<String, CachedSelector> selectors =
+      new LinkedHashMap<>(16, 0.75f, true);
+  // the selectors shared by the keys with the same parsed expression, guarded by this
+  private final HashMap<String, CanonicalSelector> canonicalSelectors = new HashMap<>();
+  private volatile int maxSize;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  SelectorCache(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  void setMaxSize(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Returns the selector, building it if it is not in the cache.
+   *
+   * @param selector the selector
+   * @param builder builds the selector, it may return null in case of error
+   * @return the selector, null for the empty selector or if the builder returns null
+   */
+  SelectorSupport computeIfAbsent(String selector, Function<String, SelectorSupport> builder) {
+    if (selector.isEmpty()) {
+      return null;
+    }
+    String key = normalize(selector);
+    synchronized (this) {
+      CachedSelector cached = selectors.get(key);
+      if (cached != null) {
+        hits.increment();
+        return cached.selector;
+      }
+    }
+    misses.increment();
+    // the selector is parsed outside of the lock
+    SelectorSupport result = builder.apply(selector);
+    if (result == null) {
+      // errors are not cached
+      return null;
+    }
+    String canonicalKey = SelectorCompiler.canonicalKey(result.getExpression());
+    synchronized (this) {
+      CachedSelector cached = selectors.get(key);
+      if (cached != null) {
+        return cached.selector;
+      }
+      if (canonicalKey != null) {
+        final SelectorSupport built = result;
+        CanonicalSelector canonical =
+            canonicalSelectors.computeIfAbsent(canonicalKey, k -> new CanonicalSelector(built));
+        canonical.references++;
+        result = canonical.selector;
+      }
+      selectors.put(key, new CachedSelector(result, canonicalKey));
+      evict();
+    }
+    return result;
+  }
+
+  /** Evicts the least recently used selectors, in constant time for each selector. */
+  private void evict() {
+    Iterator<CachedSelector> eldest = selectors.values().iterator();
+    while (selectors.size() > maxSize && eldest.hasNext()) {
+      CachedSelector cached = eldest.next();
+      eldest.remove();
+      if (cached.canonicalKey != null) {
+        // drop the canonical selector when it is no longer referenced
+        CanonicalSelector canonical = canonicalSelectors.get(cached.canonicalKey);
+        if (--canonical.references == 0) {
+          canonicalSelectors.remove(cached.canonicalKey);
+        }
+      }
+      evictions.increment();
+      if (log.isDebugEnabled()) {
+        log.debug(
+            "Evicted selector {}, size {}, hits {}, misses {}, evictions {}",
+            cached.selector.getSelector(),
+            selectors.size(),
+            getHits(),
+            getMisses(),
+            getEvictions());
+      }
+    }
+  }
+
+  synchronized void clear() {
+    selectors.clear();
+    canonicalSelectors.clear();
+  }
+
+  synchronized int size() {
+    return selectors.size();
+  }
+
+  long getHits() {
+    return hits.sum();
+  }
+
+  long getMisses() {
+    return misses.sum();
+  }
+
+  long getEvictions() {
+    return evictions.sum();
+  }
+
+  /** Trims the selector and collapses the whitespace that is not inside a string literal. */
+  static String normalize(String selector) {
+    StringBuilder result = null;
+    boolean inLiteral = false;
+    boolean pendingSpace = false;
+    int length = selector.length();
+    for (int i = 0; i < length; i++) {
+      char c = selector.charAt(i);
+      if (!inLiteral && Character.isWhitespace(c)) {
+        if (result == null) {
+          result = new StringBuilder(length);
+          result.append(selector, 0, i);
+        }
+        pendingSpace = true;
+        continue;
+      }
+      if (c == '\'') {
+        // '' inside a literal is an escaped quote, toggling twice works
+        inLiteral = !inLiteral;
+      }
+      if (result != null) {
+        if (pendingSpace && result.length() > 0) {
+          result.append(' ');
+        }
+        result.append(c);
+      }
+      pendingSpace = false;
+    }
+    return result != null ? result.toString() : selector;
+  }
+
+  private static final class CachedSelector {
+    private final SelectorSupport selector;
+    // null if the selector is not shared with other keys
+    private final String canonicalKey;
+
+    CachedSelector(SelectorSupport selector, String canonicalKey) {
+      this.selector = selector;
+      this.canonicalKey = canonicalKey;
+    }
+  }
+
+  private static final class CanonicalSelector {
+    private final SelectorSupport selector;
+    // the keys of the cache that use the selector
+    private int references;
+
+    CanonicalSelector(SelectorSupport selector) {
+      this.selector = selector;
+    }
+  }
+}
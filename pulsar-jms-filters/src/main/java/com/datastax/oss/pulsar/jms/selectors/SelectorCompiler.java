@@ -0,0 +1,1031 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.activemq.command.ActiveMQDestination;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.filter.ArithmeticExpression;
+import org.apache.activemq.filter.BinaryExpression;
+import org.apache.activemq.filter.BooleanExpression;
+import org.apache.activemq.filter.ComparisonExpression;
+import org.apache.activemq.filter.ConstantExpression;
+import org.apache.activemq.filter.Expression;
+import org.apache.activemq.filter.LogicExpression;
+import org.apache.activemq.filter.PropertyExpression;
+import org.apache.activemq.filter.UnaryExpression;
+
+/**
+ * Compiles the expression tree built by the ActiveMQ SelectorParser into a tree of {@link
+ * CompiledExpression}s that read the properties directly from the property accessor, without
+ * wrapping them into an ActiveMQMessage.
+ *
+ * <p>The compiled tree reproduces the semantics of the ActiveMQ expressions, including the
+ * conversions applied by the ActiveMQMessage adapter in {@link SelectorSupport} to the JMS headers.
+ * Expressions that are not supported (XPath, XQuery, function calls...) make the whole selector
+ * fall back to the ActiveMQ expression tree.
+ *
+ * <p>A {@link SelectorGroup} compiles many selectors together: equal sub expressions, even if they
+ * belong to different selectors, are compiled to the same node, that is evaluated at most once per
+ * message, like the CacheExpression of the ActiveMQ MultiExpressionEvaluator.
+ */
+@Slf4j
+final class SelectorCompiler {
+
+  private final Map<String, Integer> slots = new LinkedHashMap<>();
+  // false if the selector references a property that is not a JMS header
+  private boolean headersOnly = true;
+
+  // only for groups, the nodes by key and the number of references to each key
+  private final Map<String, CompiledExpression> sharedNodes;
+  private final Map<String, Integer> references;
+  private final Map<Expression, String> keys;
+  private int resultSlots;
+
+  private SelectorCompiler(boolean group) {
+    if (group) {
+      sharedNodes = new HashMap<>();
+      references = new HashMap<>();
+      keys = new IdentityHashMap<>();
+    } else {
+      sharedNodes = null;
+      references = null;
+      keys = null;
+    }
+  }
+
+  /**
+   * Compiles a selector.
+   *
+   * @param expression the parsed selector
+   * @return the compiled selector or null if the selector contains unsupported expressions
+   */
+  static CompiledSelector compile(BooleanExpression expression) {
+    SelectorCompiler compiler = new SelectorCompiler(false);
+    CompiledExpression root = compiler.compileExpression(expression);
+    if (root == null) {
+      if (log.isDebugEnabled()) {
+        log.debug("Selector {} cannot be compiled", expression);
+      }
+      return null;
+    }
+    return new CompiledSelector(
+        root, compiler.slots.keySet().toArray(new String[0]), compiler.headersOnly);
+  }
+
+  /**
+   * Compiles the selectors of a group.
+   *
+   * @param selectors the selectors, they must be compilable
+   * @return the group
+   */
+  static SelectorGroup compileGroup(SelectorSupport[] selectors) {
+    SelectorCompiler compiler = new SelectorCompiler(true);
+    for (SelectorSupport selector : selectors) {
+      compiler.countReferences(selector.getExpression());
+    }
+    CompiledExpression[] roots = new CompiledExpression[selectors.length];
+    EqualityIndex.Builder equalityIndex = new EqualityIndex.Builder(selectors.length);
+    for (int i = 0; i < selectors.length; i++) {
+      roots[i] = compiler.compileExpression(selectors[i].getExpression());
+      if (roots[i] == null) {
+        throw new IllegalArgumentException("Selector " + selectors[i] + " cannot be compiled");
+      }
+      List<String[]> terms = new ArrayList<>();
+      boolean partial = collectEqualityTerms(roots[i], terms);
+      for (String[] term : terms) {
+        equalityIndex.addTerm(i, term[0], term[1]);
+      }
+      if (partial && !terms.isEmpty()) {
+        equalityIndex.setPartial(i);
+      }
+    }
+    return new SelectorGroup(
+        selectors,
+        roots,
+        compiler.slots.keySet().toArray(new String[0]),
+        compiler.resultSlots,
+        equalityIndex.build(compiler.slots));
+  }
+
+  /**
+   * Collects the terms in the form {@code property = 'value'} of a conjunction.
+   *
+   * @return true if the expression has other terms
+   */
+  private static boolean collectEqualityTerms(CompiledExpression expression, List<String[]> terms) {
+    if (expression instanceof Shared) {
+      expression = ((Shared) expression).expression;
+    }
+    if (expression instanceof And) {
+      boolean partial = false;
+      for (CompiledExpression child : ((And) expression).expressions) {
+        partial = collectEqualityTerms(child, terms) || partial;
+      }
+      return partial;
+    }
+    String[] term = equalityTerm(expression);
+    if (term == null) {
+      return true;
+    }
+    terms.add(term);
+    return false;
+  }
+
+  /**
+   * @return the name of the property and the value of an expression in the form {@code property =
+   *     'value'}, null if the expression has a different form
+   */
+  private static String[] equalityTerm(CompiledExpression expression) {
+    if (!(expression instanceof Equals)) {
+      return null;
+    }
+    CompiledExpression left = ((Equals) expression).left;
+    CompiledExpression right = ((Equals) expression).right;
+    if (left instanceof Constant) {
+      CompiledExpression swap = left;
+      left = right;
+      right = swap;
+    }
+    if (!(right instanceof Constant) || !(((Constant) right).value instanceof String)) {
+      return null;
+    }
+    String value = (String) ((Constant) right).value;
+    if (left instanceof Property) {
+      return new String[] {((Property) left).name, value};
+    }
+    if (left instanceof Header) {
+      String name = ((Header) left).name;
+      switch (name) {
+        case "JMSType":
+        case "JMSCorrelationID":
+        case "JMSXGroupID":
+          // the value is used as is
+          return new String[] {name, value};
+        default:
+          return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Builds a canonical form of a selector, selectors with the same canonical form always evaluate
+   * to the same value.
+   *
+   * @return the canonical form, null if the selector contains unsupported expressions
+   */
+  static String canonicalKey(BooleanExpression expression) {
+    return new SelectorCompiler(true).key(expression);
+  }
+
+  private void countReferences(Expression expression) {
+    String key = key(expression);
+    if (key == null || references.merge(key, 1, Integer::sum) > 1) {
+      // the children of a shared node are evaluated only once
+      return;
+    }
+    for (Expression child : children(expression)) {
+      countReferences(child);
+    }
+  }
+
+  private static List<? extends Expression> children(Expression expression) {
+    if (expression instanceof LogicExpression) {
+      return ((LogicExpression) expression).getExpressions();
+    }
+    if (expression instanceof UnaryExpression) {
+      return Collections.singletonList(((UnaryExpression) expression).getRight());
+    }
+    if (expression instanceof BinaryExpression) {
+      BinaryExpression binary = (BinaryExpression) expression;
+      return Arrays.asList(binary.getLeft(), binary.getRight());
+    }
+    return Collections.emptyList();
+  }
+
+  /**
+   * Builds a key that identifies the expression, two expressions with the same key always evaluate
+   * to the same value.
+   *
+   * @return the key, null if the expression is not supported
+   */
+  private String key(Expression expression) {
+    String key = keys.get(expression);
+    if (key == null) {
+      key = buildKey(expression);
+      if (key != null) {
+        keys.put(expression, key);
+      }
+    }
+    return key;
+  }
+
+  private String buildKey(Expression expression) {
+    if (expression instanceof ConstantExpression) {
+      return constantKey(((ConstantExpression) expression).getValue());
+    }
+    if (expression instanceof PropertyExpression) {
+      return "$" + ((PropertyExpression) expression).getName();
+    }
+    StringBuilder key = new StringBuilder();
+    if (expression instanceof LogicExpression
+        || expression instanceof BinaryExpression
+        || expression instanceof UnaryExpression.NotExpression
+        || expression instanceof UnaryExpression.BooleanCastExpression
+        || expression instanceof UnaryExpression.NegateExpression) {
+      key.append(expression.getClass().getName());
+      if (expression instanceof BinaryExpression) {
+        // the comparisons and the arithmetic operators are anonymous classes
+        key.append(((BinaryExpression) expression).getExpressionSymbol());
+      }
+      if (expression instanceof ComparisonExpression
+          && ((ComparisonExpression) expression).isConvertStringExpressions()) {
+        key.append('~');
+      }
+    } else if (expression instanceof UnaryExpression.InExpression) {
+      UnaryExpression.InExpression in = (UnaryExpression.InExpression) expression;
+      key.append(in.isNot() ? "NOT IN" : "IN");
+      if (in.getInList() != null) {
+        for (Object value : new TreeSet<>(in.getInList())) {
+          key.append(constantKey(value));
+        }
+      }
+    } else if (expression instanceof ComparisonExpression.LikeExpression) {
+      key.append("LIKE")
+          .append(constantKey(((ComparisonExpression.LikeExpression) expression).getRegexp()));
+    } else {
+      return null;
+    }
+    key.append('(');
+    for (Expression child : children(expression)) {
+      String childKey = key(child);
+      if (childKey == null) {
+        return null;
+      }
+      key.append(childKey).append(',');
+    }
+    return key.append(')').toString();
+  }
+
+  private static String constantKey(Object value) {
+    if (value == null) {
+      return "NULL";
+    }
+    String string = value.toString();
+    // the length makes the key unambiguous
+    return value.getClass().getSimpleName() + "[" + string.length() + "]" + string;
+  }
+
+  private int slot(String name) {
+    return slots.computeIfAbsent(name, n -> slots.size());
+  }
+
+  private CompiledExpression[] compileAll(List<? extends Expression> expressions) {
+    CompiledExpression[] result = new CompiledExpression[expressions.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = compileExpression(expressions.get(i));
+      if (result[i] == null) {
+        return null;
+      }
+    }
+    return result;
+  }
+
+  private CompiledExpression compileExpression(Expression expression) {
+    if (sharedNodes == null) {
+      return compileNode(expression);
+    }
+    String key = key(expression);
+    if (key == null) {
+      return null;
+    }
+    CompiledExpression node = sharedNodes.get(key);
+    if (node == null) {
+      node = compileNode(expression);
+      if (node == null) {
+        return null;
+      }
+      if (references.getOrDefault(key, 0) > 1
+          && !(node instanceof Constant || node instanceof Property)) {
+        node = new Shared(node, resultSlots++);
+      }
+      sharedNodes.put(key, node);
+    }
+    return node;
+  }
+
+  private CompiledExpression compileNode(Expression expression) {
+    if (expression instanceof ConstantExpression) {
+      return new Constant(((ConstantExpression) expression).getValue());
+    }
+    if (expression instanceof PropertyExpression) {
+      return compileProperty(((PropertyExpression) expression).getName());
+    }
+    if (expression instanceof LogicExpression.ANDExpression) {
+      CompiledExpression[] expressions =
+          compileAll(((LogicExpression) expression).getExpressions());
+      return expressions != null ? new And(expressions) : null;
+    }
+    if (expression instanceof LogicExpression.ORExpression) {
+      CompiledExpression[] expressions =
+          compileAll(((LogicExpression) expression).getExpressions());
+      return expressions != null ? new Or(expressions) : null;
+    }
+    if (expression instanceof UnaryExpression.NotExpression) {
+      CompiledExpression right = compileExpression(((UnaryExpression) expression).getRight());
+      return right != null ? new Not(right) : null;
+    }
+    if (expression instanceof UnaryExpression.BooleanCastExpression) {
+      CompiledExpression right = compileExpression(((UnaryExpression) expression).getRight());
+      return right != null ? new BooleanCast(right) : null;
+    }
+    if (expression instanceof UnaryExpression.NegateExpression) {
+      CompiledExpression right = compileExpression(((UnaryExpression) expression).getRight());
+      if (right instanceof Constant) {
+        // negative literals
+        Object value = ((Constant) right).value;
+        return new Constant(
+            value instanceof Number ? UnaryExpression.negate((Number) value) : null);
+      }
+      return right != null ? new Negate(right) : null;
+    }
+    if (expression instanceof UnaryExpression.InExpression) {
+      UnaryExpression.InExpression in = (UnaryExpression.InExpression) expression;
+      CompiledExpression right = compileExpression(in.getRight());
+      if (right == null) {
+        return null;
+      }
+      Collection<Object> inList = in.getInList();
+      if (inList != null && inList.size() == 1) {
+        return new InSingle(right, inList.iterator().next(), in.isNot());
+      }
+      return new In(right, inList, in.isNot());
+    }
+    if (expression instanceof ComparisonExpression.LikeExpression) {
+      ComparisonExpression.LikeExpression like = (ComparisonExpression.LikeExpression) expression;
+      CompiledExpression right = compileExpression(like.getRight());
+      return right != null ? new Like(right, like) : null;
+    }
+    if (expression instanceof ComparisonExpression) {
+      ComparisonExpression comparison = (ComparisonExpression) expression;
+      CompiledExpression left = compileExpression(comparison.getLeft());
+      CompiledExpression right = compileExpression(comparison.getRight());
+      if (left == null || right == null) {
+        return null;
+      }
+      if ("=".equals(comparison.getExpressionSymbol())) {
+        return new Equals(left, right, comparison);
+      }
+      return new Comparison(left, right, comparison);
+    }
+    if (expression instanceof ArithmeticExpression) {
+      ArithmeticExpression arithmetic = (ArithmeticExpression) expression;
+      CompiledExpression left = compileExpression(arithmetic.getLeft());
+      CompiledExpression right = compileExpression(arithmetic.getRight());
+      if (left == null || right == null) {
+        return null;
+      }
+      return new Arithmetic(left, right, arithmetic);
+    }
+    // XPath, XQuery, function calls....
+    return null;
+  }
+
+  private CompiledExpression compileProperty(String name) {
+    // see PropertyExpression.JMS_PROPERTY_EXPRESSIONS
+    // and the ActiveMQMessage adapter in SelectorSupport
+    switch (name) {
+      case "JMSDestination":
+      case "JMSReplyTo":
+      case "JMSType":
+      case "JMSDeliveryMode":
+      case "JMSPriority":
+      case "JMSMessageID":
+      case "JMSTimestamp":
+      case "JMSCorrelationID":
+      case "JMSExpiration":
+      case "JMSXGroupID":
+      case "JMSXGroupSeq":
+      case "JMSXUserID":
+        return new Header(name, slot(name));
+      case "JMSRedelivered":
+      case "JMSXGroupFirstForConsumer":
+        return new Constant(Boolean.FALSE);
+      case "JMSXDeliveryCount":
+        // the redelivery counter is not available, this is 0 + 1
+        return new Constant(1);
+      case "JMSXProducerTXID":
+        return new Constant(null);
+      case "JMSActiveMQBrokerInTime":
+      case "JMSActiveMQBrokerOutTime":
+        return new Constant(0L);
+      case "JMSActiveMQBrokerPath":
+        return new Constant("null");
+      default:
+        headersOnly = false;
+        return new Property(name, slot(name));
+    }
+  }
+
+  private static final class Constant extends CompiledExpression {
+    private final Object value;
+
+    Constant(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    Object evaluate(CompiledSelector.EvaluationContext context) {
+      return value;
+    }
+  }
+
+  private static final class Property extends CompiledExpression {
+    private final String name;
+    private final int slot;
+
+    Property(String name, int slot) {
+      this.name = name;
+      this.slot = slot;
+    }
+
+    @Override
+    Object evaluate(CompiledSelector.EvaluationContext context) {
+      return context.getProperty(slot, name);
+    }
+
+    @Override
+    byte evaluateNumber(CompiledSelector.EvaluationContext context) {
+      return context.getNumber(slot, name);
+    }
+  }
+
+  /** A node referenced more than once in a group, it is evaluated at most once per message. */
+  private static final class Shared extends CompiledExpression {
+    private final CompiledExpression expression;
+    private final int slot;
+
+    Shared(CompiledExpression expression, int slot) {
+      this.expression = expression;
+      this.slot = slot;
+    }
+
+    @Override
+    Object evaluate(CompiledSelector.EvaluationContext context) throws JMSException {
+      return context.getResult(slot, expression);
+    }
+  }
+
+  /** JMS Headers, this applies the same conversions of the ActiveMQMessage adapter. */
+  private static final class Header extends CompiledExpression {
+    private static final int DESTINATION = 0;
+    private static final int DELIVERY_MODE = 1;
+    private static final int PRIORITY = 2;
+    private static final int MESSAGE_ID = 3;
+    private static final int TIME = 4;
+    private static final int GROUP_SEQ = 5;
+    private static final int STRING = 6;
+    private static final int OTHER = 7;
+
+    private final String name;
+    private final int slot;
+    // the conversion of the value, resolved once instead of switching on the name
+    private final int conversion;
+
+    Header(String name, int slot) {
+      this.name = name;
+      this.slot = slot;
+      this.conversion = conversion(name);
+    }
+
+    private static int conversion(String name) {
+      switch (name) {
+        case "JMSDestination":
+        case "JMSReplyTo":
+          return DESTINATION;
+        case "JMSDeliveryMode":
+          return DELIVERY_MODE;
+        case "JMSPriority":
+          return PRIORITY;
+        case "JMSMessageID":
+          return MESSAGE_ID;
+        case "JMSTimestamp":
+        case "JMSExpiration":
+          return TIME;
+        case "JMSXGroupSeq":
+          return GROUP_SEQ;
+        case "JMSType":
+        case "JMSCorrelationID":
+        case "JMSXGroupID":
+          return STRING;
+        default:
+          return OTHER;
+      }
+    }
+
+    @Override
+    Object evaluate(CompiledSelector.EvaluationContext context) {
+      Object value = context.getProperty(slot, name);
+      switch (conversion) {
+        case DESTINATION:
+          return value != null ? ((ActiveMQDestination) value).toString() : null;
+        case DELIVERY_MODE:
+          return ((Integer) value) == DeliveryMode.PERSISTENT ? "PERSISTENT" : "NON_PERSISTENT";
+        case PRIORITY:
+          return Integer.valueOf((byte) ((Integer) value).intValue());
+        case MESSAGE_ID:
+          return new MessageId((String) value).toString();
+        case TIME:
+          return Objects.requireNonNull((Long) value);
+        case GROUP_SEQ:
+          return Objects.requireNonNull((Integer) value);
+        case STRING:
+          return (String) value;
+        default:
+          return value;
+      }
+    }
+
+    @Override
+    byte evaluateNumber(CompiledSelector.EvaluationContext context) {
+      if (conversion == TIME) {
+        // the timestamps are read without boxing them
+        byte kind = context.getNumber(slot, name);
+        if (kind == Numbers.LONG) {
+          return kind;
+        }
+      }
+      return context.setNumber(evaluate(context));
+    }
+  }
+
+  private static final class And extends CompiledExpression {
+    private final CompiledExpression[] expressions;
+
+    And(CompiledExpression[] expressions) {
+      this.expressions = expressions;
+    }
+
+    @Override
+    Object evaluate(CompiledSelector.EvaluationContext context) throws JMSException {
+      boolean someNulls = false;
+      for (CompiledExpression expression : expressions) {
+        Boolean lv = (Boolean) expression.evaluate(context);
+        if (lv != null && !lv.booleanValue()) {
+          return Boolean.FALSE;
+        }
+        if (lv == null) {
+          someNulls = true;
+        }
+      }
+      if (someNulls) {
+        return null;
+      }
+      return Boolean.TRUE;
+    }
+
+    @Override
+    boolean matches(CompiledSelector.EvaluationContext context) throws JMSException {
+      for (CompiledExpression expression : expressions) {
+        if (!expression.matches(context)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static final class Or extends CompiledExpression {
+    private final CompiledExpression[] expressions;
+
+    Or(CompiledExpression[] expressions) {
+      this.expressions = expressions;
+    }
+
+    @Override
+    Object evaluate(CompiledSelector.EvaluationContext context) throws JMSException {
+      boolean someNulls = false;
+      for (CompiledExpression expression : expressions) {
+        Boolean lv = (Boolean) expression.evaluate(context);
+        if (lv != null && lv.booleanValue()) {
+          return Boolean.TRUE;
+        }
+        if (lv == null) {
+          someNulls = true;
+        }
+      }
+      if (someNulls) {
+        return null;
+      }
+      return Boolean.FALSE;
+    }
+
+    @Override
+    boolean matches(CompiledSelector.EvaluationContext context) throws JMSException {
+      for (CompiledExpression expression : expressions) {
+        if (expression.matches(context)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final class Not extends CompiledExpression {
+    private final CompiledExpression right;
+
+    Not(CompiledExpression right) {
+      this.right = right;
+    }
+
+    @Override
+    Object evaluate(CompiledSelector.EvaluationContext context) throws JMSException {
+      Boolean lvalue = (Boolean) right.evaluate(context);
+      if (lvalue == null) {
+        return null;
+      }
+      return lvalue.booleanValue() ? Boolean.FALSE : Boolean.TRUE;
+    }
+
+    @Override
+    boolean matches(CompiledSelector.EvaluationContext context) throws JMSException {
+      Boolean lvalue = (Boolean) right.evaluate(context);
+      if (lvalue == null) {
+        // NOT NULL returns NULL that eventually fails the selector
+        return false;
+      }
+      return !lvalue;
+    }
+  }
+
+  private static final class BooleanCast extends CompiledExpression {
+    private final CompiledExpression right;
+
+    BooleanCast(CompiledExpression right) {
+      this.right = right;
+    }
+
+    @Override
+    Object evaluate(CompiledSelector.EvaluationContext context) throws JMSException {
+      Object rvalue = right.evaluate(context);
+      if (rvalue == null) {
+        return null;
+      }
+      if (rvalue.getClass() != Boolean.class) {
+        return Boolean.FALSE;
+      }
+      return ((Boolean) rvalue).booleanValue() ? Boolean.TRUE : Boolean.FALSE;
+    }
+  }
+
+  private static final class Negate extends CompiledExpression {
+    private final CompiledExpression right;
+
+    Negate(CompiledExpression right) {
+      this.right = right;
+    }
+
+    @Override
+    Object evaluate(CompiledSelector.EvaluationContext context) throws JMSException {
+      byte kind = evaluateNumber(context);
+      return Numbers.box(kind, context.longValue, context.doubleValue, context.objectValue);
+    }
+
+    @Override
+    byte evaluateNumber(CompiledSelector.EvaluationContext context) throws JMSException {
+      byte kind = right.evaluateNumber(context);
+      switch (kind) {
+        case Numbers.NULL:
+          return kind;
+        case Numbers.INT:
+          return context.setLong(kind, -((int) context.longValue));
+        case Numbers.LONG:
+          return context.setLong(kind, -context.longValue);
+        case Numbers.FLOAT:
+          return context.setDouble(kind, -((float) context.doubleValue));
+        case Numbers.DOUBLE:
+          return context.setDouble(kind, -context.doubleValue);
+        default:
+          Object rvalue =
+              Numbers.box(kind, context.longValue, context.doubleValue, context.objectValue);
+          return context.setNumber(
+              rvalue instanceof Number ? UnaryExpression.negate((Number) rvalue) : null);
+      }
+    }
+  }
+
+  /**
+   * IN, see UnaryExpression.InExpression. The selector grammar only accepts string literals in the
+   * list, and IN is unknown on a value that is not a String.
+   */
+  private static final class In extends CompiledExpression {
+    private final CompiledExpression right;
+    private final Set<String> inList;
+    private final boolean not;
+
+    In(CompiledExpression right, Collection<Object> inList, boolean not) {
+      this.right = right;
+      this.inList = new HashSet<>();
+      if (inList != null) {
+        for (Object value : inList) {
+          this.inList.add((String) value);
+        }
+      }
+      this.not = not;
+    }
+
+    @Override
+    Object evaluate(CompiledSelector.EvaluationContext context) throws JMSException {
+      Object rvalue = right.evaluate(context);
+      if (rvalue == null || rvalue.getClass() != String.class) {
+        return null;
+      }
+      return (inList.contains(rvalue) ^ not) ? Boolean.TRUE : Boolean.FALSE;
+    }
+  }
+
+  /** IN with only one value. */
+  private static final class InSingle extends CompiledExpression {
+    private final CompiledExpression right;
+    private final Object value;
+    private final boolean not;
+
+    InSingle(CompiledExpression right, Object value, boolean not) {
+      this.right = right;
+      this.value = value;
+      this.not = not;
+    }
+
+    @Override
+    Object evaluate(CompiledSelector.EvaluationContext context) throws JMSException {
+      Object rvalue = right.evaluate(context);
+      if (rvalue == null || rvalue.getClass() != String.class) {
+        return null;
+      }
+      return (value.equals(rvalue) ^ not) ? Boolean.TRUE : Boolean.FALSE;
+    }
+  }
+
+  private static final class Like extends CompiledExpression {
+    private final CompiledExpression right;
+    private final ComparisonExpression.LikeExpression like;
+
+    Like(CompiledExpression right, ComparisonExpression.LikeExpression like) {
+      this.right = right;
+      this.like = like;
+    }
+
+    @Override
+    Object evaluate(CompiledSelector.EvaluationContext context) throws JMSException {
+      Object rv = right.evaluate(context);
+      if (rv == null) {
+        return null;
+      }
+      if (!(rv instanceof String)) {
+        return Boolean.FALSE;
+      }
+      return like.matches((String) rv) ? Boolean.TRUE : Boolean.FALSE;
+    }
+  }
+
+  /** Equality, see ComparisonExpression.EqualsExpression. */
+  private static final class Equals extends CompiledExpression {
+    private final CompiledExpression left;
+    private final CompiledExpression right;
+    private final ComparisonExpression comparison;
+
+    Equals(CompiledExpression left, CompiledExpression right, ComparisonExpression comparison) {
+      this.left = left;
+      this.right = right;
+      this.comparison = comparison;
+    }
+
+    @Override
+    Object evaluate(CompiledSelector.EvaluationContext context) throws JMSException {
+      byte lk = left.evaluateNumber(context);
+      long l = context.longValue;
+      double dl = context.doubleValue;
+      Object lo = context.objectValue;
+      byte rk = right.evaluateNumber(context);
+      if (Numbers.isNumber(lk) && Numbers.isNumber(rk)) {
+        int result = Numbers.compare(lk, l, dl, rk, context.longValue, context.doubleValue);
+        if (result != Numbers.UNSUPPORTED) {
+          return result == 0 ? Boolean.TRUE : Boolean.FALSE;
+        }
+      }
+      return evaluate(
+          Numbers.box(lk, l, dl, lo),
+          Numbers.box(rk, context.longValue, context.doubleValue, context.objectValue));
+    }
+
+    @SuppressWarnings("rawtypes")
+    private Object evaluate(Object lv, Object rv) {
+      if (lv == null ^ rv == null) {
+        if (lv == null) {
+          return null;
+        }
+        return Boolean.FALSE;
+      }
+      if (lv == rv || lv.equals(rv)) {
+        return Boolean.TRUE;
+      }
+      if (lv instanceof Comparable && rv instanceof Comparable) {
+        return comparison.compare((Comparable) lv, (Comparable) rv);
+      }
+      return Boolean.FALSE;
+    }
+
+    @Override
+    boolean matches(CompiledSelector.EvaluationContext context) throws JMSException {
+      byte lk = left.evaluateNumber(context);
+      long l = context.longValue;
+      double dl = context.doubleValue;
+      Object lo = context.objectValue;
+      byte rk = right.evaluateNumber(context);
+      if (Numbers.isNumber(lk) && Numbers.isNumber(rk)) {
+        int result = Numbers.compare(lk, l, dl, rk, context.longValue, context.doubleValue);
+        if (result != Numbers.UNSUPPORTED) {
+          return result == 0;
+        }
+      }
+      return matches(
+          Numbers.box(lk, l, dl, lo),
+          Numbers.box(rk, context.longValue, context.doubleValue, context.objectValue));
+    }
+
+    @SuppressWarnings("rawtypes")
+    private boolean matches(Object lv, Object rv) {
+      if (lv == null ^ rv == null) {
+        return false;
+      }
+      if (lv == rv || lv.equals(rv)) {
+        return true;
+      }
+      if (lv.getClass() == rv.getClass()) {
+        return false;
+      }
+      if (lv instanceof Comparable && rv instanceof Comparable) {
+        Boolean compareResult = comparison.compare((Comparable) lv, (Comparable) rv);
+        return compareResult != null && compareResult;
+      }
+      return false;
+    }
+  }
+
+  /** Ordering comparisons (<, <=, >, >=). */
+  private static final class Comparison extends CompiledExpression {
+    private final CompiledExpression left;
+    private final CompiledExpression right;
+    private final ComparisonExpression comparison;
+    private final String operator;
+
+    Comparison(CompiledExpression left, CompiledExpression right, ComparisonExpression comparison) {
+      this.left = left;
+      this.right = right;
+      this.comparison = comparison;
+      this.operator = comparison.getExpressionSymbol();
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    Object evaluate(CompiledSelector.EvaluationContext context) throws JMSException {
+      byte lk = left.evaluateNumber(context);
+      if (lk == Numbers.NULL) {
+        return null;
+      }
+      long l = context.longValue;
+      double dl = context.doubleValue;
+      Comparable lv = lk == Numbers.OTHER ? (Comparable) context.objectValue : null;
+      byte rk = right.evaluateNumber(context);
+      if (rk == Numbers.NULL) {
+        return null;
+      }
+      if (Numbers.isNumber(lk) && Numbers.isNumber(rk)) {
+        int result = Numbers.compare(lk, l, dl, rk, context.longValue, context.doubleValue);
+        if (result == Numbers.NOT_COMPARABLE) {
+          return Boolean.FALSE;
+        }
+        if (result != Numbers.UNSUPPORTED) {
+          return matches(result) ? Boolean.TRUE : Boolean.FALSE;
+        }
+      }
+      Comparable rv =
+          (Comparable) Numbers.box(rk, context.longValue, context.doubleValue, context.objectValue);
+      if (lv == null) {
+        lv = (Comparable) Numbers.box(lk, l, dl, null);
+      }
+      return comparison.compare(lv, rv);
+    }
+
+    private boolean matches(int result) {
+      switch (operator) {
+        case "<":
+          return result < 0;
+        case "<=":
+          return result <= 0;
+        case ">":
+          return result > 0;
+        default:
+          return result >= 0;
+      }
+    }
+  }
+
+  private static final class Arithmetic extends CompiledExpression {
+    private final CompiledExpression left;
+    private final CompiledExpression right;
+    private final ArithmeticExpression arithmetic;
+    private final char operator;
+
+    Arithmetic(CompiledExpression left, CompiledExpression right, ArithmeticExpression arithmetic) {
+      this.left = left;
+      this.right = right;
+      this.arithmetic = arithmetic;
+      this.operator = arithmetic.getExpressionSymbol().charAt(0);
+    }
+
+    @Override
+    Object evaluate(CompiledSelector.EvaluationContext context) throws JMSException {
+      byte kind = evaluateNumber(context);
+      return Numbers.box(kind, context.longValue, context.doubleValue, context.objectValue);
+    }
+
+    @Override
+    byte evaluateNumber(CompiledSelector.EvaluationContext context) throws JMSException {
+      byte lk = left.evaluateNumber(context);
+      if (lk == Numbers.NULL) {
+        return lk;
+      }
+      long l = context.longValue;
+      double dl = context.doubleValue;
+      Object lo = context.objectValue;
+      byte rk = right.evaluateNumber(context);
+      if (rk == Numbers.NULL) {
+        return rk;
+      }
+      long r = context.longValue;
+      double dr = context.doubleValue;
+      if (Numbers.isNumber(lk) && Numbers.isNumber(rk)) {
+        if (operator == '/' || operator == '%') {
+          double a = Numbers.toDouble(lk, l, dl);
+          double b = Numbers.toDouble(rk, r, dr);
+          return context.setDouble(Numbers.DOUBLE, operator == '/' ? a / b : a % b);
+        }
+        byte kind = Numbers.arithmeticKind(lk, rk);
+        switch (kind) {
+          case Numbers.INT:
+            return context.setLong(kind, apply((int) l, (int) r));
+          case Numbers.LONG:
+            return context.setLong(kind, apply(l, r));
+          default:
+            return context.setDouble(
+                kind, apply(Numbers.toDouble(lk, l, dl), Numbers.toDouble(rk, r, dr)));
+        }
+      }
+      return context.setNumber(
+          arithmetic.evaluate(
+              Numbers.box(lk, l, dl, lo), Numbers.box(rk, r, dr, context.objectValue)));
+    }
+
+    private int apply(int a, int b) {
+      return operator == '+' ? a + b : operator == '-' ? a - b : a * b;
+    }
+
+    private long apply(long a, long b) {
+      return operator == '+' ? a + b : operator == '-' ? a - b : a * b;
+    }
+
+    private double apply(double a, double b) {
+      return operator == '+' ? a + b : operator == '-' ? a - b : a * b;
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import com.datastax.oss.pulsar.jms.selectors.EntryMetadataCache.DecodedEntry;
+import com.datastax.oss.pulsar.jms.selectors.EntryMetadataCache.DecodedMessage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+/**
+ * The selectors of the subscriptions of a topic, compiled together into one DAG.
+ *
+ * <p>Equal sub expressions of different selectors are compiled to the same node and evaluated only
+ * once per message, so that all the selectors are evaluated with one pass over the entry. The
+ * result is a bitset of the matching selectors for each message, that the subscriptions share.
+ *
+ * <p>The selectors made of terms in the form {@code property = 'value'} are resolved with an {@link
+ * EqualityIndex}, with one hash lookup per property instead of one evaluation per selector.
+ *
+ * <p>Instances are immutable: adding a selector builds a new group.
+ */
+final class SelectorGroup {
+
+  static final SelectorGroup EMPTY =
+      new SelectorGroup(new SelectorSupport[0], new CompiledExpression[0], new String[0], 0, null);
+
+  // do not update the last use time of a selector more often than this
+  private static final long TOUCH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final SelectorSupport[] selectors;
+  private final Map<String, Integer> indexes;
+  private final CompiledExpression[] roots;
+  private final String[] propertyNames;
+  private final int resultSlots;
+  private final EqualityIndex equalityIndex;
+  private final AtomicLongArray lastUseNanos;
+
+  SelectorGroup(
+      SelectorSupport[] selectors,
+      CompiledExpression[] roots,
+      String[] propertyNames,
+      int resultSlots,
+      EqualityIndex equalityIndex) {
+    this.selectors = selectors;
+    this.roots = roots;
+    this.propertyNames = propertyNames;
+    this.resultSlots = resultSlots;
+    this.equalityIndex = equalityIndex;
+    this.indexes = new HashMap<>();
+    for (int i = 0; i < selectors.length; i++) {
+      indexes.put(selectors[i].getSelector(), i);
+    }
+    this.lastUseNanos = new AtomicLongArray(selectors.length);
+    long now = System.nanoTime();
+    for (int i = 0; i < selectors.length; i++) {
+      lastUseNanos.set(i, now);
+    }
+  }
+
+  /**
+   * Only the selectors that can be compiled and that do not depend on the consumer can be shared.
+   * JMSDestination depends on the type of destination used by the consumer.
+   */
+  static boolean canShare(SelectorSupport selector) {
+    CompiledSelector compiledSelector = selector.getCompiledSelector();
+    return compiledSelector != null
+        && !Arrays.asList(compiledSelector.getPropertyNames()).contains("JMSDestination");
+  }
+
+  int size() {
+    return selectors.length;
+  }
+
+  /** @return the index of the selector, -1 if the selector is not in the group */
+  int indexOf(String selector) {
+    Integer index = indexes.get(selector);
+    return index != null ? index : -1;
+  }
+
+  void touch(int index, long now) {
+    if (now - lastUseNanos.get(index) > TOUCH_INTERVAL_NANOS) {
+      lastUseNanos.set(index, now);
+    }
+  }
+
+  /**
+   * Builds a new group with the selector, the selectors not used in the last idleNanos nanoseconds
+   * are dropped.
+   */
+  SelectorGroup add(SelectorSupport selector, long now, long idleNanos) {
+    List<SelectorSupport> result = new ArrayList<>(selectors.length + 1);
+    for (int i = 0; i < selectors.length; i++) {
+      if (now - lastUseNanos.get(i) <= idleNanos) {
+        result.add(selectors[i]);
+      }
+    }
+    result.add(selector);
+    return SelectorCompiler.compileGroup(result.toArray(new SelectorSupport[0]));
+  }
+
+  /**
+   * Evaluates all the selectors on all the messages of the entry.
+   *
+   * @param entry the entry
+   * @param propertiesAccessor builds the property accessor of a message
+   * @return the results
+   */
+  Results evaluate(
+      DecodedEntry entry, Function<DecodedMessage, Function<String, Object>> propertiesAccessor) {
+    int numMessages = entry.getNumMessages();
+    int words = (roots.length + 63) >>> 6;
+    long[] matches = new long[numMessages * words];
+    long[] errors = new long[numMessages * words];
+    long[] resolved = equalityIndex != null ? new long[words] : null;
+    EqualityIndex.Scratch scratch = equalityIndex != null ? equalityIndex.newScratch() : null;
+    for (int i = 0; i < numMessages; i++) {
+      CompiledSelector.EvaluationContext context =
+          CompiledSelector.EvaluationContext.acquire(
+              propertiesAccessor.apply(entry.getMessage(i)), propertyNames.length, resultSlots);
+      try {
+        if (resolved != null) {
+          equalityIndex.evaluate(context, matches, i * words, resolved, scratch);
+        }
+        for (int j = 0; j < roots.length; j++) {
+          if (resolved != null && (resolved[j >>> 6] & (1L << j)) != 0) {
+            continue;
+          }
+          int word = i * words + (j >>> 6);
+          try {
+            if (roots[j].matches(context)) {
+              matches[word] |= 1L << j;
+            }
+          } catch (Exception err) {
+            // the subscription will evaluate the selector again and handle the error
+            errors[word] |= 1L << j;
+          }
+        }
+      } finally {
+        context.release();
+      }
+    }
+    return new Results(this, words, matches, errors);
+  }
+
+  /** The results of the evaluation of the selectors of a group on the messages of an entry. */
+  static final class Results {
+    private final SelectorGroup group;
+    private final int words;
+    private final long[] matches;
+    private final long[] errors;
+
+    private Results(SelectorGroup group, int words, long[] matches, long[] errors) {
+      this.group = group;
+      this.words = words;
+      this.matches = matches;
+      this.errors = errors;
+    }
+
+    SelectorGroup getGroup() {
+      return group;
+    }
+
+    /** @return true if the selector has been evaluated without errors on the message */
+    boolean isEvaluated(int message, int index) {
+      return (errors[message * words + (index >>> 6)] & (1L << index)) == 0;
+    }
+
+    boolean matches(int message, int index) {
+      return (matches[message * words + (index >>> 6)] & (1L << index)) != 0;
+    }
+  }
+}
@@ -15,30 +15,54 @@
  */
 package com.datastax.oss.pulsar.jms.selectors;
 
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 import javax.jms.DeliveryMode;
 import javax.jms.Destination;
 import javax.jms.InvalidSelectorException;
 import javax.jms.JMSException;
+import javax.jms.MapMessage;
 import javax.jms.Message;
+import javax.jms.TextMessage;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.activemq.command.ActiveMQDestination;
-import org.apache.activemq.command.ActiveMQMessage;
+import org.apache.activemq.command.ActiveMQTextMessage;
 import org.apache.activemq.command.MessageId;
+import org.apache.activemq.filter.BinaryExpression;
 import org.apache.activemq.filter.BooleanExpression;
+import org.apache.activemq.filter.Expression;
+import org.apache.activemq.filter.LogicExpression;
 import org.apache.activemq.filter.MessageEvaluationContext;
+import org.apache.activemq.filter.PropertyExpression;
+import org.apache.activemq.filter.UnaryExpression;
+import org.apache.activemq.filter.XPathExpression;
 import org.apache.activemq.selector.SelectorParser;
 
 @AllArgsConstructor
 @Slf4j
 public final class SelectorSupport {
 
+  /**
+   * The prefix of the identifiers that reference a field of the body of a message with a schema,
+   * like body$orderType, the nested fields are separated by '$', like body$customer$country. The
+   * selectors cannot use dots in the identifiers.
+   */
+  public static final String BODY_FIELD_PREFIX = "body$";
+
   private final BooleanExpression expression;
   private final String selector;
+  // null if the selector cannot be compiled
+  private final CompiledSelector compiledSelector;
+  // the identifiers that reference the body
+  private final Set<String> bodyFields;
+  // the XPath expressions are evaluated on the text of the message
+  private final boolean xpath;
 
   public static SelectorSupport build(String selector, boolean enabled) throws JMSException {
     if (selector == null || selector.isEmpty()) {
@@ -52,10 +76,75 @@ public final class SelectorSupport {
     if (log.isDebugEnabled()) {
       log.debug("parsed {} as {}", selector, parse);
     }
-    return new SelectorSupport(parse, selector);
+    Set<String> bodyFields = new LinkedHashSet<>();
+    collectBodyFields(parse, bodyFields);
+    return new SelectorSupport(
+        parse,
+        selector,
+        SelectorCompiler.compile(parse),
+        bodyFields.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(bodyFields),
+        containsXPath(parse));
+  }
+
+  private static boolean containsXPath(Expression expression) {
+    if (expression instanceof XPathExpression) {
+      return true;
+    } else if (expression instanceof LogicExpression) {
+      for (Expression child : ((LogicExpression) expression).getExpressions()) {
+        if (containsXPath(child)) {
+          return true;
+        }
+      }
+      return false;
+    } else if (expression instanceof BinaryExpression) {
+      return containsXPath(((BinaryExpression) expression).getLeft())
+          || containsXPath(((BinaryExpression) expression).getRight());
+    } else if (expression instanceof UnaryExpression) {
+      return containsXPath(((UnaryExpression) expression).getRight());
+    }
+    return false;
+  }
+
+  private static void collectBodyFields(Expression expression, Set<String> bodyFields) {
+    if (expression instanceof PropertyExpression) {
+      String name = ((PropertyExpression) expression).getName();
+      if (name.startsWith(BODY_FIELD_PREFIX) && name.length() > BODY_FIELD_PREFIX.length()) {
+        bodyFields.add(name);
+      }
+    } else if (expression instanceof LogicExpression) {
+      for (Expression child : ((LogicExpression) expression).getExpressions()) {
+        collectBodyFields(child, bodyFields);
+      }
+    } else if (expression instanceof BinaryExpression) {
+      collectBodyFields(((BinaryExpression) expression).getLeft(), bodyFields);
+      collectBodyFields(((BinaryExpression) expression).getRight(), bodyFields);
+    } else if (expression instanceof UnaryExpression) {
+      collectBodyFields(((UnaryExpression) expression).getRight(), bodyFields);
+    }
   }
 
   public boolean matches(Function<String, Object> messagePropertiesAccessor) throws JMSException {
+    if (compiledSelector != null) {
+      return compiledSelector.matches(messagePropertiesAccessor);
+    }
+    return matchesWithExpressionTree(messagePropertiesAccessor);
+  }
+
+  /**
+   * Evaluates the selector using the ActiveMQ expression tree, this is the fallback for selectors
+   * that cannot be compiled.
+   */
+  boolean matchesWithExpressionTree(Function<String, Object> messagePropertiesAccessor)
+      throws JMSException {
+    return matchesWithExpressionTree(messagePropertiesAccessor, null);
+  }
+
+  /**
+   * @param messagePropertiesAccessor the properties and the headers of the message
+   * @param body the body of the message for the XPath expressions, null if not available
+   */
+  private boolean matchesWithExpressionTree(
+      Function<String, Object> messagePropertiesAccessor, String body) throws JMSException {
     Map<String, Object> cache = new HashMap<>();
 
     // this cache is important in order to be able to not parse Message Metadata more than once
@@ -82,8 +171,14 @@ public final class SelectorSupport {
           }
         };
 
-    ActiveMQMessage toMessage =
-        new ActiveMQMessage() {
+    // a text message, in order to expose the body to the XPath expressions
+    ActiveMQTextMessage toMessage =
+        new ActiveMQTextMessage() {
+
+          @Override
+          public String getText() {
+            return body;
+          }
 
           // this methods in ActiveMQMessage use synchronization and also do lot of useless
           // computations
@@ -263,15 +358,48 @@ public final class SelectorSupport {
               case "JMSTimestamp":
                 return fromMessage.getJMSTimestamp();
               default:
-                return properties.get(name);
+                Object value = properties.get(name);
+                if (value == null && name.startsWith(BODY_FIELD_PREFIX)) {
+                  return getBodyField(fromMessage, name);
+                }
+                return value;
             }
           } catch (JMSException err) {
             throw new RuntimeException(err);
           }
         };
+    if (xpath) {
+      // the selectors with XPath cannot be compiled
+      String text =
+          fromMessage instanceof TextMessage ? ((TextMessage) fromMessage).getText() : null;
+      return matchesWithExpressionTree(getProperty, text);
+    }
     return matches(getProperty);
   }
 
+  /**
+   * Reads a field of the body of a message with a schema, the client decodes the records into a
+   * {@link MapMessage}.
+   */
+  private static Object getBodyField(Message message, String name) throws JMSException {
+    if (!(message instanceof MapMessage)) {
+      return null;
+    }
+    String[] path = name.substring(BODY_FIELD_PREFIX.length()).split("\\$");
+    Object value = ((MapMessage) message).getObject(path[0]);
+    for (int i = 1; i < path.length; i++) {
+      if (!(value instanceof Map)) {
+        return null;
+      }
+      value = ((Map<?, ?>) value).get(path[i]);
+    }
+    if (value instanceof Map || value instanceof Iterable) {
+      // not visible to the selectors
+      return null;
+    }
+    return value;
+  }
+
   @Override
   public String toString() {
     return "Selector=" + selector + ", exp=" + expression;
@@ -280,4 +408,38 @@ public final class SelectorSupport {
   public String getSelector() {
     return selector;
   }
+
+  /**
+   * @return true if the selector contains XPath expressions, they are evaluated on the body of the
+   *     messages, that only the client can read
+   */
+  public boolean isXPath() {
+    return xpath;
+  }
+
+  boolean isCompiled() {
+    return compiledSelector != null;
+  }
+
+  BooleanExpression getExpression() {
+    return expression;
+  }
+
+  /** @return the identifiers that reference a field of the body, see {@link #BODY_FIELD_PREFIX} */
+  Set<String> getBodyFields() {
+    return bodyFields;
+  }
+
+  /**
+   * @return true if the selector references only the JMS headers, the other properties of the
+   *     messages are not needed to evaluate it
+   */
+  boolean isHeadersOnly() {
+    return compiledSelector != null && compiledSelector.isHeadersOnly();
+  }
+
+  /** @return the compiled selector, null if the selector cannot be compiled */
+  CompiledSelector getCompiledSelector() {
+    return compiledSelector;
+  }
 }
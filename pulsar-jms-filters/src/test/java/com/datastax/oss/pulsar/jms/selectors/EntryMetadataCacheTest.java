@@ -0,0 +1,180 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.datastax.oss.pulsar.jms.selectors.EntryMetadataCache.DecodedEntry;
+import com.datastax.oss.pulsar.jms.selectors.EntryMetadataCache.DecodedMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.apache.pulsar.common.api.proto.SingleMessageMetadata;
+import org.apache.pulsar.common.protocol.Commands;
+import org.junit.jupiter.api.Test;
+
+class EntryMetadataCacheTest {
+
+  @Test
+  public void testGetAndPut() {
+    EntryMetadataCache cache = new EntryMetadataCache(10, 10);
+    assertEquals(16, cache.capacity());
+    assertNull(cache.get(1, 1));
+
+    DecodedEntry entry = new DecodedEntry(1, 1, new DecodedMessage[0]);
+    cache.put(entry);
+    assertSame(entry, cache.get(1, 1));
+    assertNull(cache.get(1, 2));
+    assertNull(cache.get(2, 1));
+
+    // same slot, the older entry is replaced
+    DecodedEntry other = new DecodedEntry(1, 17, new DecodedMessage[0]);
+    cache.put(other);
+    assertSame(other, cache.get(1, 17));
+    assertNull(cache.get(1, 1));
+  }
+
+  @Test
+  public void testRescheduledEntries() {
+    EntryMetadataCache cache = new EntryMetadataCache(10, 2);
+    DecodedEntry entry = new DecodedEntry(1, 1, new DecodedMessage[0]);
+    cache.put(entry);
+    cache.putRescheduled(entry);
+    assertEquals(1, cache.rescheduledEntriesCount());
+
+    // the entry is still available after it has been replaced in the table
+    cache.put(new DecodedEntry(1, 17, new DecodedMessage[0]));
+    assertSame(entry, cache.get(1, 1));
+    assertEquals(0, cache.rescheduledEntriesCount());
+    // back into the table
+    assertSame(entry, cache.get(1, 1));
+
+    cache.putRescheduled(new DecodedEntry(1, 2, new DecodedMessage[0]));
+    cache.putRescheduled(new DecodedEntry(1, 3, new DecodedMessage[0]));
+    // no more room
+    cache.putRescheduled(new DecodedEntry(1, 4, new DecodedMessage[0]));
+    assertEquals(2, cache.rescheduledEntriesCount());
+    assertNull(cache.get(1, 4));
+  }
+
+  @Test
+  public void testDecodedMessage() {
+    SingleMessageMetadata metadata = new SingleMessageMetadata();
+    metadata.addProperty().setKey("foo").setValue("10");
+    metadata.addProperty().setKey("foo_jsmtype").setValue("int");
+    metadata.setEventTime(1234);
+    metadata.setPartitionKey("group");
+
+    DecodedMessage message =
+        new DecodedMessage(new MessagePropertyIndex(metadata.getPropertiesCount()));
+    message.fill(metadata);
+    assertTrue(message.getProperties().decodeAll());
+    assertEquals(10, message.getProperties().getObject("foo"));
+    assertTrue(message.hasEventTime());
+    assertEquals(1234, message.getEventTime());
+    assertEquals("group", message.getPartitionKey());
+    assertFalse(message.hasSequenceId());
+  }
+
+  @Test
+  public void testCorrelationId() {
+    SingleMessageMetadata metadata = new SingleMessageMetadata();
+    metadata.addProperty().setKey("foo").setValue("bar");
+    metadata
+        .addProperty()
+        .setKey("JMSCorrelationID")
+        .setValue(Base64.getEncoder().encodeToString("my-id".getBytes(StandardCharsets.UTF_8)));
+    metadata.setEventTime(1234);
+
+    DecodedMessage message = new DecodedMessage(new MessagePropertyIndex());
+    message.fillHeaders(metadata);
+    assertEquals("my-id", message.getCorrelationId());
+    // decoded only once
+    assertSame(message.getCorrelationId(), message.getCorrelationId());
+    assertEquals(1234, message.getEventTime());
+    assertNull(message.getProperties().getObject("foo"));
+
+    // reused for another message
+    message.fill(new SingleMessageMetadata());
+    assertNull(message.getCorrelationId());
+    assertFalse(message.hasEventTime());
+  }
+
+  @Test
+  public void testDecodeAllWithBadValue() {
+    SingleMessageMetadata metadata = new SingleMessageMetadata();
+    metadata.addProperty().setKey("foo").setValue("not-a-number");
+    metadata.addProperty().setKey("foo_jsmtype").setValue("int");
+
+    metadata.addProperty().setKey("bar").setValue("10");
+    metadata.addProperty().setKey("bar_jsmtype").setValue("int");
+
+    MessagePropertyIndex properties = new MessagePropertyIndex(metadata.getPropertiesCount());
+    properties.fill(metadata);
+    assertFalse(properties.decodeAll());
+    // the other values are converted anyway
+    assertEquals(10, properties.getObject("bar"));
+    assertThrows(NumberFormatException.class, () -> properties.getObject("foo"));
+  }
+
+  @Test
+  public void testDecodeBatchOnDemand() throws Exception {
+    int numMessages = 3;
+    ByteBuf batch = Unpooled.buffer();
+    for (int i = 0; i < numMessages; i++) {
+      ByteBuf payload = Unpooled.wrappedBuffer(("payload-" + i).getBytes(StandardCharsets.UTF_8));
+      SingleMessageMetadata metadata = new SingleMessageMetadata();
+      metadata.addProperty().setKey("index").setValue(Integer.toString(i));
+      metadata.addProperty().setKey("index_jsmtype").setValue("int");
+      metadata.setPayloadSize(payload.readableBytes());
+      Commands.serializeSingleMessageInBatchWithPayload(metadata, payload, batch);
+    }
+    int payloadStart = batch.readerIndex();
+
+    DecodedEntry entry = new DecodedEntry(1, 1, numMessages);
+    assertEquals(numMessages, entry.getNumMessages());
+    assertEquals(0, entry.getNumDecoded());
+    assertNull(entry.getMessage(0));
+
+    // the scan stops at the first message, the other messages are not decoded
+    entry.decodeUpTo(0, batch, payloadStart);
+    assertEquals(1, entry.getNumDecoded());
+    assertEquals(0, entry.getMessage(0).getProperties().getObject("index"));
+    assertNull(entry.getMessage(1));
+    assertNull(entry.getMessage(2));
+
+    // another subscription goes on from the next message, with its own copy of the payload
+    ByteBuf copy = batch.copy(0, batch.writerIndex());
+    entry.decodeUpTo(2, copy, payloadStart);
+    assertEquals(numMessages, entry.getNumDecoded());
+    for (int i = 0; i < numMessages; i++) {
+      assertEquals(i, entry.getMessage(i).getProperties().getObject("index"));
+    }
+
+    // already decoded
+    DecodedMessage first = entry.getMessage(0);
+    entry.decodeUpTo(1, batch, payloadStart);
+    assertSame(first, entry.getMessage(0));
+    batch.release();
+    copy.release();
+  }
+}
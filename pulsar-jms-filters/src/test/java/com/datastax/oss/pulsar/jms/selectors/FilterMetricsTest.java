@@ -0,0 +1,168 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import java.util.Properties;
+import javax.jms.JMSException;
+import org.apache.pulsar.broker.service.plugin.EntryFilter.FilterResult;
+import org.junit.jupiter.api.Test;
+
+class FilterMetricsTest {
+
+  private static final String TOPIC = "persistent://public/default/metrics";
+
+  @Test
+  public void testSubscriptionMetrics() {
+    FilterMetrics.SubscriptionMetrics metrics = new FilterMetrics.SubscriptionMetrics(TOPIC, "sub");
+    long start = System.nanoTime();
+    metrics.recordResult(FilterResult.ACCEPT, start);
+    metrics.recordResult(FilterResult.ACCEPT, start);
+    metrics.recordResult(FilterResult.REJECT, start);
+    metrics.recordResult(FilterResult.RESCHEDULE, start);
+    metrics.recordBatchMessagesScanned(10);
+    metrics.recordBatchMessagesScanned(3);
+    metrics.recordDecompressedBytes(1024);
+
+    assertEquals(2, FilterMetrics.ENTRIES.labels(TOPIC, "sub", "accept").get(), 0);
+    assertEquals(1, FilterMetrics.ENTRIES.labels(TOPIC, "sub", "reject").get(), 0);
+    assertEquals(1, FilterMetrics.ENTRIES.labels(TOPIC, "sub", "reschedule").get(), 0);
+    assertEquals(4, FilterMetrics.PROCESSING_TIME.labels(TOPIC, "sub").get().buckets[9], 0);
+    assertEquals(13, FilterMetrics.BATCH_MESSAGES_SCANNED.labels(TOPIC, "sub").get().sum, 0);
+    assertEquals(1024, FilterMetrics.DECOMPRESSED_BYTES.labels(TOPIC, "sub").get(), 0);
+
+    // another consumer of the same subscription
+    new FilterMetrics.SubscriptionMetrics(TOPIC, "sub").recordResult(FilterResult.ACCEPT, start);
+    assertEquals(3, FilterMetrics.ENTRIES.labels(TOPIC, "sub", "accept").get(), 0);
+  }
+
+  @Test
+  public void testRegister() {
+    FilterMetrics.register();
+    // only the first call registers the metrics
+    FilterMetrics.register();
+    new FilterMetrics.SubscriptionMetrics(TOPIC, "registered")
+        .recordResult(FilterResult.REJECT, System.nanoTime());
+    assertNotNull(
+        CollectorRegistry.defaultRegistry.getSampleValue(
+            "pulsar_jmsfilter_entries_total",
+            new String[] {"topic", "subscription", "result"},
+            new String[] {TOPIC, "registered", "reject"}));
+  }
+
+  @Test
+  public void testRelease() {
+    FilterMetrics.SubscriptionMetrics metrics = FilterMetrics.acquire(TOPIC, "released");
+    // another consumer of the same subscription
+    assertSame(metrics, FilterMetrics.acquire(TOPIC, "released"));
+    metrics.recordResult(FilterResult.ACCEPT, System.nanoTime());
+    assertTrue(hasSeries("released"));
+
+    FilterMetrics.release(metrics);
+    assertTrue(hasSeries("released"));
+
+    // the last consumer went away
+    FilterMetrics.release(metrics);
+    assertFalse(hasSeries("released"));
+    assertNotSame(metrics, FilterMetrics.acquire(TOPIC, "released"));
+  }
+
+  private static boolean hasSeries(String subscription) {
+    for (Collector.MetricFamilySamples family : FilterMetrics.ENTRIES.collect()) {
+      for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+        if (sample.labelValues.contains(subscription)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  @Test
+  public void testSelectorCache() {
+    double hits = getSelectorCacheSample("pulsar_jmsfilter_selector_cache_requests", "hit");
+    double misses = getSelectorCacheSample("pulsar_jmsfilter_selector_cache_requests", "miss");
+    double evictions = getSelectorCacheSample("pulsar_jmsfilter_selector_cache_evictions", null);
+    SelectorCache cache = new SelectorCache(1);
+    FilterMetrics.registerSelectorCache(cache);
+    try {
+      cache.computeIfAbsent("a = 1", FilterMetricsTest::build);
+      cache.computeIfAbsent("a  =  1", FilterMetricsTest::build);
+      cache.computeIfAbsent("b = 1", FilterMetricsTest::build);
+
+      assertEquals(
+          hits + 1, getSelectorCacheSample("pulsar_jmsfilter_selector_cache_requests", "hit"), 0);
+      assertEquals(
+          misses + 2,
+          getSelectorCacheSample("pulsar_jmsfilter_selector_cache_requests", "miss"),
+          0);
+      assertEquals(
+          evictions + 1,
+          getSelectorCacheSample("pulsar_jmsfilter_selector_cache_evictions", null),
+          0);
+      assertEquals(1, getSelectorCacheSample("pulsar_jmsfilter_selector_cache_size", null), 0);
+    } finally {
+      FilterMetrics.unregisterSelectorCache(cache);
+    }
+    assertEquals(0, getSelectorCacheSample("pulsar_jmsfilter_selector_cache_size", null), 0);
+    // the counters of the closed cache are still in the totals
+    assertEquals(
+        hits + 1, getSelectorCacheSample("pulsar_jmsfilter_selector_cache_requests", "hit"), 0);
+    assertEquals(
+        misses + 2, getSelectorCacheSample("pulsar_jmsfilter_selector_cache_requests", "miss"), 0);
+    assertEquals(
+        evictions + 1,
+        getSelectorCacheSample("pulsar_jmsfilter_selector_cache_evictions", null),
+        0);
+  }
+
+  private static SelectorSupport build(String selector) {
+    try {
+      return SelectorSupport.build(selector, true);
+    } catch (JMSException err) {
+      return null;
+    }
+  }
+
+  private static double getSelectorCacheSample(String family, String result) {
+    for (Collector.MetricFamilySamples samples : FilterMetrics.SELECTOR_CACHE.collect()) {
+      if (samples.name.equals(family)) {
+        for (Collector.MetricFamilySamples.Sample sample : samples.samples) {
+          if (result == null || sample.labelValues.contains(result)) {
+            return sample.value;
+          }
+        }
+      }
+    }
+    throw new IllegalArgumentException(family);
+  }
+
+  @Test
+  public void testConfiguration() {
+    Properties properties = new Properties();
+    assertFalse(new FilterConfiguration(properties, false).isMetricsEnabled());
+    properties.put(FilterConfiguration.METRICS_ENABLED, "true");
+    assertTrue(new FilterConfiguration(properties, false).isMetricsEnabled());
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.broker.service.plugin.EntryFilter.FilterResult;
+import org.junit.jupiter.api.Test;
+
+class FilterPlanTest {
+
+  private static final String TOPIC = "persistent://public/default/test";
+
+  @Test
+  public void testConsumerMetadata() {
+    SelectorCache selectors = new SelectorCache(10);
+    Map<String, String> metadata = new HashMap<>();
+    metadata.put("jms.filtering", "true");
+    metadata.put("jms.selector", "a = 1");
+    metadata.put("jms.destination.type", "queue");
+    metadata.put("jms.filter.JMSConnectionID", "conn");
+    metadata.put("jms.filter.batch.index", "true");
+    Object consumer = new Object();
+    FilterPlan plan = new FilterPlan(consumer, null, TOPIC, metadata, selectors, true, 10, null);
+    assertTrue(plan.isJmsFiltering());
+    assertFalse(plan.isSelectorError());
+    assertNotNull(plan.getSelector());
+    assertNull(plan.getSelectorOnSubscription());
+    assertEquals("queue", plan.getDestinationTypeForTheClient());
+    assertEquals("conn", plan.getFilterJMSConnectionID());
+    assertEquals(TOPIC, plan.getTopicName());
+    assertTrue(plan.isBatchIndexFiltering());
+    assertFalse(plan.isForceDropRejected());
+    assertEquals(FilterResult.RESCHEDULE, plan.getRejectResultForSelector());
+    assertNotNull(plan.getParkedEntries());
+    assertTrue(plan.getBodyFields().isEmpty());
+    assertFalse(plan.isHeadersOnly());
+
+    // batch index filtering needs the support of the broker
+    assertFalse(
+        new FilterPlan(consumer, null, TOPIC, metadata, selectors, false, 10, null)
+            .isBatchIndexFiltering());
+
+    // the properties of the messages are not needed
+    metadata.put("jms.selector", "JMSType = 'order' and JMSPriority > 4");
+    assertTrue(
+        new FilterPlan(consumer, null, TOPIC, metadata, selectors, true, 10, null).isHeadersOnly());
+
+    // the broker decodes the referenced fields of the body
+    metadata.put("jms.selector", "body$type = 'X' and body$customer$country = 'IT'");
+    assertEquals(
+        new TreeSet<>(Arrays.asList("body$customer$country", "body$type")),
+        new FilterPlan(consumer, null, TOPIC, metadata, selectors, true, 10, null).getBodyFields());
+
+    // parking disabled
+    assertNull(
+        new FilterPlan(consumer, null, TOPIC, metadata, selectors, true, 0, null)
+            .getParkedEntries());
+
+    metadata.put("jms.selector.reject.action", "drop");
+    FilterPlan drop = new FilterPlan(consumer, null, TOPIC, metadata, selectors, true, 10, null);
+    assertEquals(FilterResult.REJECT, drop.getRejectResultForSelector());
+    // the rejected entries are not dispatched again
+    assertNull(drop.getParkedEntries());
+  }
+
+  @Test
+  public void testSubscriptionProperties() {
+    SelectorCache selectors = new SelectorCache(10);
+    Map<String, String> properties = new HashMap<>();
+    properties.put("jms.filtering", "true");
+    properties.put("jms.selector", "b = 2");
+    FilterPlan plan =
+        new FilterPlan(
+            new Object(), properties, TOPIC, Collections.emptyMap(), selectors, true, 10, null);
+    assertTrue(plan.isJmsFiltering());
+    assertNull(plan.getSelector());
+    assertNotNull(plan.getSelectorOnSubscription());
+    assertFalse(plan.isBatchIndexFiltering());
+
+    FilterPlan notFiltering =
+        new FilterPlan(
+            new Object(),
+            Collections.emptyMap(),
+            TOPIC,
+            Collections.emptyMap(),
+            selectors,
+            true,
+            10,
+            null);
+    assertFalse(notFiltering.isJmsFiltering());
+    assertNull(notFiltering.getSelectorOnSubscription());
+
+    properties.put("jms.selector", "b = ");
+    FilterPlan error =
+        new FilterPlan(
+            new Object(), properties, TOPIC, Collections.emptyMap(), selectors, true, 10, null);
+    assertTrue(error.isSelectorError());
+  }
+
+  @Test
+  public void testXPathSelectorsAreEvaluatedByTheClient() {
+    SelectorCache selectors = new SelectorCache(10);
+    Map<String, String> metadata = new HashMap<>();
+    metadata.put("jms.filtering", "true");
+    metadata.put("jms.selector", "XPATH '/order[@type=''book'']'");
+    metadata.put("jms.selector.reject.action", "drop");
+    Map<String, String> properties = new HashMap<>();
+    properties.put("jms.selector", "XPATH '//item' AND a = 1");
+    FilterPlan plan =
+        new FilterPlan(new Object(), properties, TOPIC, metadata, selectors, true, 10, null);
+    // the broker does not evaluate the selectors, so it accepts the entries
+    assertTrue(plan.isJmsFiltering());
+    assertFalse(plan.isSelectorError());
+    assertNull(plan.getSelector());
+    assertNull(plan.getSelectorOnSubscription());
+    assertTrue(plan.isHeadersOnly());
+  }
+
+  @Test
+  public void testCache() {
+    SelectorCache selectors = new SelectorCache(10);
+    FilterPlanCache cache = new FilterPlanCache();
+    Map<String, String> metadata = Collections.singletonMap("jms.filtering", "true");
+    Map<String, String> properties = Collections.singletonMap("jms.selector", "b = 2");
+    Object consumer1 = new Object();
+    Object consumer2 = new Object();
+    assertNull(cache.get(consumer1, properties));
+
+    FilterPlan plan1 =
+        new FilterPlan(consumer1, properties, TOPIC, metadata, selectors, true, 10, null);
+    FilterPlan plan2 =
+        new FilterPlan(consumer2, properties, TOPIC, metadata, selectors, true, 10, null);
+    cache.put(plan1);
+    cache.put(plan2);
+    assertEquals(2, cache.size());
+    assertSame(plan1, cache.get(consumer1, properties));
+    assertSame(plan2, cache.get(consumer2, properties));
+    assertSame(plan1, cache.get(consumer1, properties));
+
+    // the properties of the subscription have been updated
+    Map<String, String> newProperties = new HashMap<>(properties);
+    assertNull(cache.get(consumer1, newProperties));
+    FilterPlan newPlan1 =
+        new FilterPlan(consumer1, newProperties, TOPIC, metadata, selectors, true, 10, null);
+    cache.put(newPlan1);
+    assertSame(newPlan1, cache.get(consumer1, newProperties));
+    assertEquals(2, cache.size());
+
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertNull(cache.get(consumer1, newProperties));
+    assertTrue(plan1.isClosed());
+    assertTrue(newPlan1.isClosed());
+  }
+
+  @Test
+  public void testCacheEvictsOnGet() throws Exception {
+    SelectorCache selectors = new SelectorCache(10);
+    FilterPlanCache cache = new FilterPlanCache(TimeUnit.MILLISECONDS.toNanos(50), 0);
+    Map<String, String> metadata = Collections.singletonMap("jms.filtering", "true");
+    Object consumer1 = new Object();
+    Object consumer2 = new Object();
+    FilterPlan plan1 = new FilterPlan(consumer1, null, TOPIC, metadata, selectors, true, 10, null);
+    FilterPlan plan2 = new FilterPlan(consumer2, null, TOPIC, metadata, selectors, true, 10, null);
+    cache.put(plan1);
+    cache.put(plan2);
+    assertSame(plan2, cache.get(consumer2, null));
+
+    // no other plan is built, the lookups drop the idle plans
+    Thread.sleep(100);
+    assertNull(cache.get(consumer1, null));
+    assertEquals(0, cache.size());
+    assertTrue(plan1.isClosed());
+    assertTrue(plan2.isClosed());
+    // the plan remembered by the thread is not used any more
+    assertNull(cache.get(consumer2, null));
+  }
+}
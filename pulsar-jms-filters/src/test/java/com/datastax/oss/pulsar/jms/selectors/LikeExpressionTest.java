@@ -0,0 +1,92 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.apache.activemq.filter.ComparisonExpression;
+import org.junit.jupiter.api.Test;
+
+class LikeExpressionTest {
+
+  private static final String[] PATTERNS = {
+    "", "abc", "abc%", "%abc", "%abc%", "%", "%%", "a%c", "a%b%c", "%a%b%", "ab%ab", "a_c", "_",
+    "%_", "_%_", "a%_c", "%a_c%", "a.c", "a*c%", "[a]%", "!%%", "%!_%", "a!!b", "a!b", "a!",
+        "\uD83D\uDE00%",
+  };
+
+  private static final String[] VALUES = {
+    "",
+    "a",
+    "abc",
+    "abcabc",
+    "xabc",
+    "abcx",
+    "xabcx",
+    "ac",
+    "axc",
+    "axbxc",
+    "abab",
+    "ababab",
+    "aab",
+    "a.c",
+    "a*cd",
+    "[a]x",
+    "%x",
+    "x_y",
+    "a!b",
+    "a!!b",
+    "ab",
+    "a!",
+    "a\nc",
+    "a\uD83D\uDE00c",
+    "\uD83D\uDE00x",
+  };
+
+  @Test
+  public void testSameResultsAsRegularExpression() {
+    for (String pattern : PATTERNS) {
+      ComparisonExpression.LikeExpression like =
+          new ComparisonExpression.LikeExpression(null, pattern, '!');
+      Pattern regexp = Pattern.compile(like.getRegexp(), Pattern.DOTALL);
+      for (String value : VALUES) {
+        assertEquals(
+            regexp.matcher(value).matches(),
+            like.matches(value),
+            "'" + value + "' LIKE '" + pattern + "'");
+      }
+    }
+  }
+
+  @Test
+  public void testSelectors() throws Exception {
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("name", "product-1234-eu");
+    assertTrue(SelectorSupport.build("name LIKE 'product-%'", true).matches(properties::get));
+    assertTrue(SelectorSupport.build("name LIKE '%-eu'", true).matches(properties::get));
+    assertTrue(SelectorSupport.build("name LIKE '%1234%'", true).matches(properties::get));
+    assertTrue(SelectorSupport.build("name LIKE 'product-____-__'", true).matches(properties::get));
+    assertFalse(SelectorSupport.build("name LIKE 'product-___-__'", true).matches(properties::get));
+    assertFalse(SelectorSupport.build("name NOT LIKE '%-eu'", true).matches(properties::get));
+    assertFalse(
+        SelectorSupport.build("name LIKE 'product!_%' ESCAPE '!'", true).matches(properties::get));
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.pulsar.common.schema.SchemaType;
+import org.junit.jupiter.api.Test;
+
+class MessageBodyDecoderTest {
+
+  private static final String SCHEMA =
+      "{\"type\":\"record\",\"name\":\"Order\",\"fields\":["
+          + "{\"name\":\"orderType\",\"type\":\"string\"},"
+          + "{\"name\":\"amount\",\"type\":\"int\"},"
+          + "{\"name\":\"notes\",\"type\":{\"type\":\"array\",\"items\":\"string\"}},"
+          + "{\"name\":\"status\",\"type\":{\"type\":\"enum\",\"name\":\"Status\","
+          + "\"symbols\":[\"NEW\",\"PAID\"]}},"
+          + "{\"name\":\"customer\",\"type\":{\"type\":\"record\",\"name\":\"Customer\","
+          + "\"fields\":[{\"name\":\"country\",\"type\":[\"null\",\"string\"]}]}}"
+          + "]}";
+
+  private static final List<String> FIELDS =
+      Arrays.asList(
+          "body$orderType",
+          "body$amount",
+          "body$status",
+          "body$customer$country",
+          "body$customer",
+          "body$missing",
+          "body$notes");
+
+  @Test
+  public void testAvro() throws Exception {
+    Schema schema = new Schema.Parser().parse(SCHEMA);
+    GenericRecord customer = new GenericData.Record(schema.getField("customer").schema());
+    customer.put("country", "IT");
+    GenericRecord order = new GenericData.Record(schema);
+    order.put("orderType", "X");
+    order.put("amount", 10);
+    order.put("notes", Arrays.asList("a", "b"));
+    order.put("status", new GenericData.EnumSymbol(schema.getField("status").schema(), "PAID"));
+    order.put("customer", customer);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+    new GenericDatumWriter<GenericRecord>(schema).write(order, encoder);
+    encoder.flush();
+
+    MessageBodyDecoder decoder =
+        MessageBodyDecoder.create(SchemaType.AVRO, SCHEMA.getBytes(StandardCharsets.UTF_8), FIELDS);
+    ByteBuf payload = Unpooled.wrappedBuffer(out.toByteArray());
+    Map<String, Object> fields = decoder.decode(payload);
+    assertEquals("X", fields.get("body$orderType"));
+    assertEquals(10, fields.get("body$amount"));
+    assertEquals("PAID", fields.get("body$status"));
+    assertEquals("IT", fields.get("body$customer$country"));
+    // records and arrays are not visible to the selectors
+    assertFalse(fields.containsKey("body$customer"));
+    assertFalse(fields.containsKey("body$notes"));
+    assertFalse(fields.containsKey("body$missing"));
+    // the payload is not consumed
+    assertEquals(out.size(), payload.readableBytes());
+
+    // a direct buffer
+    ByteBuf direct = Unpooled.directBuffer();
+    direct.writeBytes(out.toByteArray());
+    assertEquals(fields, decoder.decode(direct));
+    direct.release();
+  }
+
+  @Test
+  public void testJson() throws Exception {
+    String json =
+        "{\"notes\":[\"a\",{\"orderType\":\"Y\"}],\"orderType\":\"X\",\"amount\":10,"
+            + "\"big\":12345678901,\"price\":1.5,\"paid\":true,"
+            + "\"customer\":{\"country\":\"IT\",\"address\":{\"city\":\"Rome\"}}}";
+    MessageBodyDecoder decoder =
+        MessageBodyDecoder.create(
+            SchemaType.JSON,
+            SCHEMA.getBytes(StandardCharsets.UTF_8),
+            Arrays.asList(
+                "body$orderType",
+                "body$amount",
+                "body$big",
+                "body$price",
+                "body$paid",
+                "body$customer$country",
+                "body$customer$address$city",
+                "body$customer",
+                "body$notes",
+                "body$missing"));
+    Map<String, Object> fields =
+        decoder.decode(Unpooled.wrappedBuffer(json.getBytes(StandardCharsets.UTF_8)));
+    assertEquals("X", fields.get("body$orderType"));
+    assertEquals(10, fields.get("body$amount"));
+    assertEquals(12345678901L, fields.get("body$big"));
+    assertEquals(1.5, fields.get("body$price"));
+    assertEquals(true, fields.get("body$paid"));
+    assertEquals("IT", fields.get("body$customer$country"));
+    assertEquals("Rome", fields.get("body$customer$address$city"));
+    assertEquals(7, fields.size());
+
+    // not an object
+    assertEquals(
+        0, decoder.decode(Unpooled.wrappedBuffer("[1]".getBytes(StandardCharsets.UTF_8))).size());
+  }
+
+  @Test
+  public void testUnsupportedSchemas() {
+    assertNull(
+        MessageBodyDecoder.create(
+            SchemaType.AVRO, "\"string\"".getBytes(StandardCharsets.UTF_8), FIELDS));
+    assertNull(MessageBodyDecoder.create(SchemaType.STRING, new byte[0], FIELDS));
+    assertNull(MessageBodyDecoder.create(SchemaType.KEY_VALUE, new byte[0], FIELDS));
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.apache.pulsar.common.api.proto.SingleMessageMetadata;
+import org.junit.jupiter.api.Test;
+
+class MessagePropertyIndexTest {
+
+  @Test
+  public void testTypedProperties() {
+    MessageMetadata metadata = new MessageMetadata();
+    metadata.addProperty().setKey("foo").setValue("bar");
+    metadata.addProperty().setKey("count_jsmtype").setValue("int");
+    metadata.addProperty().setKey("count").setValue("10");
+    metadata.addProperty().setKey("amount").setValue("1.5");
+    metadata.addProperty().setKey("amount_jsmtype").setValue("double");
+    metadata.addProperty().setKey("flag").setValue("true");
+    metadata.addProperty().setKey("flag_jsmtype").setValue("boolean");
+    metadata.addProperty().setKey("onlyType_jsmtype").setValue("long");
+
+    MessagePropertyIndex index = new MessagePropertyIndex();
+    index.fill(metadata);
+    assertEquals("bar", index.getObject("foo"));
+    assertEquals(10, index.getObject("count"));
+    assertEquals("10", index.getValue("count"));
+    assertEquals(1.5d, index.getObject("amount"));
+    assertEquals(true, index.getObject("flag"));
+    assertNull(index.getObject("onlyType"));
+    assertNull(index.getObject("missing"));
+    assertNull(index.getObject("count_jsmtype"));
+  }
+
+  @Test
+  public void testFillHeaders() {
+    MessageMetadata metadata = new MessageMetadata();
+    metadata.addProperty().setKey("foo").setValue("bar");
+    metadata.addProperty().setKey("JMSType").setValue("my-type");
+    metadata.addProperty().setKey("JMSPriority").setValue("7");
+    metadata.addProperty().setKey("JMSPriority_jsmtype").setValue("int");
+
+    MessagePropertyIndex index = new MessagePropertyIndex();
+    index.fill(metadata);
+    index.fillHeaders(metadata);
+    assertEquals("my-type", index.getObject("JMSType"));
+    assertEquals(7, index.getObject("JMSPriority"));
+    // the other properties are not indexed
+    assertNull(index.getObject("foo"));
+  }
+
+  @Test
+  public void testReuse() {
+    MessagePropertyIndex index = new MessagePropertyIndex();
+    for (int round = 0; round < 3; round++) {
+      // grow the table beyond the initial capacity
+      SingleMessageMetadata metadata = new SingleMessageMetadata();
+      int count = 10 + round * 20;
+      for (int i = 0; i < count; i++) {
+        metadata.addProperty().setKey("p" + round + "_" + i).setValue(i + "");
+        metadata.addProperty().setKey("p" + round + "_" + i + "_jsmtype").setValue("int");
+      }
+      index.fill(metadata);
+      for (int i = 0; i < count; i++) {
+        assertEquals(i, index.getObject("p" + round + "_" + i));
+      }
+      if (round > 0) {
+        assertNull(index.getObject("p" + (round - 1) + "_0"));
+      }
+    }
+    index.fill(new MessageMetadata());
+    assertNull(index.getObject("p2_0"));
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+
+class ParallelEvaluatorTest {
+
+  @Test
+  public void testSameResultsAsSerialEvaluation() throws Exception {
+    SelectorSupport selector = SelectorSupport.build("region = 'EU' and amount > 10", true);
+    SelectorSupport other = SelectorSupport.build("amount between 20 and 60", true);
+    int numMessages = 100;
+    Map<String, Object>[] messages = newMessages(numMessages);
+
+    ParallelEvaluator evaluator = new ParallelEvaluator(4, 32);
+    try {
+      assertFalse(evaluator.isParallel(31));
+      assertTrue(evaluator.isParallel(32));
+      byte[][] results = evaluator.evaluate(numMessages, i -> messages[i]::get, selector, other);
+      assertEquals(2, results.length);
+      for (int i = 0; i < numMessages; i++) {
+        assertEquals(expected(selector, messages[i]), results[0][i], "message " + i);
+        assertEquals(expected(other, messages[i]), results[1][i], "message " + i);
+      }
+
+      // the null selectors are not evaluated
+      results = evaluator.evaluate(numMessages, i -> messages[i]::get, null, other);
+      assertNull(results[0]);
+      assertEquals(expected(other, messages[7]), results[1][7]);
+    } finally {
+      evaluator.close();
+    }
+  }
+
+  @Test
+  public void testErrors() throws Exception {
+    SelectorSupport selector = SelectorSupport.build("region = 'EU'", true);
+    int numMessages = 50;
+    Map<String, Object>[] messages = newMessages(numMessages);
+    Function<String, Object> failing =
+        name -> {
+          throw new IllegalStateException("cannot read " + name);
+        };
+
+    ParallelEvaluator evaluator = new ParallelEvaluator(2, 1);
+    try {
+      byte[][] results =
+          evaluator.evaluate(numMessages, i -> i == 10 ? failing : messages[i]::get, selector);
+      // the filter evaluates the message again, and handles the error
+      assertEquals(ParallelEvaluator.NOT_EVALUATED, results[0][10]);
+      assertEquals(expected(selector, messages[9]), results[0][9]);
+      assertEquals(expected(selector, messages[11]), results[0][11]);
+    } finally {
+      evaluator.close();
+    }
+  }
+
+  @Test
+  public void testConfiguration() {
+    Properties properties = new Properties();
+    FilterConfiguration configuration = new FilterConfiguration(properties, false);
+    assertEquals(0, configuration.getParallelEvaluationThreads());
+    assertEquals(64, configuration.getParallelEvaluationMinMessages());
+    properties.put(FilterConfiguration.PARALLEL_EVALUATION_THREADS, "4");
+    properties.put(FilterConfiguration.PARALLEL_EVALUATION_MIN_MESSAGES, "100");
+    configuration = new FilterConfiguration(properties, false);
+    assertEquals(4, configuration.getParallelEvaluationThreads());
+    assertEquals(100, configuration.getParallelEvaluationMinMessages());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object>[] newMessages(int numMessages) {
+    Map<String, Object>[] messages = new Map[numMessages];
+    for (int i = 0; i < numMessages; i++) {
+      messages[i] = new HashMap<>();
+      messages[i].put("region", i % 3 == 0 ? "US" : "EU");
+      messages[i].put("amount", i);
+    }
+    return messages;
+  }
+
+  private static byte expected(SelectorSupport selector, Map<String, Object> message)
+      throws Exception {
+    return selector.matches(message::get)
+        ? ParallelEvaluator.MATCHES
+        : ParallelEvaluator.DOES_NOT_MATCH;
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ParkedEntriesTest {
+
+  @Test
+  public void testParkedEntries() {
+    ParkedEntries parked = new ParkedEntries(3);
+    long now = System.currentTimeMillis();
+    assertFalse(parked.isParked(1, 1, now));
+
+    parked.park(1, 1, 0);
+    parked.park(1, 2, now + 1000);
+    assertTrue(parked.isParked(1, 1, now));
+    assertTrue(parked.isParked(1, 2, now));
+    assertFalse(parked.isParked(2, 1, now));
+    // never expires
+    assertTrue(parked.isParked(1, 1, now + 1_000_000));
+
+    // the messages may be expired, the entry must be evaluated again
+    assertFalse(parked.isParked(1, 2, now + 2000));
+    assertEquals(1, parked.size());
+
+    parked.park(1, 3, 0);
+    parked.park(1, 4, 0);
+    assertEquals(3, parked.size());
+    // no room, the entries are not idle yet
+    parked.park(1, 5, 0);
+    assertEquals(3, parked.size());
+    assertFalse(parked.isParked(1, 5, now));
+  }
+}
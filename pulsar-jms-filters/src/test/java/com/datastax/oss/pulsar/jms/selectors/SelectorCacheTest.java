@@ -0,0 +1,129 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import javax.jms.JMSException;
+import org.junit.jupiter.api.Test;
+
+class SelectorCacheTest {
+
+  private static SelectorSupport build(String selector) {
+    try {
+      return SelectorSupport.build(selector, true);
+    } catch (JMSException err) {
+      return null;
+    }
+  }
+
+  @Test
+  public void testHitsAndMisses() {
+    SelectorCache cache = new SelectorCache(10);
+    SelectorSupport first = cache.computeIfAbsent("a = 1", SelectorCacheTest::build);
+    assertNotNull(first);
+    assertSame(first, cache.computeIfAbsent("a = 1", SelectorCacheTest::build));
+    assertSame(first, cache.computeIfAbsent("  a   =  1 ", SelectorCacheTest::build));
+    assertEquals(1, cache.getMisses());
+    assertEquals(2, cache.getHits());
+    assertEquals(1, cache.size());
+
+    // the empty selector and the errors are not cached
+    assertNull(cache.computeIfAbsent("", SelectorCacheTest::build));
+    assertNull(cache.computeIfAbsent("a = ", SelectorCacheTest::build));
+    assertNull(cache.computeIfAbsent("a = ", SelectorCacheTest::build));
+    assertEquals(1, cache.size());
+    assertEquals(3, cache.getMisses());
+  }
+
+  @Test
+  public void testNormalize() {
+    assertEquals("a = 1", SelectorCache.normalize("a = 1"));
+    assertEquals("a = 1", SelectorCache.normalize(" a \t=\n 1  "));
+    assertEquals("a = 'x  y'", SelectorCache.normalize("a  =  'x  y'"));
+    assertEquals("a = 'it''s  x' and b = 2", SelectorCache.normalize("a = 'it''s  x'  and b = 2"));
+  }
+
+  @Test
+  public void testSameExpressionIsShared() {
+    SelectorCache cache = new SelectorCache(10);
+    SelectorSupport first = cache.computeIfAbsent("a=1 and b>2", SelectorCacheTest::build);
+    SelectorSupport second = cache.computeIfAbsent("(a = 1) AND (b > 2)", SelectorCacheTest::build);
+    assertSame(first, second);
+    assertEquals(2, cache.size());
+
+    SelectorSupport other = cache.computeIfAbsent("a = 1 and b > 3", SelectorCacheTest::build);
+    assertNotSame(first, other);
+
+    // the string conversion changes the semantics of the comparison
+    SelectorSupport plain = cache.computeIfAbsent("a > 5", SelectorCacheTest::build);
+    SelectorSupport converted =
+        cache.computeIfAbsent("convert_string_expressions:a > 5", SelectorCacheTest::build);
+    assertNotSame(plain, converted);
+  }
+
+  @Test
+  public void testEviction() {
+    SelectorCache cache = new SelectorCache(10);
+    for (int i = 0; i < 100; i++) {
+      assertNotNull(cache.computeIfAbsent("a = " + i, SelectorCacheTest::build));
+      assertTrue(cache.size() <= 10);
+    }
+    assertEquals(100, cache.getMisses());
+    assertEquals(100 - cache.size(), cache.getEvictions());
+
+    // the most recent selector is still there
+    cache.computeIfAbsent("a = 99", SelectorCacheTest::build);
+    assertEquals(1, cache.getHits());
+
+    cache.setMaxSize(2);
+    cache.computeIfAbsent("a = 100", SelectorCacheTest::build);
+    assertTrue(cache.size() <= 2);
+
+    cache.clear();
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedIsEvicted() {
+    SelectorCache cache = new SelectorCache(3);
+    SelectorSupport first = cache.computeIfAbsent("a = 1", SelectorCacheTest::build);
+    SelectorSupport second = cache.computeIfAbsent("a = 2", SelectorCacheTest::build);
+    cache.computeIfAbsent("a = 3", SelectorCacheTest::build);
+
+    // "a = 2" becomes the least recently used selector
+    assertSame(first, cache.computeIfAbsent("a = 1", SelectorCacheTest::build));
+    cache.computeIfAbsent("a = 4", SelectorCacheTest::build);
+    assertEquals(3, cache.size());
+    assertEquals(1, cache.getEvictions());
+    assertSame(first, cache.computeIfAbsent("a = 1", SelectorCacheTest::build));
+    assertNotSame(second, cache.computeIfAbsent("a = 2", SelectorCacheTest::build));
+
+    // a selector shared by two keys survives the eviction of one of them
+    cache.setMaxSize(2);
+    SelectorSupport shared = cache.computeIfAbsent("b=1", SelectorCacheTest::build);
+    assertSame(shared, cache.computeIfAbsent("(b = 1)", SelectorCacheTest::build));
+    cache.computeIfAbsent("(b = 1)", SelectorCacheTest::build);
+    cache.computeIfAbsent("c = 1", SelectorCacheTest::build);
+    assertEquals(2, cache.size());
+    assertSame(shared, cache.computeIfAbsent("(b = 1)", SelectorCacheTest::build));
+  }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Function;
+import javax.jms.DeliveryMode;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTopic;
+import org.apache.pulsar.common.api.proto.MessageMetadata;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class SelectorCompilerTest {
+
+  @ParameterizedTest
+  @ValueSource(
+    strings = {
+      "foo='bar'",
+      "foo<>'bar'",
+      "foo='bar' or foo='other'",
+      "foo='bar' and foo='bar' and foo='other'",
+      "foo is null",
+      "foo is not null",
+      "undefinedProperty is null",
+      "not undefinedProperty",
+      "undefinedProperty",
+      "booleanProperty",
+      "not booleanProperty",
+      "booleanProperty = true",
+      "intProperty = 10",
+      "intProperty = 10.0",
+      "intProperty > 5 and intProperty < 20",
+      "intProperty between 5 and 20",
+      "intProperty not between 5 and 20",
+      "longProperty >= 10",
+      "longProperty + intProperty = 20",
+      "longProperty * 2 > intProperty",
+      "doubleProperty < 1000.0",
+      "doubleProperty / 2 = 0.75",
+      "doubleProperty > -1",
+      "-intProperty < 0",
+      "shortProperty = 3",
+      "byteProperty = 2",
+      "undefinedProperty > 5",
+      "undefinedProperty + 1 > 5",
+      "not (undefinedProperty > 5)",
+      "undefinedProperty > 5 or foo = 'bar'",
+      "undefinedProperty > 5 and foo = 'bar'",
+      "foo in ('a', 'b', 'bar')",
+      "foo in ('a', 'b', 'c', 'd', 'e', 'f', 'bar')",
+      "foo not in ('a', 'b')",
+      "undefinedProperty in ('a', 'b')",
+      "intProperty in ('10')",
+      "foo in ('bar')",
+      "foo not in ('bar')",
+      "foo not in ('a')",
+      "undefinedProperty not in ('a')",
+      "foo like 'b%'",
+      "foo like '%r'",
+      "foo like '_a_'",
+      "foo not like 'x%'",
+      "foo like 'b!%' escape '!'",
+      "intProperty like '1%'",
+      "undefinedProperty like 'a%'",
+      "JMSMessageID = '0:1:9:-1'",
+      "JMSReplyTo = 'queue://persistent://public/default/testReply'",
+      "JMSDestination = 'topic://persistent://public/default/test'",
+      "JMSCorrelationID = '0:1:2:3'",
+      "JMSDeliveryMode = 'PERSISTENT'",
+      "JMSType = 'my-type'",
+      "JMSExpiration = 1234",
+      "JMSPriority > 4",
+      "JMSTimestamp = 5234234",
+      "JMSXGroupID = 'group'",
+      "JMSRedelivered = false",
+      "JMSXDeliveryCount = 1",
+      "JMSXProducerTXID is null",
+      "convert_string_expressions:stringNumber > 5"
+    }
+  )
+  public void testSameResultAsExpressionTree(String selector) throws Exception {
+    SelectorSupport selectorSupport = SelectorSupport.build(selector, true);
+    assertTrue(selectorSupport.isCompiled(), selector);
+    Function<String, Object> properties = buildProperties()::get;
+    assertEquals(
+        selectorSupport.matchesWithExpressionTree(properties),
+        selectorSupport.matches(properties),
+        selector);
+  }
+
+  @Test
+  public void testNumericPromotions() throws Exception {
+    String[] operands = {
+      "b",
+      "s",
+      "i",
+      "l",
+      "f",
+      "d",
+      "str",
+      "undefinedProperty",
+      "3",
+      "-3",
+      "3.0",
+      "5000000000",
+      "-i",
+      "big",
+      "fbig"
+    };
+    String[] operators = {"=", "<>", "<", "<=", ">", ">="};
+    String[] arithmetic = {"+", "-", "*", "/", "%"};
+    MessageMetadata metadata = new MessageMetadata();
+    addProperty(metadata, "b", "3", "byte");
+    addProperty(metadata, "s", "3", "short");
+    addProperty(metadata, "i", "3", "int");
+    addProperty(metadata, "l", "3", "long");
+    addProperty(metadata, "f", "2.5", "float");
+    addProperty(metadata, "d", "3.0", "double");
+    addProperty(metadata, "str", "3", null);
+    // equal only with the float precision
+    addProperty(metadata, "big", "16777217", "long");
+    addProperty(metadata, "fbig", "16777216", "float");
+    MessagePropertyIndex index = new MessagePropertyIndex();
+    index.fill(metadata);
+    Function<String, Object> boxed = index::getObject;
+    Function<String, Object> unboxed =
+        new CompiledSelector.NumericPropertyAccessor() {
+          @Override
+          public byte loadNumber(String name, CompiledSelector.EvaluationContext context) {
+            return index.loadNumber(name, context);
+          }
+
+          @Override
+          public Object apply(String name) {
+            return index.getObject(name);
+          }
+        };
+    for (String left : operands) {
+      for (String right : operands) {
+        for (String operator : operators) {
+          assertSameResult(left + " " + operator + " " + right, boxed, unboxed);
+        }
+        for (String operator : arithmetic) {
+          assertSameResult(left + " " + operator + " " + right + " > 2", boxed, unboxed);
+          assertSameResult(left + " " + operator + " " + right + " = 9", boxed, unboxed);
+        }
+      }
+    }
+  }
+
+  private static void assertSameResult(
+      String selector, Function<String, Object> boxed, Function<String, Object> unboxed)
+      throws Exception {
+    SelectorSupport selectorSupport = SelectorSupport.build(selector, true);
+    assertTrue(selectorSupport.isCompiled(), selector);
+    String expected = result(() -> selectorSupport.matchesWithExpressionTree(boxed));
+    assertEquals(expected, result(() -> selectorSupport.matches(boxed)), selector);
+    assertEquals(expected, result(() -> selectorSupport.matches(unboxed)), selector);
+  }
+
+  private static String result(Callable<Boolean> evaluation) {
+    try {
+      return String.valueOf(evaluation.call());
+    } catch (Exception err) {
+      return err.getClass().getName();
+    }
+  }
+
+  private static void addProperty(
+      MessageMetadata metadata, String name, String value, String type) {
+    metadata.addProperty().setKey(name).setValue(value);
+    if (type != null) {
+      metadata.addProperty().setKey(name + "_jsmtype").setValue(type);
+    }
+  }
+
+  @Test
+  public void testHeadersOnly() throws Exception {
+    assertTrue(SelectorSupport.build("JMSType = 'a'", true).isHeadersOnly());
+    assertTrue(
+        SelectorSupport.build(
+                "JMSPriority > 4 and (JMSCorrelationID like 'a%' or JMSTimestamp > 10)", true)
+            .isHeadersOnly());
+    assertTrue(SelectorSupport.build("JMSXDeliveryCount > 1 or 1 = 1", true).isHeadersOnly());
+    assertFalse(SelectorSupport.build("JMSType = 'a' and foo = 'b'", true).isHeadersOnly());
+    assertFalse(SelectorSupport.build("body$type = 'a'", true).isHeadersOnly());
+    assertFalse(SelectorSupport.build("XQUERY '//root'", true).isHeadersOnly());
+  }
+
+  @Test
+  public void testNumericHeaders() throws Exception {
+    Map<String, Object> headers = new HashMap<>();
+    headers.put("JMSTimestamp", 1234L);
+    headers.put("JMSExpiration", 5000L);
+    headers.put("JMSPriority", 7);
+    Function<String, Object> boxed = headers::get;
+    Function<String, Object> unboxed =
+        new CompiledSelector.NumericPropertyAccessor() {
+          @Override
+          public byte loadNumber(String name, CompiledSelector.EvaluationContext context) {
+            Object value = headers.get(name);
+            return value instanceof Long
+                ? context.setLong(Numbers.LONG, (Long) value)
+                : Numbers.OTHER;
+          }
+
+          @Override
+          public Object apply(String name) {
+            return headers.get(name);
+          }
+        };
+    for (String selector :
+        new String[] {
+          "JMSTimestamp = 1234",
+          "JMSTimestamp > 1000 and JMSTimestamp < 2000",
+          "JMSTimestamp + 1 = 1235",
+          "JMSExpiration - JMSTimestamp = 3766",
+          "JMSTimestamp = 1234.0",
+          "JMSPriority + JMSTimestamp = 1241",
+          "JMSTimestamp > JMSExpiration"
+        }) {
+      assertSameResult(selector, boxed, unboxed);
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = {"XQUERY '//root'", "foo = 'a' or XQUERY '//root'"})
+  public void testFallbackToExpressionTree(String selector) throws Exception {
+    SelectorSupport selectorSupport = SelectorSupport.build(selector, true);
+    assertFalse(selectorSupport.isCompiled(), selector);
+  }
+
+  private static Map<String, Object> buildProperties() {
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("foo", "bar");
+    properties.put("booleanProperty", true);
+    properties.put("intProperty", 10);
+    properties.put("longProperty", 10L);
+    properties.put("doubleProperty", 1.5d);
+    properties.put("shortProperty", (short) 3);
+    properties.put("byteProperty", (byte) 2);
+    properties.put("stringNumber", "7");
+    properties.put("JMSMessageID", "0:1:9:-1");
+    properties.put("JMSReplyTo", new ActiveMQQueue("persistent://public/default/testReply"));
+    properties.put("JMSDestination", new ActiveMQTopic("persistent://public/default/test"));
+    properties.put("JMSCorrelationID", "0:1:2:3");
+    properties.put("JMSDeliveryMode", DeliveryMode.PERSISTENT);
+    properties.put("JMSType", "my-type");
+    properties.put("JMSExpiration", 1234L);
+    properties.put("JMSPriority", 5);
+    properties.put("JMSTimestamp", 5234234L);
+    properties.put("JMSXGroupID", "group");
+    return properties;
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms.selectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.datastax.oss.pulsar.jms.selectors.EntryMetadataCache.DecodedEntry;
+import com.datastax.oss.pulsar.jms.selectors.EntryMetadataCache.DecodedMessage;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.common.api.proto.SingleMessageMetadata;
+import org.junit.jupiter.api.Test;
+
+class SelectorGroupTest {
+
+  private static final String[] SELECTORS = {
+    "region = 'EU' and amount > 10",
+    "region = 'EU' and amount > 100",
+    "region = 'US' and amount > 10",
+    "(region = 'EU' and amount > 10) or priority = 'high'",
+    "region = 'EU'   and amount > 10",
+    "undefinedProperty + 1 > 5",
+    "region like 'E%'",
+    "region in ('EU', 'US')",
+    // resolved by the equality index
+    "region = 'EU'",
+    "'US' = region",
+    "region = 'APAC'",
+    "priority = 'high'",
+    "undefinedProperty = 'x'",
+    "JMSType = 'order'",
+    // not a string, evaluated as usual
+    "amount = '50'",
+    "convert_string_expressions:amount = '50'",
+    "convert_string_expressions:region = 'EU' and amount = '50'",
+    // conjunctions resolved by the equality index
+    "region = 'EU' and priority = 'high'",
+    "region = 'US' and JMSType = 'order' and region = 'US'",
+    "region = 'EU' and region = 'US'",
+    "region = 'EU' and (priority = 'high' and JMSType = 'order')",
+    // the index selects the candidates
+    "region = 'EU' and amount > 10",
+    "region = 'US' and amount = '50'",
+    "JMSType = 'invoice' and amount > 10 and priority = 'low'",
+  };
+
+  @Test
+  public void testSameResultsAsSingleSelectors() throws Exception {
+    SelectorSupport[] selectors = new SelectorSupport[SELECTORS.length];
+    for (int i = 0; i < SELECTORS.length; i++) {
+      selectors[i] = SelectorSupport.build(SELECTORS[i], true);
+      assertTrue(SelectorGroup.canShare(selectors[i]));
+    }
+    SelectorGroup group = SelectorCompiler.compileGroup(selectors);
+    assertEquals(SELECTORS.length, group.size());
+
+    DecodedMessage[] messages = {
+      message("region", "EU", "amount", "50"),
+      message("region", "EU", "amount", "500"),
+      message("region", "US", "amount", "50"),
+      message("region", "APAC", "amount", "5"),
+      message("priority", "high"),
+      message("JMSType", "order", "region", "US"),
+      message("JMSType", "invoice", "amount", "50"),
+      message("region", "EU", "priority", "high", "JMSType", "order"),
+      message("region", "EU", "priority", "high", "amount", "50"),
+      message("JMSType", "invoice", "amount", "50", "priority", "low")
+    };
+    DecodedEntry entry = new DecodedEntry(1, 2, messages);
+    SelectorGroup.Results results =
+        group.evaluate(entry, message -> message.getProperties()::getObject);
+    assertSame(group, results.getGroup());
+    for (int i = 0; i < messages.length; i++) {
+      for (int j = 0; j < SELECTORS.length; j++) {
+        assertTrue(results.isEvaluated(i, j));
+        assertEquals(
+            selectors[j].matches(messages[i].getProperties()::getObject),
+            results.matches(i, j),
+            SELECTORS[j] + " on message " + i);
+      }
+    }
+  }
+
+  @Test
+  public void testEqualityIndexWithManySelectors() throws Exception {
+    // more than 64 selectors, the results take more than one word
+    SelectorSupport[] selectors = new SelectorSupport[200];
+    for (int i = 0; i < selectors.length; i++) {
+      selectors[i] =
+          SelectorSupport.build(
+              i % 2 == 0 ? "tenant = 'tenant-" + (i % 50) + "'" : "tenant <> 'tenant-" + i + "'",
+              true);
+    }
+    SelectorGroup group = SelectorCompiler.compileGroup(selectors);
+    DecodedMessage[] messages = {
+      message("tenant", "tenant-2"), message("tenant", "tenant-3"), message("other", "x")
+    };
+    DecodedEntry entry = new DecodedEntry(1, 2, messages);
+    SelectorGroup.Results results =
+        group.evaluate(entry, message -> message.getProperties()::getObject);
+    for (int i = 0; i < messages.length; i++) {
+      for (int j = 0; j < selectors.length; j++) {
+        assertTrue(results.isEvaluated(i, j));
+        assertEquals(
+            selectors[j].matches(messages[i].getProperties()::getObject),
+            results.matches(i, j),
+            selectors[j].getSelector() + " on message " + i);
+      }
+    }
+    assertTrue(results.matches(0, 2));
+    assertTrue(results.matches(0, 52));
+    assertFalse(results.matches(0, 4));
+  }
+
+  @Test
+  public void testRegisterSelectors() throws Exception {
+    EntryMetadataCache cache = new EntryMetadataCache(4, 4);
+    long idle = TimeUnit.MINUTES.toNanos(5);
+    SelectorSupport first = SelectorSupport.build("a = 1", true);
+    SelectorSupport second = SelectorSupport.build("b = 1", true);
+    assertEquals(0, cache.registerSelector(first, idle));
+    SelectorGroup group = cache.getSelectorGroup();
+    assertEquals(0, cache.registerSelector(first, idle));
+    assertSame(group, cache.getSelectorGroup());
+
+    assertEquals(1, cache.registerSelector(second, idle));
+    assertNotSame(group, cache.getSelectorGroup());
+    assertEquals(2, cache.getSelectorGroup().size());
+
+    // JMSDestination depends on the consumer
+    SelectorSupport destination =
+        SelectorSupport.build("JMSDestination = 'topic://persistent://public/default/test'", true);
+    assertFalse(SelectorGroup.canShare(destination));
+    assertEquals(-1, cache.registerSelector(destination, idle));
+    assertEquals(-1, cache.registerSelector(null, idle));
+
+    // the selectors not used anymore are dropped
+    SelectorSupport third = SelectorSupport.build("c = 1", true);
+    assertEquals(0, cache.registerSelector(third, 0));
+    assertEquals(1, cache.getSelectorGroup().size());
+  }
+
+  private static DecodedMessage message(String... keyValues) {
+    SingleMessageMetadata metadata = new SingleMessageMetadata();
+    for (int i = 0; i < keyValues.length; i += 2) {
+      metadata.addProperty().setKey(keyValues[i]).setValue(keyValues[i + 1]);
+      if (keyValues[i].equals("amount")) {
+        metadata.addProperty().setKey("amount_jsmtype").setValue("int");
+      }
+    }
+    DecodedMessage message =
+        new DecodedMessage(new MessagePropertyIndex(metadata.getPropertiesCount()));
+    message.fill(metadata);
+    assertTrue(message.getProperties().decodeAll());
+    return message;
+  }
+}
@@ -16,13 +16,20 @@
 package com.datastax.oss.pulsar.jms.selectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import javax.jms.DeliveryMode;
+import org.apache.activemq.command.ActiveMQMapMessage;
 import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
 import org.apache.activemq.command.ActiveMQTopic;
 import org.junit.jupiter.api.Test;
 
@@ -62,6 +69,95 @@ class SelectorSupportTest {
     match(true, "JMSTimestamp = 5234234");
   }
 
+  @Test
+  public void testBodyFields() throws Exception {
+    assertEquals(
+        new HashSet<>(Arrays.asList("body$orderType", "body$customer$country")),
+        SelectorSupport.build(
+                "body$orderType = 'X' and (body$customer$country in ('IT') or foo like 'b%')", true)
+            .getBodyFields());
+    assertTrue(SelectorSupport.build("foo = 'bar'", true).getBodyFields().isEmpty());
+
+    // the client decodes the messages with a schema into a MapMessage
+    ActiveMQMapMessage message = new ActiveMQMapMessage();
+    message.setObject("orderType", "X");
+    message.setObject("amount", 10);
+    message.setObject("customer", Collections.singletonMap("country", "IT"));
+    message.setStringProperty("foo", "bar");
+    assertTrue(SelectorSupport.build("body$orderType = 'X'", true).matches(message));
+    assertTrue(SelectorSupport.build("body$amount > 5", true).matches(message));
+    assertTrue(SelectorSupport.build("body$customer$country = 'IT'", true).matches(message));
+    assertFalse(SelectorSupport.build("body$orderType = 'Y'", true).matches(message));
+    assertTrue(SelectorSupport.build("body$missing is null", true).matches(message));
+    assertTrue(SelectorSupport.build("body$orderType$country is null", true).matches(message));
+    // records are not visible to the selectors
+    assertTrue(SelectorSupport.build("body$customer is null", true).matches(message));
+
+    // a property with the same name wins
+    message.setStringProperty("body$orderType", "Z");
+    assertTrue(SelectorSupport.build("body$orderType = 'Z'", true).matches(message));
+
+    // not a message with a schema
+    ActiveMQTextMessage text = new ActiveMQTextMessage();
+    text.setText("orderType");
+    assertTrue(SelectorSupport.build("body$orderType is null", true).matches(text));
+  }
+
+  @Test
+  public void testXPath() throws Exception {
+    String document =
+        "<?xml version=\"1.0\"?>"
+            + "<order type=\"book\">"
+            + "<!-- comment --><item id=\"1\">abc</item>"
+            + "<item id=\"2\">x<!-- comment -->yz</item>"
+            + "<customer><address country=\"IT\"><![CDATA[Rome]]></address></customer>"
+            + "</order>";
+    // the simple paths are evaluated on a stream, boolean(...) uses the DOM
+    xpath(true, "/order", document);
+    xpath(true, "/order[@type]", document);
+    xpath(true, "/order[@type=\"book\"]/item", document);
+    xpath(false, "/order[@type=\"music\"]/item", document);
+    xpath(true, "/order/item[@id=\"2\"][text()=\"xyz\"]", document);
+    xpath(false, "/order/item[@id=\"1\"][text()=\"xyz\"]", document);
+    xpath(true, "/*/item[text() = \"abc\"]", document);
+    xpath(false, "/order[text()=\"abc\"]", document);
+    xpath(false, "/item", document);
+    xpath(true, "//address[@country=\"IT\"]", document);
+    xpath(true, "/order//address[text()=\"Rome\"]", document);
+    xpath(true, "//customer//*[@country]", document);
+    xpath(false, "//customer/*/*", document);
+    xpath(false, "/order/address", document);
+    xpath(false, "/order", "order");
+
+    // a malformed document does not match, even after the first matching element
+    xpath(false, "/order", "<order><item>");
+    xpath(false, "//item", "<order><item/></order><order>");
+
+    // a message without a body
+    assertFalse(SelectorSupport.build("XPATH '/order'", true).matches(new ActiveMQTextMessage()));
+    // the other properties are still available
+    ActiveMQTextMessage message = new ActiveMQTextMessage();
+    message.setText(document);
+    message.setStringProperty("foo", "bar");
+    assertTrue(
+        SelectorSupport.build("foo = 'bar' and XPATH '/order/item[@id=''1'']'", true)
+            .matches(message));
+    assertFalse(
+        SelectorSupport.build("foo = 'baz' and XPATH '/order/item[@id=''1'']'", true)
+            .matches(message));
+  }
+
+  private static void xpath(boolean expected, String xpath, String document) throws Exception {
+    ActiveMQTextMessage message = new ActiveMQTextMessage();
+    message.setText(document);
+    assertEquals(
+        expected, SelectorSupport.build("XPATH '" + xpath + "'", true).matches(message), xpath);
+    assertEquals(
+        expected,
+        SelectorSupport.build("XPATH 'boolean(" + xpath + ")'", true).matches(message),
+        xpath);
+  }
+
   private static void match(boolean expected, String selector) throws Exception {
     SelectorSupport build = SelectorSupport.build(selector, true);
     Map<String, AtomicInteger> propertyAccessCount = new HashMap<>();
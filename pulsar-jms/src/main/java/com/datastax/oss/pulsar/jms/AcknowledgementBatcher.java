@@ -0,0 +1,174 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.jms.JMSException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.MessageId;
+
+/**
+ * Coalesces the acknowledgements of the messages received by the consumers of a session in
+ * AUTO_ACKNOWLEDGE mode.
+ *
+ * <p>Instead of a synchronous acknowledgement per message, the ids are collected and sent with a
+ * single asynchronous acknowledgement per consumer when maxMessages acknowledgements are pending,
+ * or when the oldest one is pending since maxDelay: a timer sends them even if no other message is
+ * received. The session also flushes the pending acknowledgements when it is closed or recovered.
+ *
+ * <p>A receive, and the delivery of a message to a listener, start with {@link #flushAndWait()}:
+ * the acknowledgements of the messages already received are completed before the next message is
+ * returned, they are coalesced only between two receives. If an acknowledgement fails, the messages
+ * are negatively acknowledged, so that the broker delivers them again, and the next receive fails.
+ */
+@Slf4j
+public final class AcknowledgementBatcher {
+
+  private final int maxMessages;
+  private final long maxDelayNanos;
+  private final ScheduledExecutorService timer;
+  private final Map<Consumer<?>, List<MessageId>> pending = new IdentityHashMap<>();
+  private Consumer<?> lastConsumer;
+  private List<MessageId> lastMessageIds;
+  private int numPending;
+  private long firstPendingNanos;
+  private ScheduledFuture<?> scheduledFlush;
+  // the acknowledgements sent and not awaited yet
+  private final List<CompletableFuture<Void>> inFlight = new ArrayList<>();
+
+  /**
+   * @param maxMessages the number of pending acknowledgements that triggers a flush
+   * @param maxDelayMillis the age of the oldest pending acknowledgement that triggers a flush
+   * @param timer the executor of the delayed flushes, if null the age is checked only when an
+   *     acknowledgement is added
+   */
+  public AcknowledgementBatcher(
+      int maxMessages, long maxDelayMillis, ScheduledExecutorService timer) {
+    this.maxMessages = Math.max(1, maxMessages);
+    this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxDelayMillis));
+    this.timer = timer;
+  }
+
+  /** Adds the acknowledgement of a message, it is sent now if the batch is complete. */
+  public synchronized void add(Consumer<?> consumer, MessageId messageId) {
+    long now = System.nanoTime();
+    if (numPending == 0) {
+      firstPendingNanos = now;
+    }
+    // usually a session has only one consumer
+    if (consumer != lastConsumer) {
+      lastConsumer = consumer;
+      lastMessageIds = pending.computeIfAbsent(consumer, c -> new ArrayList<>());
+    }
+    lastMessageIds.add(messageId);
+    numPending++;
+    if (numPending >= maxMessages || now - firstPendingNanos >= maxDelayNanos) {
+      flush();
+    } else if (numPending == 1 && timer != null) {
+      scheduleFlush();
+    }
+  }
+
+  private void scheduleFlush() {
+    try {
+      scheduledFlush = timer.schedule(this::flush, maxDelayNanos, TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException err) {
+      // the client is shutting down
+      flush();
+    }
+  }
+
+  /** Sends all the pending acknowledgements. */
+  public synchronized void flush() {
+    if (scheduledFlush != null) {
+      scheduledFlush.cancel(false);
+      scheduledFlush = null;
+    }
+    if (numPending == 0) {
+      return;
+    }
+    inFlight.removeIf(f -> f.isDone() && !f.isCompletedExceptionally());
+    for (Map.Entry<Consumer<?>, List<MessageId>> entry : pending.entrySet()) {
+      Consumer<?> consumer = entry.getKey();
+      List<MessageId> messageIds = entry.getValue();
+      inFlight.add(
+          consumer
+              .acknowledgeAsync(messageIds)
+              .whenComplete(
+                  (r, err) -> {
+                    if (err != null) {
+                      log.error(
+                          "Cannot acknowledge messages {}, delivering them again", messageIds, err);
+                      for (MessageId messageId : messageIds) {
+                        consumer.negativeAcknowledge(messageId);
+                      }
+                    }
+                  }));
+    }
+    pending.clear();
+    lastConsumer = null;
+    lastMessageIds = null;
+    numPending = 0;
+  }
+
+  /**
+   * Sends all the pending acknowledgements and waits for the completion of all the acknowledgements
+   * sent so far, including the ones sent by the timer.
+   *
+   * @throws JMSException if an acknowledgement failed, its messages are delivered again
+   */
+  public void flushAndWait() throws JMSException {
+    List<CompletableFuture<Void>> sent;
+    synchronized (this) {
+      flush();
+      if (inFlight.isEmpty()) {
+        return;
+      }
+      sent = new ArrayList<>(inFlight);
+      inFlight.clear();
+    }
+    Throwable failure = null;
+    for (CompletableFuture<Void> result : sent) {
+      try {
+        result.get();
+      } catch (ExecutionException err) {
+        if (failure == null) {
+          failure = err.getCause();
+        }
+      } catch (InterruptedException err) {
+        throw Utils.handleException(err);
+      }
+    }
+    if (failure != null) {
+      throw Utils.handleException(failure);
+    }
+  }
+
+  /** @return the number of pending acknowledgements */
+  public synchronized int getNumPending() {
+    return numPending;
+  }
+}
@@ -21,6 +21,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import org.apache.pulsar.client.api.BatchReceivePolicy;
 import org.apache.pulsar.client.api.DeadLetterPolicy;
 import org.apache.pulsar.client.api.RedeliveryBackoff;
 import org.apache.pulsar.client.api.Schema;
@@ -29,25 +31,28 @@ import org.apache.pulsar.client.impl.MultiplierRedeliveryBackoff;
 final class ConsumerConfiguration {
 
   static ConsumerConfiguration DEFAULT =
-      new ConsumerConfiguration(Collections.emptyMap(), null, null, null, null);
+      new ConsumerConfiguration(Collections.emptyMap(), null, null, null, null, null);
 
   private final Map<String, Object> consumerConfiguration;
   private Schema<?> consumerSchema;
   private DeadLetterPolicy deadLetterPolicy;
   private RedeliveryBackoff negativeAckRedeliveryBackoff;
   private RedeliveryBackoff ackTimeoutRedeliveryBackoff;
+  private BatchReceivePolicy batchReceivePolicy;
 
   ConsumerConfiguration(
       Map<String, Object> consumerConfiguration,
       Schema<?> consumerSchema,
       DeadLetterPolicy deadLetterPolicy,
       RedeliveryBackoff negativeAckRedeliveryBackoff,
-      RedeliveryBackoff ackTimeoutRedeliveryBackoff) {
+      RedeliveryBackoff ackTimeoutRedeliveryBackoff,
+      BatchReceivePolicy batchReceivePolicy) {
     this.consumerConfiguration = Objects.requireNonNull(consumerConfiguration);
     this.consumerSchema = consumerSchema;
     this.deadLetterPolicy = deadLetterPolicy;
     this.negativeAckRedeliveryBackoff = negativeAckRedeliveryBackoff;
     this.ackTimeoutRedeliveryBackoff = ackTimeoutRedeliveryBackoff;
+    this.batchReceivePolicy = batchReceivePolicy;
   }
 
   public Map<String, Object> getConsumerConfiguration() {
@@ -70,6 +75,10 @@ final class ConsumerConfiguration {
     return ackTimeoutRedeliveryBackoff;
   }
 
+  public BatchReceivePolicy getBatchReceivePolicy() {
+    return batchReceivePolicy;
+  }
+
   ConsumerConfiguration applyDefaults(ConsumerConfiguration defaultConsumerConfiguration) {
     Map<String, Object> mergedConsumerConfiguration = new HashMap<>();
     if (defaultConsumerConfiguration.consumerConfiguration != null) {
@@ -91,13 +100,18 @@ final class ConsumerConfiguration {
         ackTimeoutRedeliveryBackoff != null
             ? ackTimeoutRedeliveryBackoff
             : defaultConsumerConfiguration.ackTimeoutRedeliveryBackoff;
+    BatchReceivePolicy mergedBatchReceivePolicy =
+        batchReceivePolicy != null
+            ? batchReceivePolicy
+            : defaultConsumerConfiguration.batchReceivePolicy;
 
     return new ConsumerConfiguration(
         mergedConsumerConfiguration,
         mergedConsumerSchema,
         mergedDeadLetterPolicy,
         mergedNegativeAckRedeliveryBackoff,
-        mergedAckTimeoutRedeliveryBackoff);
+        mergedAckTimeoutRedeliveryBackoff,
+        mergedBatchReceivePolicy);
   }
 
   static ConsumerConfiguration buildConsumerConfiguration(
@@ -112,6 +126,7 @@ final class ConsumerConfiguration {
     DeadLetterPolicy deadLetterPolicy = null;
     RedeliveryBackoff negativeAckRedeliveryBackoff = null;
     RedeliveryBackoff ackTimeoutRedeliveryBackoff = null;
+    BatchReceivePolicy batchReceivePolicy = null;
 
     if (consumerConfigurationM != null) {
       consumerConfiguration = new HashMap(consumerConfigurationM);
@@ -132,13 +147,41 @@ final class ConsumerConfiguration {
           getAndRemoveRedeliveryBackoff("negativeAckRedeliveryBackoff", consumerConfiguration);
       ackTimeoutRedeliveryBackoff =
           getAndRemoveRedeliveryBackoff("ackTimeoutRedeliveryBackoff", consumerConfiguration);
+      batchReceivePolicy = getAndRemoveBatchReceivePolicy(consumerConfiguration);
     }
     return new ConsumerConfiguration(
         consumerConfiguration,
         consumerSchema,
         deadLetterPolicy,
         negativeAckRedeliveryBackoff,
-        ackTimeoutRedeliveryBackoff);
+        ackTimeoutRedeliveryBackoff,
+        batchReceivePolicy);
+  }
+
+  private static BatchReceivePolicy getAndRemoveBatchReceivePolicy(
+      Map<String, Object> consumerConfiguration) {
+    Map<String, Object> config =
+        (Map<String, Object>) consumerConfiguration.remove("batchReceivePolicy");
+    if (config == null || config.isEmpty()) {
+      return null;
+    }
+    BatchReceivePolicy.Builder builder = BatchReceivePolicy.builder();
+    int maxNumMessages = Integer.parseInt(getAndRemoveString("maxNumMessages", "-1", config));
+    if (maxNumMessages >= 0) {
+      builder.maxNumMessages(maxNumMessages);
+    }
+    int maxNumBytes = Integer.parseInt(getAndRemoveString("maxNumBytes", "-1", config));
+    if (maxNumBytes >= 0) {
+      builder.maxNumBytes(maxNumBytes);
+    }
+    int timeoutMs = Integer.parseInt(getAndRemoveString("timeoutMs", "-1", config));
+    if (timeoutMs >= 0) {
+      builder.timeout(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+    if (!config.isEmpty()) {
+      throw new IllegalArgumentException("Unhandled fields in batchReceivePolicy: " + config);
+    }
+    return builder.build();
   }
 
   private static RedeliveryBackoff getAndRemoveRedeliveryBackoff(
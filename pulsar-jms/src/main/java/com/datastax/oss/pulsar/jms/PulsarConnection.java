@@ -554,6 +554,10 @@ public class PulsarConnection implements Connection, QueueConnection, TopicConne
     try {
       paused = true;
       pausedCondition.signalAll();
+      // the blocked receives do not hold the lock while waiting, they wait for "start"
+      for (PulsarSession session : sessions) {
+        session.wakeUpReceives();
+      }
     } catch (Throwable err) {
       throw Utils.handleException(err);
     } finally {
@@ -132,6 +132,9 @@ public class PulsarConnectionFactory
   private transient boolean enableClientSideEmulation = false;
   private transient boolean transactionsStickyPartitions = false;
   private transient boolean useServerSideFiltering = false;
+  private transient boolean useServerSideBatchIndexFiltering = false;
+  // read from the broker, see isServerSideBatchIndexFilteringActive
+  private transient volatile Boolean brokerBatchIndexAcknowledgment;
   private transient boolean enableJMSPriority = false;
 
   private transient boolean priorityUseLinearMapping = true;
@@ -153,6 +156,8 @@ public class PulsarConnectionFactory
   private transient boolean closed;
   private transient int refreshServerSideFiltersPeriod = 300;
   private transient boolean maxMessagesLimitsParallelism = false;
+  private transient int autoAcknowledgeBatchSize = 0;
+  private transient long autoAcknowledgeMaxDelayMs = 10;
 
   private transient int connectionConsumerStopTimeout = 20000;
 
@@ -350,6 +355,16 @@ public class PulsarConnectionFactory
           Integer.parseInt(
               getAndRemoveString("jms.connectionConsumerStopTimeout", "20000", configurationCopy));
 
+      // with AUTO_ACKNOWLEDGE the acknowledgements of the messages are sent in batches
+      // of this size, or after autoAcknowledgeMaxDelayMs, 0 means one message at a time.
+      // The next receive waits for the acknowledgements of the messages already received
+      this.autoAcknowledgeBatchSize =
+          Integer.parseInt(
+              getAndRemoveString("jms.autoAcknowledgeBatchSize", "0", configurationCopy));
+      this.autoAcknowledgeMaxDelayMs =
+          Long.parseLong(
+              getAndRemoveString("jms.autoAcknowledgeMaxDelayMs", "10", configurationCopy));
+
       this.sessionListenersThreads =
           Integer.parseInt(
               getAndRemoveString(
@@ -396,6 +411,16 @@ public class PulsarConnectionFactory
           Boolean.parseBoolean(
               getAndRemoveString("jms.useServerSideFiltering", "false", configurationCopy));
 
+      // With this flag the broker acknowledges the messages of a batch that do not match
+      // the selectors and that are to be dropped, so the consumer does not receive them.
+      // This requires acknowledgmentAtBatchIndexLevelEnabled=true on the broker, otherwise
+      // the whole batch is sent and the consumer applies the selectors again on the
+      // messages of the batches that it receives.
+      this.useServerSideBatchIndexFiltering =
+          Boolean.parseBoolean(
+              getAndRemoveString(
+                  "jms.useServerSideBatchIndexFiltering", "false", configurationCopy));
+
       this.enableJMSPriority =
           Boolean.parseBoolean(
               getAndRemoveString("jms.enableJMSPriority", "false", configurationCopy));
@@ -539,9 +564,7 @@ public class PulsarConnectionFactory
         pulsarClient = buildPulsarClient(clientBuilder);
 
         if (pulsarClient != null && refreshServerSideFiltersPeriod > 0 && useServerSideFiltering) {
-          PulsarClientImpl impl = (PulsarClientImpl) pulsarClient;
-          ScheduledExecutorService timer =
-              (ScheduledExecutorService) impl.getScheduledExecutorProvider().getExecutor();
+          ScheduledExecutorService timer = getTimer(pulsarClient);
           timer.scheduleWithFixedDelay(
               this::refreshServerSideSelectors,
               refreshServerSideFiltersPeriod,
@@ -611,6 +634,49 @@ public class PulsarConnectionFactory
     return useServerSideFiltering;
   }
 
+  public synchronized boolean isUseServerSideBatchIndexFiltering() {
+    return useServerSideFiltering && useServerSideBatchIndexFiltering;
+  }
+
+  /**
+   * With jms.useServerSideBatchIndexFiltering the broker drops the messages of a batch that do not
+   * match the filters only if it supports batch index acknowledgement. The configuration of the
+   * broker is read once, if it cannot be read the consumers evaluate the filters again on the
+   * messages of the batches.
+   *
+   * @return true if the broker drops the messages of a batch that do not match the filters
+   */
+  boolean isServerSideBatchIndexFilteringActive() {
+    if (!isUseServerSideBatchIndexFiltering()) {
+      return false;
+    }
+    Boolean result = brokerBatchIndexAcknowledgment;
+    if (result == null) {
+      result = readBrokerBatchIndexAcknowledgment();
+      brokerBatchIndexAcknowledgment = result;
+    }
+    return result;
+  }
+
+  private boolean readBrokerBatchIndexAcknowledgment() {
+    try {
+      Map<String, String> brokerConfiguration =
+          getPulsarAdmin().brokers().getRuntimeConfigurations();
+      boolean result =
+          Boolean.parseBoolean(brokerConfiguration.get("acknowledgmentAtBatchIndexLevelEnabled"));
+      if (!result) {
+        log.info(
+            "jms.useServerSideBatchIndexFiltering requires acknowledgmentAtBatchIndexLevelEnabled=true on the broker, the selectors are applied again on the messages of the batches");
+      }
+      return result;
+    } catch (JMSException | PulsarAdminException err) {
+      log.warn(
+          "Cannot read the configuration of the broker, the selectors are applied again on the messages of the batches: {}",
+          err + "");
+      return false;
+    }
+  }
+
   public synchronized boolean isEnableJMSPriority() {
     return enableJMSPriority;
   }
@@ -635,6 +701,16 @@ public class PulsarConnectionFactory
     return pulsarClient;
   }
 
+  /** @return the scheduled executor of the Pulsar client, null if it is not available */
+  synchronized ScheduledExecutorService getPulsarClientTimer() {
+    return pulsarClient instanceof PulsarClientImpl ? getTimer(pulsarClient) : null;
+  }
+
+  private static ScheduledExecutorService getTimer(PulsarClient pulsarClient) {
+    PulsarClientImpl impl = (PulsarClientImpl) pulsarClient;
+    return (ScheduledExecutorService) impl.getScheduledExecutorProvider().getExecutor();
+  }
+
   public synchronized PulsarAdmin getPulsarAdmin() throws javax.jms.IllegalStateException {
     if (!usePulsarAdmin) {
       throw new javax.jms.IllegalStateException(
@@ -1244,6 +1320,9 @@ public class PulsarConnectionFactory
         consumerMetadata.put(
             "jms.filter.JMSConnectionID", session.getConnection().getConnectionId());
       }
+      if (isUseServerSideBatchIndexFiltering()) {
+        consumerMetadata.put("jms.filter.batch.index", "true");
+      }
     }
     if (isUseServerSideFiltering()) {
       if (messageSelector != null) {
@@ -1303,6 +1382,10 @@ public class PulsarConnectionFactory
       if (enablePriority) {
         builder.startPaused(true);
       }
+      if (isUseServerSideBatchIndexFiltering()) {
+        // the consumer must skip the messages acknowledged by the broker
+        builder.enableBatchIndexAcknowledgment(true);
+      }
       if (destination.isRegExp()) {
         String fullQualifiedTopicName = getPulsarTopicName(destination);
         builder.topicsPattern(fullQualifiedTopicName);
@@ -1327,6 +1410,9 @@ public class PulsarConnectionFactory
       if (consumerConfiguration.getAckTimeoutRedeliveryBackoff() != null) {
         builder.ackTimeoutRedeliveryBackoff(consumerConfiguration.getAckTimeoutRedeliveryBackoff());
       }
+      if (consumerConfiguration.getBatchReceivePolicy() != null) {
+        builder.batchReceivePolicy(consumerConfiguration.getBatchReceivePolicy());
+      }
       builder.intercept(session.getConsumerInterceptor());
       Consumer<?> newConsumer = builder.subscribe();
       if (log.isDebugEnabled()) {
@@ -1868,6 +1954,14 @@ public class PulsarConnectionFactory
     return connectionConsumerStopTimeout;
   }
 
+  public synchronized int getAutoAcknowledgeBatchSize() {
+    return autoAcknowledgeBatchSize;
+  }
+
+  public synchronized long getAutoAcknowledgeMaxDelayMs() {
+    return autoAcknowledgeMaxDelayMs;
+  }
+
   private static class SessionListenersThreadFactory implements ThreadFactory {
     private static final AtomicInteger sessionThreadNumber = new AtomicInteger();
 
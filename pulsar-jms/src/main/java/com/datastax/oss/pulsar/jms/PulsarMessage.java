@@ -1456,6 +1456,14 @@ public abstract class PulsarMessage implements Message {
     return this.consumer == consumer;
   }
 
+  PulsarMessageConsumer getConsumer() {
+    return consumer;
+  }
+
+  Consumer<?> getPulsarConsumer() {
+    return pulsarConsumer;
+  }
+
   protected static JMSException handleExceptionAccordingToMessageSpecs(Throwable t)
       throws JMSException {
     if (t instanceof NumberFormatException) {
@@ -22,9 +22,15 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.jms.IllegalStateException;
 import javax.jms.InvalidDestinationException;
 import javax.jms.JMSConsumer;
@@ -40,11 +46,13 @@ import javax.jms.Topic;
 import javax.jms.TopicSubscriber;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.MessageId;
 import org.apache.pulsar.client.api.PulsarClientException;
 import org.apache.pulsar.client.api.SubscriptionMode;
 import org.apache.pulsar.client.api.SubscriptionType;
 import org.apache.pulsar.client.impl.BatchMessageIdImpl;
 import org.apache.pulsar.client.impl.ConsumerBase;
+import org.apache.pulsar.client.impl.ConsumerImpl;
 
 @Slf4j
 public class PulsarMessageConsumer implements MessageConsumer, TopicSubscriber, QueueReceiver {
@@ -55,6 +63,8 @@ public class PulsarMessageConsumer implements MessageConsumer, TopicSubscriber,
   private SelectorSupport selectorSupport;
   private final Map<String, SelectorSupport> selectorSupportOnSubscriptions = new HashMap<>();
   private final boolean useServerSideFiltering;
+  // the broker drops the messages of the batches that do not match the filters
+  private final boolean serverSideBatchIndexFiltering;
   private final boolean noLocal;
   private ConsumerBase<?> consumer;
   private MessageListener listener;
@@ -68,6 +78,26 @@ public class PulsarMessageConsumer implements MessageConsumer, TopicSubscriber,
   private final AtomicBoolean closedWhileActiveTransaction = new AtomicBoolean(false);
   final AtomicLong receivedMessages = new AtomicLong();
   final AtomicLong skippedMessages = new AtomicLong();
+  // the receive operations are executed one at a time, without blocking the other methods
+  private final Object receiveLock = new Object();
+  // the messages that the broker delivers again, see expectRedelivery
+  private final ConcurrentSkipListSet<MessageId> pendingRedeliveries =
+      new ConcurrentSkipListSet<>();
+  // the last message received from the internal consumer, see redeliverUnacknowledgedMessages
+  private volatile MessageId lastReceivedMessageId;
+  // all the unacknowledged messages up to this one are delivered again, their ids are unknown
+  private volatile MessageId redeliveredUpTo;
+  // the asynchronous receive that waits for the next message, see awaitMessage
+  private final AtomicReference<
+          CompletableFuture<? extends org.apache.pulsar.client.api.Message<?>>>
+      pendingReceive = new AtomicReference<>();
+  // completed in order to wake up the receive that waits for a message
+  private volatile CompletableFuture<Void> wakeUpSignal = new CompletableFuture<>();
+  // fill the batches with the BatchReceivePolicy of the internal consumer
+  private volatile boolean useBatchReceivePolicy;
+  // messages received with the BatchReceivePolicy that did not fit into a batch
+  private final ConcurrentLinkedQueue<org.apache.pulsar.client.api.Message<?>> batchBacklog =
+      new ConcurrentLinkedQueue<>();
 
   public PulsarMessageConsumer(
       String subscriptionName,
@@ -95,6 +125,8 @@ public class PulsarMessageConsumer implements MessageConsumer, TopicSubscriber,
     this.session = session;
     this.dedicatedListenerThread = session.isDedicatedListenerThread();
     this.useServerSideFiltering = session.getFactory().isUseServerSideFiltering();
+    this.serverSideBatchIndexFiltering =
+        session.getFactory().isServerSideBatchIndexFilteringActive();
     this.destination = destination;
     this.subscriptionMode = destination.isQueue() ? SubscriptionMode.Durable : subscriptionMode;
     this.subscriptionType = destination.isQueue() ? SubscriptionType.Shared : subscriptionType;
@@ -150,6 +182,12 @@ public class PulsarMessageConsumer implements MessageConsumer, TopicSubscriber,
                   currentSelector,
                   noLocal,
                   session);
+      useBatchReceivePolicy =
+          session
+                  .getFactory()
+                  .getConsumerConfiguration(session.getOverrideConsumerConfiguration(), destination)
+                  .getBatchReceivePolicy()
+              != null;
     }
     return consumer;
   }
@@ -290,81 +328,380 @@ public class PulsarMessageConsumer implements MessageConsumer, TopicSubscriber,
     return receiveWithTimeoutAndValidateType(timeout, null);
   }
 
+  /**
+   * Receives up to maxMessages messages, blocking until at least one message is available.
+   *
+   * <p>The messages already prefetched by the internal consumer are taken without waiting, unless
+   * the consumer is configured with a BatchReceivePolicy ("batchReceivePolicy" in
+   * "consumerConfig"): in this case the batch is filled as the policy defines. The messages are
+   * decoded and acknowledged all together.
+   *
+   * @param maxMessages the maximum number of messages
+   * @param timeoutMs the time to wait for the first message
+   * @return the messages, empty if the timeout expires or the consumer is closed
+   * @throws JMSException if the JMS provider fails to receive the messages
+   */
   public List<Message> batchReceive(int maxMessages, long timeoutMs) throws JMSException {
     if (closed.get()) {
       return Collections.emptyList();
     }
     // ensure that the internal consumer has been created
-    getConsumer();
+    final ConsumerBase<?> consumer = getConsumer();
 
-    if (maxMessages < 0) {
-      maxMessages = 1;
+    final int batchSize = Math.max(maxMessages, 1);
+    synchronized (receiveLock) {
+      checkNotClosed();
+      session.flushAutoAcknowledgementsAndWait();
+      List<Message> result =
+          receiveWhenStarted(
+              consumer,
+              timeoutMs,
+              () -> {
+                while (!closed.get()) {
+                  List<org.apache.pulsar.client.api.Message<?>> messages =
+                      pollBatch(consumer, batchSize);
+                  if (messages.isEmpty()) {
+                    return null;
+                  }
+                  List<Message> accepted =
+                      session.executeCriticalOperation(
+                          () -> handleReceivedMessages(messages, consumer));
+                  if (!accepted.isEmpty()) {
+                    return accepted;
+                  }
+                }
+                return null;
+              });
+      return result != null ? result : Collections.emptyList();
     }
+  }
 
-    // block until we receive a message or timeout expires
-    Message message = receive(timeoutMs);
-    if (message == null) {
-      // no message
-      return Collections.emptyList();
+  /**
+   * Takes the first message without waiting, then fills the batch.
+   *
+   * @return the messages, empty if no message is available or the consumer is closed
+   */
+  private List<org.apache.pulsar.client.api.Message<?>> pollBatch(
+      ConsumerBase<?> consumer, int maxMessages) throws JMSException {
+    List<org.apache.pulsar.client.api.Message<?>> result = new ArrayList<>();
+    org.apache.pulsar.client.api.Message<?> first = pollMessage(consumer);
+    if (first == null) {
+      return result;
     }
+    result.add(first);
+    while (result.size() < maxMessages && !batchBacklog.isEmpty()) {
+      result.add(batchBacklog.poll());
+    }
+    try {
+      if (result.size() < maxMessages && useBatchReceivePolicy) {
+        // this waits as defined by the BatchReceivePolicy
+        for (org.apache.pulsar.client.api.Message<?> message : consumer.batchReceive()) {
+          if (result.size() < maxMessages) {
+            result.add(message);
+          } else {
+            batchBacklog.add(message);
+          }
+        }
+      } else {
+        // take the prefetched messages
+        while (result.size() < maxMessages) {
+          org.apache.pulsar.client.api.Message<?> message =
+              consumer.receive(0, TimeUnit.MILLISECONDS);
+          if (message == null) {
+            break;
+          }
+          result.add(message);
+        }
+      }
+    } catch (PulsarClientException err) {
+      if (closed.get() || session.isClosed()) {
+        // concurrently closed, the messages are delivered again by the broker
+        result.clear();
+        return result;
+      }
+      for (org.apache.pulsar.client.api.Message<?> message : result) {
+        negativeAcknowledge(consumer, message);
+      }
+      throw Utils.handleException(err);
+    }
+    return result;
+  }
 
-    List<Message> result = new ArrayList<>(maxMessages);
-    result.add(message);
-
-    // try to drain up to maxMessages without blocking
-    while (hasSomePrefetchedMessages() && result.size() < maxMessages) {
-      message = receiveNoWait();
-      if (message == null) {
-        break;
+  /**
+   * Handles the messages of a batch like {@link #handleReceivedMessage}, but the messages that have
+   * to be acknowledged on receive are acknowledged with a single operation.
+   */
+  private List<Message> handleReceivedMessages(
+      List<org.apache.pulsar.client.api.Message<?>> messages, ConsumerBase<?> consumer)
+      throws JMSException {
+    List<Message> result = new ArrayList<>(messages.size());
+    List<org.apache.pulsar.client.api.Message<?>> acceptedMessages =
+        new ArrayList<>(messages.size());
+    int next = 0;
+    try {
+      for (; next < messages.size(); next++) {
+        org.apache.pulsar.client.api.Message<?> message = messages.get(next);
+        PulsarMessage accepted = acceptReceivedMessage(message, consumer, null, null, noLocal);
+        if (accepted != null) {
+          result.add(accepted);
+          acceptedMessages.add(message);
+        }
+      }
+    } catch (JMSException | PulsarClientException | RuntimeException err) {
+      // the messages are not delivered to the application, the filtered ones are already handled
+      for (Message message : result) {
+        session.unregisterUnacknowledgedMessage((PulsarMessage) message);
+      }
+      for (org.apache.pulsar.client.api.Message<?> message : acceptedMessages) {
+        negativeAcknowledge(consumer, message);
+      }
+      for (int i = next; i < messages.size(); i++) {
+        negativeAcknowledge(consumer, messages.get(i));
+      }
+      throw Utils.handleException(err);
+    }
+    if (result.isEmpty()) {
+      return result;
+    }
+    List<MessageId> toAcknowledge = new ArrayList<>(acceptedMessages.size());
+    for (org.apache.pulsar.client.api.Message<?> message : acceptedMessages) {
+      toAcknowledge.add(message.getMessageId());
+    }
+    try {
+      if (session.getTransacted()) {
+        // open transaction now, the messages will be acknowledged on commit()
+        session.getTransaction();
+      } else if (session.getAcknowledgeMode() == Session.AUTO_ACKNOWLEDGE) {
+        AcknowledgementBatcher batcher = session.getAutoAcknowledgeBatcher();
+        if (batcher != null) {
+          for (MessageId messageId : toAcknowledge) {
+            batcher.add(consumer, messageId);
+          }
+        } else {
+          consumer.acknowledge(toAcknowledge);
+        }
+      } else if (session.getAcknowledgeMode() == Session.DUPS_OK_ACKNOWLEDGE) {
+        consumer
+            .acknowledgeAsync(toAcknowledge)
+            .whenComplete(
+                (m, ex) -> {
+                  if (ex != null) {
+                    log.error("Cannot acknowledge messages {} {}", toAcknowledge, ex);
+                  }
+                });
+      }
+    } catch (PulsarClientException err) {
+      throw Utils.handleException(err);
+    }
+    if (session.getAcknowledgeMode() != Session.CLIENT_ACKNOWLEDGE
+        && session.getAcknowledgeMode() != PulsarJMSConstants.INDIVIDUAL_ACKNOWLEDGE
+        && session.getAcknowledgeMode() != Session.SESSION_TRANSACTED) {
+      for (Message message : result) {
+        session.unregisterUnacknowledgedMessage((PulsarMessage) message);
       }
-      result.add(message);
+    }
+    if (requestClose.get()) {
+      closeInternal();
     }
     return result;
   }
 
   public boolean hasSomePrefetchedMessages() {
-    return consumer.getTotalIncomingMessages() > 0;
+    CompletableFuture<?> pending = pendingReceive.get();
+    return !batchBacklog.isEmpty()
+        || (pending != null ? pending.isDone() : consumer.getTotalIncomingMessages() > 0);
   }
 
-  synchronized Message receiveWithTimeoutAndValidateType(long timeout, Class expectedType)
-      throws JMSException {
-    checkNotClosed();
-    if (listener != null) {
-      throw new IllegalStateException("cannot receive if you have a messageListener");
-    }
-    // time to wait for the Connection to "start"
-    final int acquireConnectionStartTime =
-        timeout == Long.MAX_VALUE ? Integer.MAX_VALUE : (int) timeout;
-    // time to wait for each cycle
-    final int stepTimeout = timeout < 100 ? ((int) timeout) : 100;
-    final long start = System.currentTimeMillis();
-    return session.executeOperationIfConnectionStarted(
-        () -> {
-          do {
-            Message result =
-                session.executeCriticalOperation(
-                    () -> {
-                      try {
-                        Consumer<?> consumer = getConsumer();
-                        org.apache.pulsar.client.api.Message<?> message =
-                            consumer.receive(stepTimeout, TimeUnit.MILLISECONDS);
-                        if (message == null) {
-                          return null;
+  Message receiveWithTimeoutAndValidateType(long timeout, Class expectedType) throws JMSException {
+    synchronized (receiveLock) {
+      checkNotClosed();
+      synchronized (this) {
+        if (listener != null) {
+          throw new IllegalStateException("cannot receive if you have a messageListener");
+        }
+      }
+      final ConsumerBase<?> consumer = getConsumer();
+      session.flushAutoAcknowledgementsAndWait();
+      return receiveWhenStarted(
+          consumer,
+          timeout,
+          () -> {
+            org.apache.pulsar.client.api.Message<?> message;
+            while (!closed.get() && (message = pollMessage(consumer)) != null) {
+              final org.apache.pulsar.client.api.Message<?> received = message;
+              // handling the message blocks any concurrent "close()" of the session
+              Message result =
+                  session.executeCriticalOperation(
+                      () -> {
+                        try {
+                          return handleReceivedMessage(
+                              received, consumer, expectedType, null, noLocal);
+                        } catch (Exception err) {
+                          throw Utils.handleException(err);
                         }
-                        return handleReceivedMessage(
-                            message, consumer, expectedType, null, noLocal);
-                      } catch (Exception err) {
-                        throw Utils.handleException(err);
-                      }
-                    });
-            if (result != null) {
-              return result;
+                      });
+              if (result != null) {
+                return result;
+              }
             }
-          } while (System.currentTimeMillis() - start < timeout && !session.isClosed());
+            return null;
+          });
+    }
+  }
+
+  /**
+   * Executes a receive operation while the connection is started, and waits for the next message
+   * until the timeout expires.
+   *
+   * <p>The operation takes the messages that are available without waiting: the connection cannot
+   * be stopped while it hands them over. The wait happens outside of the connection lock, and it is
+   * woken up by {@link #close()} and by Connection#stop, then the receive waits for the connection
+   * to start again.
+   *
+   * @param timeout the timeout, in milliseconds
+   * @param operation the operation, that returns null if no message is available
+   * @return the result of the operation, null if the timeout expires or the consumer is closed
+   */
+  private <T> T receiveWhenStarted(
+      ConsumerBase<?> consumer, long timeout, PulsarSession.BlockCLoseOperation<T> operation)
+      throws JMSException {
+    final long start = System.currentTimeMillis();
+    final long deadline = timeout >= Long.MAX_VALUE - start ? Long.MAX_VALUE : start + timeout;
+    final AtomicBoolean started = new AtomicBoolean();
+    long remaining = timeout;
+    do {
+      CompletableFuture<Void> wakeUp = resetWakeUpSignal();
+      if (closed.get() || session.isClosed()) {
+        return null;
+      }
+      started.set(false);
+      T result =
+          session.executeOperationIfConnectionStarted(
+              () -> {
+                started.set(true);
+                return operation.execute();
+              },
+              (int) Math.min(remaining, Integer.MAX_VALUE));
+      if (result != null || !started.get()) {
+        // a message has been received, or the connection did not start in time
+        return result;
+      }
+      remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return null;
+      }
+      awaitMessage(consumer, wakeUp, remaining);
+      remaining = deadline - System.currentTimeMillis();
+    } while (remaining > 0);
+    return null;
+  }
 
+  /**
+   * Takes the next message without waiting: the messages left by a batch, then the message of the
+   * pending asynchronous receive, then the prefetched messages.
+   *
+   * @return the message, null if no message is available or the consumer is closed
+   */
+  private org.apache.pulsar.client.api.Message<?> pollMessage(ConsumerBase<?> consumer)
+      throws JMSException {
+    try {
+      org.apache.pulsar.client.api.Message<?> message = batchBacklog.poll();
+      if (message != null) {
+        return message;
+      }
+      CompletableFuture<? extends org.apache.pulsar.client.api.Message<?>> pending =
+          pendingReceive.get();
+      if (pending != null) {
+        // the internal consumer hands over the next message to the pending receive
+        if (!pending.isDone() || !pendingReceive.compareAndSet(pending, null)) {
           return null;
-        },
-        acquireConnectionStartTime);
+        }
+        return pending.join();
+      }
+      if (consumer.getTotalIncomingMessages() <= 0) {
+        return null;
+      }
+      return consumer.receive(0, TimeUnit.MILLISECONDS);
+    } catch (Exception err) {
+      if (closed.get() || session.isClosed()) {
+        // concurrently closed
+        return null;
+      }
+      throw Utils.handleException(err);
+    }
+  }
+
+  /**
+   * Waits until the next message is available, the timeout expires or the wait is woken up.
+   *
+   * <p>The wait is on the future of an asynchronous receive of the internal consumer. The future is
+   * kept for the next receive when the timeout expires, because the internal consumer dequeues the
+   * message before completing the future: cancelling it may drop the message.
+   */
+  private void awaitMessage(ConsumerBase<?> consumer, CompletableFuture<Void> wakeUp, long timeout)
+      throws JMSException {
+    CompletableFuture<? extends org.apache.pulsar.client.api.Message<?>> pending =
+        pendingReceive.get();
+    if (pending == null) {
+      pending = consumer.receiveAsync();
+      pendingReceive.set(pending);
+      if (closed.get()) {
+        // close() may have missed the new receive
+        releasePendingReceive(consumer);
+        return;
+      }
+    }
+    try {
+      CompletableFuture.anyOf(pending, wakeUp).get(timeout, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException | ExecutionException ok) {
+      // a failed receive is reported by pollMessage
+    } catch (InterruptedException err) {
+      throw Utils.handleException(err);
+    }
+  }
+
+  private CompletableFuture<Void> resetWakeUpSignal() {
+    CompletableFuture<Void> wakeUp = wakeUpSignal;
+    if (wakeUp.isDone()) {
+      wakeUp = new CompletableFuture<>();
+      wakeUpSignal = wakeUp;
+    }
+    return wakeUp;
+  }
+
+  /** Wakes up the receive that waits for a message, on close and on Connection#stop. */
+  void wakeUpReceive() {
+    wakeUpSignal.complete(null);
+  }
+
+  /**
+   * Cancels the pending asynchronous receive when the consumer is closed. A message that already
+   * completed it is negatively acknowledged. A message that the internal consumer drops because the
+   * future has been cancelled is still unacknowledged, the broker delivers it again when the
+   * internal consumer is closed.
+   */
+  private void releasePendingReceive(Consumer<?> consumer) {
+    CompletableFuture<? extends org.apache.pulsar.client.api.Message<?>> pending =
+        pendingReceive.getAndSet(null);
+    if (pending == null || pending.cancel(false) || pending.isCompletedExceptionally()) {
+      return;
+    }
+    if (consumer != null) {
+      negativeAcknowledge(consumer, pending.join());
+    }
+  }
+
+  /** Takes the message of the pending asynchronous receive, if it is already completed. */
+  private org.apache.pulsar.client.api.Message<?> pollCompletedReceive() {
+    CompletableFuture<? extends org.apache.pulsar.client.api.Message<?>> pending =
+        pendingReceive.get();
+    if (pending == null
+        || !pending.isDone()
+        || pending.isCompletedExceptionally()
+        || !pendingReceive.compareAndSet(pending, null)) {
+      return null;
+    }
+    return pending.join();
   }
 
   /**
@@ -395,7 +732,7 @@ public class PulsarMessageConsumer implements MessageConsumer, TopicSubscriber,
       if (log.isDebugEnabled()) {
         log.debug("nAck filtered msg {}", message.getMessageId());
       }
-      consumer.negativeAcknowledge(message);
+      negativeAcknowledge(consumer, message);
     }
   }
 
@@ -406,7 +743,69 @@ public class PulsarMessageConsumer implements MessageConsumer, TopicSubscriber,
       java.util.function.Consumer<PulsarMessage> listenerCode,
       boolean noLocalFilter)
       throws JMSException, org.apache.pulsar.client.api.PulsarClientException {
+    PulsarMessage result =
+        acceptReceivedMessage(message, consumer, expectedType, listenerCode, noLocalFilter);
+    if (result == null) {
+      return null;
+    }
+    if (session.getTransacted()) {
+      // open transaction now, the message will be acknowledged on commit()
+      session.getTransaction();
+    } else if (session.getAcknowledgeMode() == Session.AUTO_ACKNOWLEDGE) {
+      AcknowledgementBatcher batcher = session.getAutoAcknowledgeBatcher();
+      if (batcher != null) {
+        batcher.add(consumer, message.getMessageId());
+      } else {
+        consumer.acknowledge(message);
+      }
+    } else if (session.getAcknowledgeMode() == Session.DUPS_OK_ACKNOWLEDGE) {
+      consumer
+          .acknowledgeAsync(message)
+          .whenComplete(
+              (m, ex) -> {
+                if (ex != null) {
+                  log.error("Cannot acknowledge message {} {}", message, ex);
+                }
+              });
+    }
+    if (session.getAcknowledgeMode() != Session.CLIENT_ACKNOWLEDGE
+        && session.getAcknowledgeMode() != PulsarJMSConstants.INDIVIDUAL_ACKNOWLEDGE
+        && session.getAcknowledgeMode() != Session.SESSION_TRANSACTED) {
+      session.unregisterUnacknowledgedMessage(result);
+    }
+    if (requestClose.get()) {
+      closeInternal();
+    }
+    return result;
+  }
+
+  /**
+   * Decodes a message and applies the filters, then executes the listener.
+   *
+   * @return the message, null if the message is filtered out or negatively acknowledged by the
+   *     listener
+   */
+  private PulsarMessage acceptReceivedMessage(
+      org.apache.pulsar.client.api.Message<?> message,
+      Consumer<?> consumer,
+      Class expectedType,
+      java.util.function.Consumer<PulsarMessage> listenerCode,
+      boolean noLocalFilter)
+      throws JMSException, org.apache.pulsar.client.api.PulsarClientException {
     receivedMessages.incrementAndGet();
+    if (!pendingRedeliveries.isEmpty()) {
+      pendingRedeliveries.remove(message.getMessageId());
+    }
+    if (isCumulativeAcknowledgementAllowed()) {
+      MessageId messageId = message.getMessageId();
+      lastReceivedMessageId = messageId;
+      MessageId upTo = redeliveredUpTo;
+      if (upTo != null && upTo.compareTo(messageId) <= 0) {
+        // the messages are delivered again in order, the ones before this message have been
+        // received again, or they were acknowledged and they are not delivered again
+        redeliveredUpTo = null;
+      }
+    }
 
     PulsarMessage result = PulsarMessage.decode(this, consumer, message);
     if (expectedType != null && !result.isBodyAssignableTo(expectedType)) {
@@ -416,7 +815,7 @@ public class PulsarMessageConsumer implements MessageConsumer, TopicSubscriber,
             message,
             expectedType);
       }
-      consumer.negativeAcknowledge(message);
+      negativeAcknowledge(consumer, message);
       throw new MessageFormatException(
           "The message ("
               + result.messageType()
@@ -428,7 +827,7 @@ public class PulsarMessageConsumer implements MessageConsumer, TopicSubscriber,
     SelectorSupport selectorSupportOnSubscription =
         getSelectorSupportOnSubscription(message.getTopicName());
     if (selectorSupportOnSubscription != null
-        && requiresClientSideFiltering(message)
+        && requiresClientSideFiltering(message, selectorSupportOnSubscription, true)
         && !selectorSupportOnSubscription.matches(result)) {
       if (log.isDebugEnabled()) {
         log.debug(
@@ -445,7 +844,10 @@ public class PulsarMessageConsumer implements MessageConsumer, TopicSubscriber,
     }
     SelectorSupport selectorSupport = getSelectorSupport();
     if (selectorSupport != null
-        && requiresClientSideFiltering(message)
+        && requiresClientSideFiltering(
+            message,
+            selectorSupport,
+            destination.isTopic() || session.getFactory().isAcknowledgeRejectedMessages())
         && !selectorSupport.matches(result)) {
       if (log.isDebugEnabled()) {
         log.debug("msg {} does not match selector {}", result, selectorSupport.getSelector());
@@ -484,7 +886,7 @@ public class PulsarMessageConsumer implements MessageConsumer, TopicSubscriber,
         listenerCode.accept(result);
       } catch (Throwable t) {
         log.error("Listener thrown error, calling negativeAcknowledge", t);
-        consumer.negativeAcknowledge(message);
+        negativeAcknowledge(consumer, message);
         throw Utils.handleException(t);
       }
       if (result.isNegativeAcked()) {
@@ -492,39 +894,31 @@ public class PulsarMessageConsumer implements MessageConsumer, TopicSubscriber,
         return null;
       }
     }
-
-    if (session.getTransacted()) {
-      // open transaction now, the message will be acknowledged on commit()
-      session.getTransaction();
-    } else if (session.getAcknowledgeMode() == Session.AUTO_ACKNOWLEDGE) {
-      consumer.acknowledge(message);
-    } else if (session.getAcknowledgeMode() == Session.DUPS_OK_ACKNOWLEDGE) {
-      consumer
-          .acknowledgeAsync(message)
-          .whenComplete(
-              (m, ex) -> {
-                if (ex != null) {
-                  log.error("Cannot acknowledge message {} {}", message, ex);
-                }
-              });
-    }
-    if (session.getAcknowledgeMode() != Session.CLIENT_ACKNOWLEDGE
-        && session.getAcknowledgeMode() != PulsarJMSConstants.INDIVIDUAL_ACKNOWLEDGE
-        && session.getAcknowledgeMode() != Session.SESSION_TRANSACTED) {
-      session.unregisterUnacknowledgedMessage(result);
-    }
-    if (requestClose.get()) {
-      closeInternal();
-    }
     return result;
   }
 
-  private boolean requiresClientSideFiltering(org.apache.pulsar.client.api.Message<?> message) {
+  /**
+   * @param droppedByBroker if the broker drops the messages that do not match the selector, instead
+   *     of delivering them to another consumer
+   */
+  private boolean requiresClientSideFiltering(
+      org.apache.pulsar.client.api.Message<?> message,
+      SelectorSupport selector,
+      boolean droppedByBroker) {
+    if (selector.isXPath()) {
+      // the broker cannot read the body of the message, it accepts it
+      return true;
+    }
+    if (!session.getFactory().isUseServerSideFiltering()) {
+      return true;
+    }
     // for batch messages we have to verify the condition locally
     // because the broker can only ACCEPT or REJECT whole batches.
-    // the broker will send the batch (Entry) if at least one message matches the selector
+    // the broker will send the batch (Entry) if at least one message matches the selector,
+    // unless it acknowledges the messages of the batch that it drops
+    // (jms.useServerSideBatchIndexFiltering and batch index acknowledgement on the broker)
     boolean isBatch = (message.getMessageId() instanceof BatchMessageIdImpl);
-    return isBatch || !session.getFactory().isUseServerSideFiltering();
+    return isBatch && !(serverSideBatchIndexFiltering && droppedByBroker);
   }
 
   /**
@@ -558,11 +952,14 @@ public class PulsarMessageConsumer implements MessageConsumer, TopicSubscriber,
     if (!closed.compareAndSet(false, true)) {
       return;
     }
+    wakeUpReceive();
 
     Consumer<?> consumer = getInternalConsumer();
     if (consumer == null) {
       return;
     }
+    releasePendingReceive(consumer);
+    session.flushAutoAcknowledgements();
     if (!session.isTransactionStarted()) {
       session.executeCriticalOperation(
           () -> {
@@ -644,6 +1041,48 @@ public class PulsarMessageConsumer implements MessageConsumer, TopicSubscriber,
     }
   }
 
+  /**
+   * Acknowledges the messages received from a consumer, in the order of reception.
+   *
+   * <p>On an Exclusive or Failover subscription of a non-partitioned topic the messages are
+   * delivered in order, so the longest run of increasing ids that does not cover a message to be
+   * delivered again is acknowledged with one cumulative acknowledgement. The other messages are
+   * acknowledged with a single request.
+   */
+  void acknowledge(List<PulsarMessage> messages, Consumer<?> consumer) throws JMSException {
+    List<MessageId> messageIds = new ArrayList<>(messages.size());
+    for (PulsarMessage message : messages) {
+      messageIds.add(message.getReceivedPulsarMessage().getMessageId());
+    }
+    int cumulative = 0;
+    if (isCumulativeAcknowledgementAllowed()
+        && redeliveredUpTo == null
+        && consumer instanceof ConsumerImpl) {
+      MessageId firstRedelivery =
+          pendingRedeliveries.isEmpty() ? null : pendingRedeliveries.first();
+      MessageId previous = null;
+      for (MessageId messageId : messageIds) {
+        if ((previous != null && previous.compareTo(messageId) >= 0)
+            || (firstRedelivery != null && firstRedelivery.compareTo(messageId) <= 0)) {
+          break;
+        }
+        previous = messageId;
+        cumulative++;
+      }
+    }
+    try {
+      if (cumulative > 1) {
+        consumer.acknowledgeCumulative(messageIds.get(cumulative - 1));
+        messageIds = messageIds.subList(cumulative, messageIds.size());
+      }
+      if (!messageIds.isEmpty()) {
+        consumer.acknowledge(messageIds);
+      }
+    } catch (PulsarClientException err) {
+      throw Utils.handleException(err);
+    }
+  }
+
   void runListenerNoWait() {
     runListener(0);
   }
@@ -670,22 +1109,24 @@ public class PulsarMessageConsumer implements MessageConsumer, TopicSubscriber,
                 () -> {
                   try {
                     ConsumerBase<?> consumer = getConsumer();
-                    if (timeout == 0) { // we don't want to wait
-                      if (consumer.getTotalIncomingMessages() <= 0) {
-                        return false;
-                      } else {
-                        // this is the same thing that happens in ConsumerBase
-                        // in the native Pulsar client
-                        // process all the messages in the internal buffer
-                        // timeout is zero, but we know that there are messages
-                        // in the internal queue
-                      }
+                    CompletableFuture<Void> wakeUp = resetWakeUpSignal();
+                    // a receive that timed out before the listener was set may hold the
+                    // next message
+                    org.apache.pulsar.client.api.Message<?> message = pollMessage(consumer);
+                    if (message == null && timeout > 0) {
+                      awaitMessage(consumer, wakeUp, timeout);
+                      message = pollMessage(consumer);
                     }
-                    org.apache.pulsar.client.api.Message<?> message =
-                        consumer.receive(timeout, TimeUnit.MILLISECONDS);
                     if (message == null) {
+                      session.flushAutoAcknowledgements();
                       return false;
                     }
+                    try {
+                      session.flushAutoAcknowledgementsAndWait();
+                    } catch (JMSException err) {
+                      negativeAcknowledge(consumer, message);
+                      throw err;
+                    }
                     handleReceivedMessage(
                         message, consumer, null, messageListener::onMessage, noLocal);
                     return true;
@@ -723,9 +1164,12 @@ public class PulsarMessageConsumer implements MessageConsumer, TopicSubscriber,
     if (!closed.compareAndSet(false, true)) {
       return;
     }
+    wakeUpReceive();
     requestClose.set(false);
     try {
       if (consumer != null) {
+        releasePendingReceive(consumer);
+        session.flushAutoAcknowledgements();
         consumer.close();
         consumer = null;
       }
@@ -740,16 +1184,54 @@ public class PulsarMessageConsumer implements MessageConsumer, TopicSubscriber,
 
   public void negativeAck(org.apache.pulsar.client.api.Message<?> message) {
     if (consumer != null) {
-      consumer.negativeAcknowledge(message);
+      negativeAcknowledge(consumer, message);
     }
   }
 
+  private void negativeAcknowledge(
+      Consumer<?> consumer, org.apache.pulsar.client.api.Message<?> message) {
+    expectRedelivery(message.getMessageId());
+    consumer.negativeAcknowledge(message);
+  }
+
+  /**
+   * The broker delivers the message again, after a negative acknowledgement or the ack timeout: a
+   * cumulative acknowledgement must not cover it until it is received.
+   */
+  void expectRedelivery(MessageId messageId) {
+    if (isCumulativeAcknowledgementAllowed()) {
+      pendingRedeliveries.add(messageId);
+    }
+  }
+
+  private boolean isCumulativeAcknowledgementAllowed() {
+    return subscriptionType == SubscriptionType.Exclusive
+        || subscriptionType == SubscriptionType.Failover;
+  }
+
   void redeliverUnacknowledgedMessages() {
+    // the broker sends these messages again
+    batchBacklog.clear();
+    pollCompletedReceive();
+    // the messages after the last received one were never delivered to the application
+    redeliveredUpTo = lastReceivedMessageId;
     if (consumer != null) {
       consumer.redeliverUnacknowledgedMessages();
     }
   }
 
+  void negativeAcknowledgeBatchBacklog() {
+    // these messages were not delivered yet, they come back with the recovered ones
+    org.apache.pulsar.client.api.Message<?> message;
+    while ((message = batchBacklog.poll()) != null) {
+      negativeAcknowledge(consumer, message);
+    }
+    message = pollCompletedReceive();
+    if (message != null) {
+      negativeAcknowledge(consumer, message);
+    }
+  }
+
   PulsarSession getSession() {
     return session;
   }
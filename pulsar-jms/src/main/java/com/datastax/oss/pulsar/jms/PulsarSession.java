@@ -25,7 +25,7 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -115,7 +115,9 @@ public class PulsarSession implements Session, QueueSession, TopicSession {
   Transaction transaction;
   private MessageListener messageListener;
   private final ReentrantReadWriteLock closeLock = new ReentrantReadWriteLock();
-  private final List<PulsarMessage> unackedMessages = new ArrayList<>();
+  private final UnacknowledgedMessages<PulsarMessage> unackedMessages =
+      new UnacknowledgedMessages<>(
+          PulsarMessage::getConsumer, m -> m.getReceivedPulsarMessage().getMessageId());
   private final Map<String, PulsarDestination> destinationBySubscription = new HashMap<>();
   private volatile boolean closed;
   private final boolean useDedicatedListenerThread;
@@ -141,6 +143,9 @@ public class PulsarSession implements Session, QueueSession, TopicSession {
   private final AtomicReference<Runnable> connectionConsumerPostProcessingTask =
       new AtomicReference<>();
 
+  // null if the messages are acknowledged one at a time
+  private final AcknowledgementBatcher autoAcknowledgeBatcher;
+
   PulsarSession(
       int sessionMode,
       PulsarConnection connection,
@@ -165,6 +170,13 @@ public class PulsarSession implements Session, QueueSession, TopicSession {
     PulsarConnectionFactory factory = getFactory();
     this.enableJMSPriority = factory.isEnableJMSPriority();
     this.useDedicatedListenerThread = factory.getSessionListenersThreads() <= 0;
+    this.autoAcknowledgeBatcher =
+        sessionMode == Session.AUTO_ACKNOWLEDGE && factory.getAutoAcknowledgeBatchSize() > 0
+            ? new AcknowledgementBatcher(
+                factory.getAutoAcknowledgeBatchSize(),
+                factory.getAutoAcknowledgeMaxDelayMs(),
+                factory.getPulsarClientTimer())
+            : null;
     if (transacted && factory.isTransactionsStickyPartitions()) {
       generateNewTransactionStickyKey();
     }
@@ -568,22 +580,17 @@ public class PulsarSession implements Session, QueueSession, TopicSession {
       beginTransactionOperation();
       try {
         if (emulateTransactions) {
-          synchronized (unackedMessages) {
-            // we are postponing to this moment the acknowledgment
-            for (PulsarMessage msg : new ArrayList<>(unackedMessages)) {
-              msg.acknowledgeInternal();
-            }
-            unackedMessages.clear();
+          // we are postponing to this moment the acknowledgment
+          for (PulsarMessage msg : unackedMessages.getAll()) {
+            msg.acknowledgeInternal();
           }
+          unackedMessages.clear();
         }
         if (transaction != null) {
           // we are postponing to this moment the acknowledgment
           List<CompletableFuture<?>> handles = new ArrayList<>();
-          synchronized (unackedMessages) {
-            for (PulsarMessage msg : new ArrayList<>(unackedMessages)) {
-              handles.add(msg.acknowledgeInternalInTransaction(transaction));
-            }
-            unackedMessages.clear();
+          for (PulsarMessage msg : unackedMessages.removeAll()) {
+            handles.add(msg.acknowledgeInternalInTransaction(transaction));
           }
           handles.add(transaction.commit());
           Utils.get(CompletableFuture.allOf(handles.toArray(new CompletableFuture<?>[0])));
@@ -647,9 +654,7 @@ public class PulsarSession implements Session, QueueSession, TopicSession {
         consumer.closeDuringRollback();
       }
     }
-    synchronized (unackedMessages) {
-      unackedMessages.clear();
-    }
+    unackedMessages.clear();
     if (transaction != null) {
       Utils.get(transaction.abort());
     }
@@ -721,9 +726,8 @@ public class PulsarSession implements Session, QueueSession, TopicSession {
       if (transacted && transaction != null) {
         rollbackInternal();
       }
-      synchronized (unackedMessages) {
-        unackedMessages.clear();
-      }
+      flushAutoAcknowledgements();
+      unackedMessages.clear();
       for (PulsarMessageConsumer consumer : consumers) {
         consumer.closeInternal();
       }
@@ -779,11 +783,13 @@ public class PulsarSession implements Session, QueueSession, TopicSession {
     if (transacted) {
       throw new IllegalStateException("cannot call this method inside a transacted session");
     }
-    synchronized (unackedMessages) {
-      for (PulsarMessage msg : unackedMessages) {
-        msg.negativeAck();
-      }
-      unackedMessages.clear();
+    // the messages already delivered in AUTO_ACKNOWLEDGE mode are not delivered again
+    flushAutoAcknowledgements();
+    for (PulsarMessage msg : unackedMessages.removeAll()) {
+      msg.negativeAck();
+    }
+    for (PulsarMessageConsumer consumer : consumers) {
+      consumer.negativeAcknowledgeBatchBacklog();
     }
   }
 
@@ -1822,39 +1828,66 @@ public class PulsarSession implements Session, QueueSession, TopicSession {
    */
   void acknowledgeAllMessages() throws JMSException {
     checkNotClosed();
-    synchronized (unackedMessages) {
-      for (PulsarMessage unackedMessage : new ArrayList<>(unackedMessages)) {
-        unackedMessage.acknowledgeInternal();
+    // one acknowledgement per consumer, see PulsarMessageConsumer#acknowledge(List, Consumer)
+    for (List<PulsarMessage> messages : unackedMessages.getAllByConsumer()) {
+      // the messages of a JMS consumer may come from different Pulsar consumers,
+      // each message is acknowledged on the consumer that received it
+      Map<Consumer<?>, List<PulsarMessage>> byPulsarConsumer = new IdentityHashMap<>();
+      for (PulsarMessage message : messages) {
+        if (!message.isNegativeAcked()) {
+          byPulsarConsumer
+              .computeIfAbsent(message.getPulsarConsumer(), c -> new ArrayList<>())
+              .add(message);
+        }
+      }
+      for (Map.Entry<Consumer<?>, List<PulsarMessage>> toAcknowledge :
+          byPulsarConsumer.entrySet()) {
+        List<PulsarMessage> list = toAcknowledge.getValue();
+        list.get(0).getConsumer().acknowledge(list, toAcknowledge.getKey());
+      }
+      for (PulsarMessage message : messages) {
+        unackedMessages.remove(message);
       }
-      unackedMessages.clear();
     }
   }
 
-  void registerUnacknowledgedMessage(PulsarMessage result) {
-    synchronized (unackedMessages) {
-      unackedMessages.add(result);
+  /** @return the batcher of the acknowledgements, null if they are sent one at a time */
+  AcknowledgementBatcher getAutoAcknowledgeBatcher() {
+    return autoAcknowledgeBatcher;
+  }
+
+  /** Sends the pending acknowledgements of the messages received in AUTO_ACKNOWLEDGE mode. */
+  void flushAutoAcknowledgements() {
+    if (autoAcknowledgeBatcher != null) {
+      autoAcknowledgeBatcher.flush();
     }
   }
 
-  void unregisterUnacknowledgedMessage(PulsarMessage result) {
-    synchronized (unackedMessages) {
-      unackedMessages.remove(result);
+  /**
+   * Sends the pending acknowledgements of the messages received in AUTO_ACKNOWLEDGE mode and waits
+   * for them: the acknowledgements of the messages already delivered are visible to the broker
+   * before the next message is delivered.
+   */
+  void flushAutoAcknowledgementsAndWait() throws JMSException {
+    if (autoAcknowledgeBatcher != null) {
+      autoAcknowledgeBatcher.flushAndWait();
     }
   }
 
+  void registerUnacknowledgedMessage(PulsarMessage result) {
+    unackedMessages.add(result);
+  }
+
+  void unregisterUnacknowledgedMessage(PulsarMessage result) {
+    unackedMessages.remove(result);
+  }
+
   void removeConsumer(PulsarMessageConsumer consumer) {
     Consumer<?> pulsarConsumer = consumer.getInternalConsumer();
     if (pulsarConsumer != null) {
       consumers.remove(consumer);
       getFactory().removeConsumer(pulsarConsumer);
-      synchronized (unackedMessages) {
-        for (Iterator<PulsarMessage> it = unackedMessages.iterator(); it.hasNext(); ) {
-          PulsarMessage message = it.next();
-          if (message != null && message.isReceivedFromConsumer(consumer)) {
-            it.remove();
-          }
-        }
-      }
+      unackedMessages.removeConsumer(consumer);
     }
     if (consumer.unregisterSubscriptionOnClose) {
       unregisterSubscriptionName(consumer.subscriptionName, (Topic) consumer.getDestination());
@@ -1870,6 +1903,13 @@ public class PulsarSession implements Session, QueueSession, TopicSession {
     connection.setAllowSetClientId(false);
   }
 
+  /** Wakes up the receives that wait for a message, they wait for the connection to start. */
+  void wakeUpReceives() {
+    for (PulsarMessageConsumer consumer : consumers) {
+      consumer.wakeUpReceive();
+    }
+  }
+
   public boolean isJms20() {
     return jms20;
   }
@@ -2087,22 +2127,11 @@ public class PulsarSession implements Session, QueueSession, TopicSession {
       if (log.isDebugEnabled()) {
         log.debug("onAckTimeoutSend {}", messageIds);
       }
-      synchronized (unackedMessages) {
-        for (Iterator<PulsarMessage> it = unackedMessages.iterator(); it.hasNext(); ) {
-          PulsarMessage msg = it.next();
-          MessageId messageId = msg.getReceivedPulsarMessage().getMessageId();
-          for (MessageId id : messageIds) {
-            // in Pulsar 2.10 the MessageIds are always MessageIdImpl and they don't contain the
-            // "batchIndex"
-            // this is because the DLQ works at Entry level and not at Message level
-            boolean found = Utils.sameEntryId(id, messageId);
-            if (found) {
-              it.remove();
-              break;
-            }
-          }
-          // continue scanning the full list of unackedMessages
-        }
+      // in Pulsar 2.10 the MessageIds are always MessageIdImpl and they don't contain the
+      // "batchIndex"
+      // this is because the DLQ works at Entry level and not at Message level
+      for (PulsarMessage msg : unackedMessages.removeEntries(messageIds)) {
+        msg.getConsumer().expectRedelivery(msg.getReceivedPulsarMessage().getMessageId());
       }
     }
 
@@ -0,0 +1,260 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.MessageIdAdv;
+
+/**
+ * The messages delivered to the application and not acknowledged yet, by consumer.
+ *
+ * <p>Each consumer has its own lock, so the listeners of the consumers of a session do not contend.
+ * The messages are indexed by identity and by entry: registering or removing a message, evicting
+ * the messages of a consumer and finding the messages of the entries that hit the ack timeout do
+ * not scan the other messages. The messages of a consumer are kept in the order of reception.
+ *
+ * @param <T> the type of the messages, compared by identity
+ */
+final class UnacknowledgedMessages<T> {
+
+  private final Function<T, Object> consumerOf;
+  private final Function<T, MessageId> messageIdOf;
+  private final ConcurrentHashMap<Object, Messages<T>> byConsumer = new ConcurrentHashMap<>();
+  // the consumers are not retained once they are no longer referenced by the application
+  private final Set<Object> removedConsumers =
+      Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+  /**
+   * @param consumerOf the consumer that received a message
+   * @param messageIdOf the id of a message
+   */
+  UnacknowledgedMessages(Function<T, Object> consumerOf, Function<T, MessageId> messageIdOf) {
+    this.consumerOf = consumerOf;
+    this.messageIdOf = messageIdOf;
+  }
+
+  /**
+   * Registers a message.
+   *
+   * @return false if the consumer has been removed, the message is not registered
+   * @throws IllegalArgumentException if the message has no consumer
+   */
+  boolean add(T message) {
+    Object consumer = consumerOf.apply(message);
+    if (consumer == null) {
+      throw new IllegalArgumentException("The message " + message + " has no consumer");
+    }
+    EntryId entryId = EntryId.of(messageIdOf.apply(message));
+    // the same key is never computed concurrently, this is atomic with removeConsumer
+    Messages<T> result =
+        byConsumer.compute(
+            consumer,
+            (c, messages) -> {
+              if (messages == null) {
+                if (removedConsumers.contains(c)) {
+                  return null;
+                }
+                messages = new Messages<>();
+              }
+              messages.add(message, entryId);
+              return messages;
+            });
+    return result != null;
+  }
+
+  void remove(T message) {
+    Object consumer = consumerOf.apply(message);
+    if (consumer == null) {
+      // never registered
+      return;
+    }
+    Messages<T> messages = byConsumer.get(consumer);
+    if (messages != null) {
+      messages.remove(message, EntryId.of(messageIdOf.apply(message)));
+    }
+  }
+
+  /** @return all the messages, the messages of a consumer in the order of reception */
+  List<T> getAll() {
+    List<T> result = new ArrayList<>();
+    for (Messages<T> messages : byConsumer.values()) {
+      messages.copyTo(result);
+    }
+    return result;
+  }
+
+  /** @return the messages of each consumer, in the order of reception */
+  List<List<T>> getAllByConsumer() {
+    List<List<T>> result = new ArrayList<>();
+    for (Messages<T> messages : byConsumer.values()) {
+      List<T> copy = new ArrayList<>();
+      messages.copyTo(copy);
+      if (!copy.isEmpty()) {
+        result.add(copy);
+      }
+    }
+    return result;
+  }
+
+  /** Removes all the messages, the ones added meanwhile are kept. */
+  List<T> removeAll() {
+    List<T> result = new ArrayList<>();
+    for (Messages<T> messages : byConsumer.values()) {
+      messages.drainTo(result);
+    }
+    return result;
+  }
+
+  void clear() {
+    for (Messages<T> messages : byConsumer.values()) {
+      messages.drainTo(null);
+    }
+  }
+
+  /**
+   * Removes the messages of a consumer that is closed. The messages that the consumer receives
+   * later are not registered.
+   */
+  void removeConsumer(Object consumer) {
+    byConsumer.compute(
+        consumer,
+        (c, messages) -> {
+          removedConsumers.add(c);
+          if (messages != null) {
+            messages.drainTo(null);
+          }
+          return null;
+        });
+  }
+
+  /**
+   * Removes the messages of some entries, of all the consumers.
+   *
+   * @param messageIds the ids of the entries, only the ledgerId and the entryId are considered
+   * @return the removed messages
+   */
+  List<T> removeEntries(Collection<MessageId> messageIds) {
+    List<T> result = new ArrayList<>();
+    if (byConsumer.isEmpty()) {
+      return result;
+    }
+    for (MessageId messageId : messageIds) {
+      EntryId entryId = EntryId.of(messageId);
+      for (Messages<T> messages : byConsumer.values()) {
+        messages.removeEntry(entryId, result);
+      }
+    }
+    return result;
+  }
+
+  int size() {
+    int size = 0;
+    for (Messages<T> messages : byConsumer.values()) {
+      size += messages.size();
+    }
+    return size;
+  }
+
+  private static final class Messages<T> {
+    // the messages do not override equals, so this is an identity set
+    private final LinkedHashSet<T> messages = new LinkedHashSet<>();
+    private final Map<EntryId, List<T>> byEntry = new HashMap<>();
+
+    synchronized void add(T message, EntryId entryId) {
+      if (messages.add(message)) {
+        byEntry.computeIfAbsent(entryId, e -> new ArrayList<>(1)).add(message);
+      }
+    }
+
+    synchronized void remove(T message, EntryId entryId) {
+      if (messages.remove(message)) {
+        List<T> sameEntry = byEntry.get(entryId);
+        sameEntry.remove(message);
+        if (sameEntry.isEmpty()) {
+          byEntry.remove(entryId);
+        }
+      }
+    }
+
+    synchronized void removeEntry(EntryId entryId, List<T> result) {
+      List<T> sameEntry = byEntry.remove(entryId);
+      if (sameEntry != null) {
+        messages.removeAll(sameEntry);
+        result.addAll(sameEntry);
+      }
+    }
+
+    synchronized void copyTo(List<T> result) {
+      result.addAll(messages);
+    }
+
+    synchronized void drainTo(List<T> result) {
+      if (result != null) {
+        result.addAll(messages);
+      }
+      messages.clear();
+      byEntry.clear();
+    }
+
+    synchronized int size() {
+      return messages.size();
+    }
+  }
+
+  private static final class EntryId {
+    private final long ledgerId;
+    private final long entryId;
+
+    private EntryId(long ledgerId, long entryId) {
+      this.ledgerId = ledgerId;
+      this.entryId = entryId;
+    }
+
+    static EntryId of(MessageId messageId) {
+      // like Utils.sameEntryId, this gets rid of TopicMessageIdImpl and of the batch index
+      MessageIdAdv id = (MessageIdAdv) messageId;
+      return new EntryId(id.getLedgerId(), id.getEntryId());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof EntryId)) {
+        return false;
+      }
+      EntryId other = (EntryId) o;
+      return ledgerId == other.ledgerId && entryId == other.entryId;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Long.hashCode(ledgerId) + Long.hashCode(entryId);
+    }
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import javax.jms.JMSException;
+import org.apache.pulsar.client.api.Consumer;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.impl.MessageIdImpl;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.Test;
+
+public class AcknowledgementBatcherTest {
+
+  @Test
+  public void testFlushBySize() {
+    List<List<MessageId>> acks1 = new ArrayList<>();
+    List<List<MessageId>> acks2 = new ArrayList<>();
+    Consumer<?> consumer1 = newConsumer(acks1);
+    Consumer<?> consumer2 = newConsumer(acks2);
+    AcknowledgementBatcher batcher = new AcknowledgementBatcher(3, Long.MAX_VALUE, null);
+
+    batcher.add(consumer1, id(1));
+    batcher.add(consumer2, id(2));
+    assertEquals(2, batcher.getNumPending());
+    assertTrue(acks1.isEmpty());
+
+    // one acknowledgement per consumer
+    batcher.add(consumer1, id(3));
+    assertEquals(0, batcher.getNumPending());
+    assertEquals(Collections.singletonList(Arrays.asList(id(1), id(3))), acks1);
+    assertEquals(Collections.singletonList(Collections.singletonList(id(2))), acks2);
+
+    batcher.add(consumer2, id(4));
+    batcher.flush();
+    assertEquals(1, acks1.size());
+    assertEquals(
+        Arrays.asList(Collections.singletonList(id(2)), Collections.singletonList(id(4))), acks2);
+
+    // nothing to send
+    batcher.flush();
+    assertEquals(2, acks2.size());
+  }
+
+  @Test
+  public void testFlushByTime() throws Exception {
+    List<List<MessageId>> acks = new ArrayList<>();
+    Consumer<?> consumer = newConsumer(acks);
+    AcknowledgementBatcher batcher = new AcknowledgementBatcher(1000, 50, null);
+
+    batcher.add(consumer, id(1));
+    assertEquals(1, batcher.getNumPending());
+    Thread.sleep(100);
+    batcher.add(consumer, id(2));
+    assertEquals(0, batcher.getNumPending());
+    assertEquals(Collections.singletonList(Arrays.asList(id(1), id(2))), acks);
+  }
+
+  @Test
+  public void testScheduledFlush() throws Exception {
+    List<List<MessageId>> acks = Collections.synchronizedList(new ArrayList<>());
+    Consumer<?> consumer = newConsumer(acks);
+    ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    try {
+      AcknowledgementBatcher batcher = new AcknowledgementBatcher(1000, 50, timer);
+
+      // no other acknowledgement is added, the timer sends it
+      batcher.add(consumer, id(1));
+      Awaitility.await().untilAsserted(() -> assertEquals(0, batcher.getNumPending()));
+      assertEquals(Collections.singletonList(Collections.singletonList(id(1))), acks);
+
+      // a flush cancels the timer
+      batcher.add(consumer, id(2));
+      batcher.flush();
+      Thread.sleep(100);
+      assertEquals(2, acks.size());
+    } finally {
+      timer.shutdown();
+    }
+  }
+
+  @Test
+  public void testFlushAndWait() throws Exception {
+    List<List<MessageId>> acks = Collections.synchronizedList(new ArrayList<>());
+    CompletableFuture<Void> acknowledged = new CompletableFuture<>();
+    Consumer<?> consumer = newConsumer(acks, new ArrayList<>(), acknowledged);
+    AcknowledgementBatcher batcher = new AcknowledgementBatcher(1000, Long.MAX_VALUE, null);
+
+    batcher.add(consumer, id(1));
+    CompletableFuture<Void> flushed =
+        CompletableFuture.runAsync(() -> Utils.noException(batcher::flushAndWait));
+    Awaitility.await().untilAsserted(() -> assertEquals(1, acks.size()));
+    // the flush waits for the acknowledgement
+    Thread.sleep(100);
+    assertFalse(flushed.isDone());
+
+    acknowledged.complete(null);
+    flushed.get();
+
+    // nothing to wait for
+    batcher.flushAndWait();
+    assertEquals(1, acks.size());
+  }
+
+  @Test
+  public void testFailedAcknowledgement() throws Exception {
+    List<List<MessageId>> acks = new ArrayList<>();
+    List<MessageId> nacks = new ArrayList<>();
+    CompletableFuture<Void> acknowledged = new CompletableFuture<>();
+    acknowledged.completeExceptionally(new RuntimeException("broken"));
+    Consumer<?> consumer = newConsumer(acks, nacks, acknowledged);
+    AcknowledgementBatcher batcher = new AcknowledgementBatcher(2, 0, null);
+
+    batcher.add(consumer, id(1));
+    assertEquals(0, batcher.getNumPending());
+    assertEquals(1, acks.size());
+    // the message is delivered again
+    assertEquals(Collections.singletonList(id(1)), nacks);
+
+    // the next receive fails
+    assertThrows(JMSException.class, batcher::flushAndWait);
+    // the failure is reported once
+    batcher.flushAndWait();
+  }
+
+  private static Consumer<?> newConsumer(List<List<MessageId>> acks) {
+    return newConsumer(acks, new ArrayList<>(), CompletableFuture.completedFuture(null));
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Consumer<?> newConsumer(
+      List<List<MessageId>> acks, List<MessageId> nacks, CompletableFuture<Void> result) {
+    return (Consumer<?>)
+        Proxy.newProxyInstance(
+            Consumer.class.getClassLoader(),
+            new Class<?>[] {Consumer.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "acknowledgeAsync":
+                  acks.add(new ArrayList<>((List<MessageId>) args[0]));
+                  return result;
+                case "negativeAcknowledge":
+                  nacks.add((MessageId) args[0]);
+                  return null;
+                case "hashCode":
+                  return System.identityHashCode(proxy);
+                case "equals":
+                  return proxy == args[0];
+                case "toString":
+                  return "consumer";
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+
+  private static MessageId id(long entryId) {
+    return new MessageIdImpl(1, entryId, -1);
+  }
+}
@@ -23,7 +23,9 @@ import static org.junit.jupiter.api.Assertions.fail;
 import com.datastax.oss.pulsar.jms.utils.PulsarCluster;
 import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import javax.jms.CompletionListener;
 import javax.jms.Connection;
@@ -36,6 +38,7 @@ import javax.jms.MessageProducer;
 import javax.jms.Queue;
 import javax.jms.Session;
 import javax.jms.TextMessage;
+import javax.jms.Topic;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.pulsar.client.impl.BatchMessageIdImpl;
 import org.junit.jupiter.api.AfterAll;
@@ -95,6 +98,55 @@ public class AcknowledgementModeTest {
     }
   }
 
+  @Test
+  public void testAUTO_ACKNOWLEDGE_batchedAcknowledgements() throws Exception {
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("webServiceUrl", cluster.getAddress());
+    properties.put("jms.autoAcknowledgeBatchSize", "100");
+    // the timer never sends the acknowledgements during the test
+    properties.put("jms.autoAcknowledgeMaxDelayMs", "600000");
+    Map<String, Object> consumerConfig = new HashMap<>();
+    consumerConfig.put("ackReceiptEnabled", true);
+    properties.put("consumerConfig", consumerConfig);
+    try (PulsarConnectionFactory factory = new PulsarConnectionFactory(properties); ) {
+      try (Connection connection = factory.createConnection()) {
+        connection.start();
+        try (Session session = connection.createSession(Session.AUTO_ACKNOWLEDGE); ) {
+          String topicName = "persistent://public/default/test-" + UUID.randomUUID();
+          Topic destination = session.createTopic(topicName);
+          try (MessageConsumer consumer = session.createSharedDurableConsumer(destination, "sub1");
+              MessageProducer producer = session.createProducer(destination); ) {
+            for (int i = 0; i < 3; i++) {
+              producer.send(session.createTextMessage("foo" + i));
+            }
+
+            assertEquals("foo0", consumer.receive().getBody(String.class));
+            // the acknowledgement is pending
+            assertEquals(3, getBacklog(topicName, "sub1"));
+
+            // the next receive sends the pending acknowledgement and waits for it
+            assertEquals("foo1", consumer.receive().getBody(String.class));
+            assertEquals(2, getBacklog(topicName, "sub1"));
+
+            assertEquals("foo2", consumer.receiveNoWait().getBody(String.class));
+            assertEquals(1, getBacklog(topicName, "sub1"));
+          }
+        }
+      }
+    }
+  }
+
+  private static long getBacklog(String topicName, String subscriptionName) throws Exception {
+    return cluster
+        .getService()
+        .getAdminClient()
+        .topics()
+        .getStats(topicName)
+        .getSubscriptions()
+        .get(subscriptionName)
+        .getMsgBacklog();
+  }
+
   @Test
   public void testAUTO_ACKNOWLEDGE_ackReceipt() throws Exception {
     Map<String, Object> properties = new HashMap<>();
@@ -223,6 +275,54 @@ public class AcknowledgementModeTest {
     }
   }
 
+  @Test
+  public void testCLIENT_ACKNOWLEDGECumulativeOnExclusiveSubscription() throws Exception {
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("webServiceUrl", cluster.getAddress());
+    Map<String, Object> consumerConfig = new HashMap<>();
+    // deliver again the recovered messages after the other ones
+    consumerConfig.put("negativeAckRedeliveryDelayMicros", 500_000L);
+    properties.put("consumerConfig", consumerConfig);
+    try (PulsarConnectionFactory factory = new PulsarConnectionFactory(properties); ) {
+      try (Connection connection = factory.createConnection()) {
+        connection.setClientID("clientId");
+        connection.start();
+        try (Session session = connection.createSession(Session.CLIENT_ACKNOWLEDGE); ) {
+          Topic destination =
+              session.createTopic("persistent://public/default/test-" + UUID.randomUUID());
+
+          try (MessageConsumer consumer = session.createDurableConsumer(destination, "sub"); ) {
+            try (MessageProducer producer = session.createProducer(destination); ) {
+              for (int i = 0; i < 100; i++) {
+                producer.send(session.createTextMessage("foo" + i));
+              }
+            }
+
+            // the first messages are delivered again after recover
+            for (int i = 0; i < 10; i++) {
+              assertEquals("foo" + i, consumer.receive().getBody(String.class));
+            }
+            session.recover();
+
+            Set<String> received = new HashSet<>();
+            Message last = null;
+            while (received.size() < 100) {
+              last = consumer.receive();
+              received.add(last.getBody(String.class));
+            }
+            // one cumulative acknowledgement
+            last.acknowledge();
+          }
+
+          // no more messages
+          try (MessageConsumer consumer = session.createDurableConsumer(destination, "sub"); ) {
+            assertNull(consumer.receive(100));
+          }
+        }
+      }
+    }
+  }
+
   @Test
   public void testINDIVIDUAL_ACKNOWLEDGE() throws Exception {
     Map<String, Object> properties = new HashMap<>();
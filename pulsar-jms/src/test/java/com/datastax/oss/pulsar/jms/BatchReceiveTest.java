@@ -0,0 +1,214 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.datastax.oss.pulsar.jms.utils.PulsarCluster;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import javax.jms.Connection;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+@Slf4j
+public class BatchReceiveTest {
+
+  @TempDir public static Path tempDir;
+  private static PulsarCluster cluster;
+
+  @BeforeAll
+  public static void before() throws Exception {
+    cluster = new PulsarCluster(tempDir);
+    cluster.start();
+  }
+
+  @AfterAll
+  public static void after() throws Exception {
+    if (cluster != null) {
+      cluster.close();
+    }
+  }
+
+  private static Map<String, Object> buildProperties() {
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("webServiceUrl", cluster.getAddress());
+    properties.put("enableTransaction", "true");
+    Map<String, Object> consumerConfig = new HashMap<>();
+    // the first message is received alone, the policy takes the other 9 messages at once
+    Map<String, Object> batchReceivePolicy = new HashMap<>();
+    batchReceivePolicy.put("maxNumMessages", 9);
+    batchReceivePolicy.put("timeoutMs", 5000);
+    consumerConfig.put("batchReceivePolicy", batchReceivePolicy);
+    consumerConfig.put("negativeAckRedeliveryDelayMicros", 100_000L);
+    properties.put("consumerConfig", consumerConfig);
+    return properties;
+  }
+
+  private static void produce(Session session, Queue destination) throws Exception {
+    try (MessageProducer producer = session.createProducer(destination); ) {
+      for (int i = 0; i < 10; i++) {
+        producer.send(session.createTextMessage("foo-" + i));
+      }
+    }
+  }
+
+  private static List<String> getTexts(List<Message> messages) throws Exception {
+    List<String> result = new ArrayList<>();
+    for (Message message : messages) {
+      result.add(message.getBody(String.class));
+    }
+    return result;
+  }
+
+  @Test
+  public void batchReceiveAcknowledgesTheMessages() throws Exception {
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("webServiceUrl", cluster.getAddress());
+    try (PulsarConnectionFactory factory = new PulsarConnectionFactory(properties); ) {
+      try (Connection connection = factory.createConnection()) {
+        connection.start();
+        try (Session session = connection.createSession(Session.AUTO_ACKNOWLEDGE); ) {
+          Queue destination =
+              session.createQueue("persistent://public/default/test-" + UUID.randomUUID());
+          produce(session, destination);
+
+          List<String> received = new ArrayList<>();
+          try (PulsarMessageConsumer consumer =
+              (PulsarMessageConsumer) session.createConsumer(destination); ) {
+            while (received.size() < 10) {
+              received.addAll(getTexts(consumer.batchReceive(10, 10000)));
+            }
+          }
+          assertEquals(10, received.size());
+
+          // the messages have been acknowledged with a single request
+          try (MessageConsumer consumer = session.createConsumer(destination); ) {
+            assertNull(consumer.receive(1000));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void batchReceiveKeepsTheExtraMessagesForTheNextReceive() throws Exception {
+    try (PulsarConnectionFactory factory = new PulsarConnectionFactory(buildProperties()); ) {
+      try (Connection connection = factory.createConnection()) {
+        connection.start();
+        try (Session session = connection.createSession(Session.AUTO_ACKNOWLEDGE); ) {
+          Queue destination =
+              session.createQueue("persistent://public/default/test-" + UUID.randomUUID());
+          produce(session, destination);
+
+          try (PulsarMessageConsumer consumer =
+              (PulsarMessageConsumer) session.createConsumer(destination); ) {
+            List<String> first = getTexts(consumer.batchReceive(4, 10000));
+            assertEquals(4, first.size());
+            assertTrue(consumer.hasSomePrefetchedMessages());
+
+            // the messages taken by the policy are not lost
+            List<String> received = new ArrayList<>(first);
+            received.addAll(getTexts(consumer.batchReceive(4, 10000)));
+            received.add(consumer.receive(10000).getBody(String.class));
+            received.add(consumer.receive(10000).getBody(String.class));
+            for (int i = 0; i < 10; i++) {
+              assertEquals("foo-" + i, received.get(i));
+            }
+            assertNull(consumer.receive(1000));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void recoverDiscardsTheExtraMessages() throws Exception {
+    try (PulsarConnectionFactory factory = new PulsarConnectionFactory(buildProperties()); ) {
+      try (Connection connection = factory.createConnection()) {
+        connection.start();
+        try (Session session = connection.createSession(Session.CLIENT_ACKNOWLEDGE); ) {
+          Queue destination =
+              session.createQueue("persistent://public/default/test-" + UUID.randomUUID());
+          produce(session, destination);
+
+          try (PulsarMessageConsumer consumer =
+              (PulsarMessageConsumer) session.createConsumer(destination); ) {
+            assertEquals(4, consumer.batchReceive(4, 10000).size());
+
+            session.recover();
+
+            // all the messages are delivered again, none is taken from the client side backlog
+            List<Message> received = new ArrayList<>();
+            while (received.size() < 10) {
+              Message message = consumer.receive(10000);
+              assertTrue(message.getJMSRedelivered());
+              received.add(message);
+            }
+            received.get(9).acknowledge();
+            assertNull(consumer.receive(1000));
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void rollbackDiscardsTheExtraMessages() throws Exception {
+    try (PulsarConnectionFactory factory = new PulsarConnectionFactory(buildProperties()); ) {
+      try (Connection connection = factory.createConnection()) {
+        connection.start();
+        try (Session producerSession = connection.createSession();
+            Session session = connection.createSession(Session.SESSION_TRANSACTED); ) {
+          Queue destination =
+              session.createQueue("persistent://public/default/test-" + UUID.randomUUID());
+          produce(producerSession, destination);
+
+          try (PulsarMessageConsumer consumer =
+              (PulsarMessageConsumer) session.createConsumer(destination); ) {
+            assertEquals(4, consumer.batchReceive(4, 10000).size());
+
+            session.rollback();
+
+            // all the messages are delivered again, none is taken from the client side backlog
+            List<Message> received = new ArrayList<>();
+            while (received.size() < 10) {
+              Message message = consumer.receive(10000);
+              assertTrue(message.getJMSRedelivered());
+              received.add(message);
+            }
+            session.commit();
+            assertNull(consumer.receive(1000));
+          }
+        }
+      }
+    }
+  }
+}
@@ -16,6 +16,7 @@
 package com.datastax.oss.pulsar.jms;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 
 import com.datastax.oss.pulsar.jms.utils.PulsarCluster;
@@ -121,7 +122,7 @@ public class ConnectionPausedTest {
 
   @Test
   @Timeout(60)
-  public void stopConnectionMustWaitForPendingReceive() throws Exception {
+  public void stopConnectionMustNotWaitForPendingReceive() throws Exception {
     Map<String, Object> properties = new HashMap<>();
     properties.put("webServiceUrl", cluster.getAddress());
     CountDownLatch beforeReceive = new CountDownLatch(1);
@@ -166,21 +167,65 @@ public class ConnectionPausedTest {
                       assertEquals(Thread.State.TIMED_WAITING, consumerThread.getState());
                     });
 
-            ScheduledExecutorService executeLater = Executors.newSingleThreadScheduledExecutor();
-            try {
+            // the receive waits without blocking Connection#stop
+            connection.stop();
+            producer.send(textMsg);
 
-              executeLater.schedule(
-                  () -> Utils.noException(() -> producer.send(textMsg)), 5, TimeUnit.SECONDS);
+            // the blocked receive does not return the message while the connection is stopped
+            Thread.sleep(2000);
+            assertFalse(consumerResult.isDone());
 
-              // as we have one consumer that is blocked Connection#stop must block
-              connection.stop();
-
-              // ensure that the consumer received the message
-              assertEquals("foo", consumerResult.get().getBody(String.class));
+            // ensure that the consumer receives the message once the connection is started
+            connection.start();
+            assertEquals("foo", consumerResult.get().getBody(String.class));
+          }
+        }
+      }
+    }
+  }
 
-            } finally {
-              executeLater.shutdown();
-            }
+  @Test
+  @Timeout(60)
+  public void closeConsumerMustWakeUpPendingReceive() throws Exception {
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("webServiceUrl", cluster.getAddress());
+    try (PulsarConnectionFactory factory = new PulsarConnectionFactory(properties); ) {
+      try (Connection connection = factory.createConnection()) {
+        connection.start();
+        try (Session session = connection.createSession(); ) {
+          Topic destination =
+              session.createTopic("persistent://public/default/test-" + UUID.randomUUID());
+          MessageConsumer consumer = session.createSharedDurableConsumer(destination, "sub1");
+
+          CompletableFuture<Message> consumerResult = new CompletableFuture<>();
+          Thread consumerThread =
+              new Thread(
+                  () -> {
+                    try {
+                      // no message in the topic, so this consumer will hang
+                      consumerResult.complete(consumer.receive());
+                    } catch (Throwable err) {
+                      consumerResult.completeExceptionally(err);
+                    }
+                  },
+                  "consumer-test-thread");
+          consumerThread.start();
+
+          // wait for the consumer to block on "receive"
+          Awaitility.await()
+              .untilAsserted(
+                  () -> assertEquals(Thread.State.TIMED_WAITING, consumerThread.getState()));
+
+          // the receive does not block the consumer, and it returns null as soon as it is closed
+          consumer.close();
+          assertNull(consumerResult.get(10, TimeUnit.SECONDS));
+
+          // the messages that arrive later are not lost
+          try (MessageProducer producer = session.createProducer(destination);
+              MessageConsumer otherConsumer =
+                  session.createSharedDurableConsumer(destination, "sub1")) {
+            producer.send(session.createTextMessage("foo"));
+            assertEquals("foo", otherConsumer.receive().getBody(String.class));
           }
         }
       }
@@ -19,8 +19,10 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Consumer;
@@ -292,4 +294,32 @@ final class ConsumerConfigurationTest {
           assertNull(result.getConsumerSchema());
         }));
   }
+
+  @Test
+  void testBatchReceivePolicy() {
+    Map<String, Object> consumerConfiguration = new HashMap<>();
+    Map<String, Object> batchReceivePolicy = new HashMap<>();
+    consumerConfiguration.put("batchReceivePolicy", batchReceivePolicy);
+    batchReceivePolicy.put("maxNumMessages", 50);
+    batchReceivePolicy.put("maxNumBytes", 1048576);
+    batchReceivePolicy.put("timeoutMs", 20);
+    test(
+        consumerConfiguration,
+        (result -> {
+          assertTrue(result.getConsumerConfiguration().isEmpty());
+          assertEquals(50, result.getBatchReceivePolicy().getMaxNumMessages());
+          assertEquals(1048576, result.getBatchReceivePolicy().getMaxNumBytes());
+          assertEquals(20, result.getBatchReceivePolicy().getTimeoutMs());
+          assertNull(result.getDeadLetterPolicy());
+        }));
+
+    // not set
+    test(new HashMap<>(), (result -> assertNull(result.getBatchReceivePolicy())));
+
+    Map<String, Object> invalid = new HashMap<>();
+    invalid.put("batchReceivePolicy", Collections.singletonMap("maxMessages", 10));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> ConsumerConfiguration.buildConsumerConfiguration(invalid));
+  }
 }
@@ -27,11 +27,15 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import javax.jms.Connection;
+import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageProducer;
@@ -406,4 +410,49 @@ public class QueueTest {
       }
     }
   }
+
+  @Test
+  public void shortReceiveTimeoutsDoNotLoseMessages() throws Exception {
+
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("webServiceUrl", cluster.getAddress());
+    try (PulsarConnectionFactory factory = new PulsarConnectionFactory(properties); ) {
+      try (Connection connection = factory.createConnection()) {
+        connection.start();
+        try (Session session = connection.createSession(); ) {
+          Queue destination =
+              session.createQueue("persistent://public/default/test-" + UUID.randomUUID());
+          int numMessages = 1000;
+
+          try (MessageConsumer consumer = session.createConsumer(destination); ) {
+            CompletableFuture<?> produced =
+                CompletableFuture.runAsync(
+                    () -> {
+                      try (Session producerSession = connection.createSession();
+                          MessageProducer producer =
+                              producerSession.createProducer(destination); ) {
+                        for (int i = 0; i < numMessages; i++) {
+                          producer.send(producerSession.createTextMessage("foo-" + i));
+                        }
+                      } catch (JMSException err) {
+                        throw new RuntimeException(err);
+                      }
+                    });
+
+            // most of the receives time out while the messages are arriving
+            Set<String> received = new HashSet<>();
+            long deadline = System.currentTimeMillis() + 60000;
+            while (received.size() < numMessages && System.currentTimeMillis() < deadline) {
+              TextMessage msg = (TextMessage) consumer.receive(1);
+              if (msg != null) {
+                assertTrue(received.add(msg.getText()));
+              }
+            }
+            produced.get();
+            assertEquals(numMessages, received.size());
+          }
+        }
+      }
+    }
+  }
 }
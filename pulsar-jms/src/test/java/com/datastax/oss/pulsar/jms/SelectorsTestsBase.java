@@ -35,16 +35,21 @@ import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CopyOnWriteArrayList;
 import javax.jms.CompletionListener;
+import javax.jms.MapMessage;
 import javax.jms.Message;
 import javax.jms.MessageProducer;
 import javax.jms.Queue;
 import javax.jms.QueueBrowser;
 import javax.jms.TextMessage;
 import javax.jms.Topic;
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.pulsar.client.api.Consumer;
 import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Producer;
+import org.apache.pulsar.client.api.PulsarClient;
+import org.apache.pulsar.client.api.Schema;
 import org.apache.pulsar.client.api.SubscriptionMode;
 import org.apache.pulsar.client.api.SubscriptionType;
 import org.apache.pulsar.client.impl.BatchMessageIdImpl;
@@ -211,6 +216,50 @@ public abstract class SelectorsTestsBase {
     }
   }
 
+  @Test
+  public void sendMessageReceiveFromTopicWithXPathSelector() throws Exception {
+
+    Map<String, Object> properties = buildProperties();
+
+    properties.put("jms.enableClientSideEmulation", "false");
+    try (PulsarConnectionFactory factory = new PulsarConnectionFactory(properties); ) {
+      try (PulsarConnection connection = factory.createConnection()) {
+        connection.start();
+        try (PulsarSession session = connection.createSession(); ) {
+          Topic destination =
+              session.createTopic("persistent://public/default/test-" + UUID.randomUUID());
+
+          cluster
+              .getService()
+              .getAdminClient()
+              .topics()
+              .createNonPartitionedTopic(destination.getTopicName());
+
+          // the broker cannot read the body, it lets the client evaluate the selector
+          try (PulsarMessageConsumer consumer1 =
+              session.createConsumer(destination, "XPATH '/order[@type=''book'']'"); ) {
+
+            try (MessageProducer producer = session.createProducer(destination); ) {
+              for (int i = 0; i < 10; i++) {
+                String type = i == 9 ? "book" : "food";
+                producer.send(
+                    session.createTextMessage("<order type='" + type + "'>" + i + "</order>"));
+              }
+            }
+
+            TextMessage textMessage = (TextMessage) consumer1.receive();
+            assertEquals("<order type='book'>9</order>", textMessage.getText());
+            assertEquals(10, consumer1.getReceivedMessages());
+            assertEquals(9, consumer1.getSkippedMessages());
+
+            // no more messages
+            assertNull(consumer1.receiveNoWait());
+          }
+        }
+      }
+    }
+  }
+
   @Test
   public void sendMessageReceiveFromExclusiveSubscriptionWithSelector() throws Exception {
 
@@ -313,6 +362,70 @@ public abstract class SelectorsTestsBase {
     }
   }
 
+  @Data
+  static final class Order {
+    String orderType;
+    int amount;
+  }
+
+  @Test
+  public void sendAvroMessagesReceiveWithSelectorOnTheBody() throws Exception {
+
+    Map<String, Object> properties = buildProperties();
+    Map<String, Object> consumerConfig = (Map<String, Object>) properties.get("consumerConfig");
+    consumerConfig.put("useSchema", true);
+    try (PulsarConnectionFactory factory = new PulsarConnectionFactory(properties); ) {
+      try (PulsarConnection connection = factory.createConnection()) {
+        connection.start();
+        try (PulsarSession session = connection.createSession(); ) {
+          Queue destination =
+              session.createQueue("persistent://public/default/test-" + UUID.randomUUID());
+
+          try (PulsarMessageConsumer consumer1 =
+              session.createConsumer(destination, "body$orderType = 'X' and body$amount > 2"); ) {
+
+            PulsarClient client =
+                cluster
+                    .getService()
+                    .getClient(); // do not close this client, it is internal to the broker
+            try (Producer<Order> producer =
+                client
+                    .newProducer(Schema.AVRO(Order.class))
+                    .topic(destination.getQueueName())
+                    .enableBatching(enableBatching)
+                    .create(); ) {
+              List<CompletableFuture<MessageId>> handles = new ArrayList<>();
+              for (int i = 0; i < 10; i++) {
+                Order order = new Order();
+                order.setOrderType(i % 2 == 0 ? "X" : "Y");
+                order.setAmount(i);
+                handles.add(producer.sendAsync(order));
+              }
+              producer.flush();
+              FutureUtil.waitForAll(handles).get();
+            }
+
+            // 4, 6 and 8
+            for (int i = 4; i < 10; i += 2) {
+              MapMessage message = (MapMessage) consumer1.receive();
+              assertEquals("X", message.getString("orderType"));
+              assertEquals(i, message.getInt("amount"));
+            }
+
+            if (useServerSideFiltering && !enableBatching) {
+              // the broker decodes the body
+              assertEquals(3, consumer1.getReceivedMessages());
+              assertEquals(0, consumer1.getSkippedMessages());
+            }
+
+            // no more messages
+            assertNull(consumer1.receiveNoWait());
+          }
+        }
+      }
+    }
+  }
+
   @Test
   public void testAcknowledgeRejectedMessagesWithQueues() throws Exception {
     Map<String, Object> properties = buildProperties();
@@ -415,6 +528,83 @@ public abstract class SelectorsTestsBase {
     }
   }
 
+  @Test
+  public void testServerSideBatchIndexFilteringWithQueues() throws Exception {
+    Map<String, Object> properties = buildProperties();
+    if (enableBatching) {
+      // ensure that we create batches with more than 1 message
+      Map<String, Object> producerConfig = (Map<String, Object>) properties.get("producerConfig");
+      producerConfig.put("batchingMaxPublishDelayMicros", "1000000");
+      // each batch will contain 5 messages
+      producerConfig.put("batchingMaxMessages", "5");
+    }
+
+    properties.put("jms.acknowledgeRejectedMessages", true);
+    properties.put("jms.useServerSideBatchIndexFiltering", true);
+
+    try (PulsarConnectionFactory factory = new PulsarConnectionFactory(properties); ) {
+      try (PulsarConnection connection = factory.createConnection()) {
+        connection.start();
+        try (PulsarSession session = connection.createSession(); ) {
+          Queue destination =
+              session.createQueue("persistent://public/default/test-" + UUID.randomUUID());
+
+          try (PulsarMessageConsumer consumer1 =
+              session.createConsumer(destination, "keepMessage=TRUE"); ) {
+            List<CompletableFuture<Message>> handles = new ArrayList<>();
+            List<String> expected = new ArrayList<>();
+            try (MessageProducer producer = session.createProducer(destination); ) {
+              for (int i = 0; i < 100; i++) {
+                String text = "foo-" + i;
+                TextMessage textMessage = session.createTextMessage(text);
+                if (i % 5 == 0) {
+                  expected.add(text);
+                  textMessage.setBooleanProperty("keepMessage", true);
+                }
+                CompletableFuture<Message> handle = new CompletableFuture<>();
+                producer.send(
+                    textMessage,
+                    new CompletionListener() {
+                      @Override
+                      public void onCompletion(Message message) {
+                        handle.complete(message);
+                      }
+
+                      @Override
+                      public void onException(Message message, Exception e) {
+                        handle.completeExceptionally(e);
+                      }
+                    });
+                handles.add(handle);
+              }
+            }
+
+            CompletableFuture.allOf(handles.toArray(new CompletableFuture[0])).get();
+
+            for (String text : expected) {
+              PulsarTextMessage textMessage = (PulsarTextMessage) consumer1.receive();
+              assertEquals(text, textMessage.getText());
+            }
+
+            // no more messages
+            assertNull(consumer1.receive(1000));
+
+            if (useServerSideFiltering) {
+              // the broker acknowledged the messages of the batches that do not match
+              // and the client did not receive them
+              assertTrue(factory.isServerSideBatchIndexFilteringActive());
+              assertEquals(expected.size(), consumer1.getReceivedMessages());
+              assertEquals(0, consumer1.getSkippedMessages());
+            } else {
+              assertEquals(100, consumer1.getReceivedMessages());
+              assertEquals(100 - expected.size(), consumer1.getSkippedMessages());
+            }
+          }
+        }
+      }
+    }
+  }
+
   @Test
   public void sendBatchWithMoreThenOneMessage() throws Exception {
     Map<String, Object> properties = buildProperties();
@@ -0,0 +1,138 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.datastax.oss.pulsar.jms.utils.PulsarCluster;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import javax.jms.CompletionListener;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * jms.useServerSideBatchIndexFiltering against a broker that does not support batch index
+ * acknowledgement: the broker sends the whole batches and the client applies the selectors.
+ */
+@Timeout(60)
+public class ServerSideBatchIndexFilteringDisabledTest {
+
+  @TempDir public static Path tempDir;
+  private static PulsarCluster cluster;
+
+  @BeforeAll
+  public static void before() throws Exception {
+    cluster =
+        new PulsarCluster(
+            tempDir,
+            (config) -> {
+              config.setTransactionCoordinatorEnabled(false);
+              config.setAcknowledgmentAtBatchIndexLevelEnabled(false);
+            });
+    cluster.start();
+  }
+
+  @AfterAll
+  public static void after() throws Exception {
+    if (cluster != null) {
+      cluster.close();
+    }
+  }
+
+  @Test
+  public void testSelectorOnBatchesWithoutBatchIndexAcknowledgement() throws Exception {
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("webServiceUrl", cluster.getAddress());
+    properties.put("jms.useServerSideFiltering", true);
+    properties.put("jms.useServerSideBatchIndexFiltering", true);
+    Map<String, Object> producerConfig = new HashMap<>();
+    producerConfig.put("batchingEnabled", true);
+    // each batch will contain 5 messages
+    producerConfig.put("batchingMaxPublishDelayMicros", "1000000");
+    producerConfig.put("batchingMaxMessages", "5");
+    properties.put("producerConfig", producerConfig);
+
+    try (PulsarConnectionFactory factory = new PulsarConnectionFactory(properties); ) {
+      try (PulsarConnection connection = factory.createConnection()) {
+        connection.start();
+        try (PulsarSession session = connection.createSession(); ) {
+          Topic destination =
+              session.createTopic("persistent://public/default/test-" + UUID.randomUUID());
+
+          try (PulsarMessageConsumer consumer =
+              session.createConsumer(destination, "keepMessage=TRUE"); ) {
+            List<CompletableFuture<Message>> handles = new ArrayList<>();
+            List<String> expected = new ArrayList<>();
+            try (MessageProducer producer = session.createProducer(destination); ) {
+              for (int i = 0; i < 100; i++) {
+                String text = "foo-" + i;
+                TextMessage textMessage = session.createTextMessage(text);
+                if (i % 5 == 0) {
+                  expected.add(text);
+                  textMessage.setBooleanProperty("keepMessage", true);
+                }
+                CompletableFuture<Message> handle = new CompletableFuture<>();
+                producer.send(
+                    textMessage,
+                    new CompletionListener() {
+                      @Override
+                      public void onCompletion(Message message) {
+                        handle.complete(message);
+                      }
+
+                      @Override
+                      public void onException(Message message, Exception e) {
+                        handle.completeExceptionally(e);
+                      }
+                    });
+                handles.add(handle);
+              }
+            }
+            CompletableFuture.allOf(handles.toArray(new CompletableFuture[0])).get();
+
+            for (String text : expected) {
+              TextMessage textMessage = (TextMessage) consumer.receive();
+              assertEquals(text, textMessage.getText());
+            }
+
+            // no more messages
+            assertNull(consumer.receive(1000));
+
+            // the broker could not drop the single messages of the batches
+            assertFalse(factory.isServerSideBatchIndexFilteringActive());
+            assertEquals(100, consumer.getReceivedMessages());
+            assertEquals(100 - expected.size(), consumer.getSkippedMessages());
+          }
+        }
+      }
+    }
+  }
+}
@@ -17,14 +17,19 @@ package com.datastax.oss.pulsar.jms;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.datastax.oss.pulsar.jms.utils.PulsarCluster;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
+import javax.jms.CompletionListener;
 import javax.jms.DeliveryMode;
 import javax.jms.Message;
 import javax.jms.MessageProducer;
@@ -39,6 +44,7 @@ import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
 
 @Slf4j
 public class TimeToLiveTest {
@@ -219,4 +225,82 @@ public class TimeToLiveTest {
       }
     }
   }
+
+  @ParameterizedTest(name = "{index} useServerSideFiltering {0}")
+  @ValueSource(booleans = {true, false})
+  public void sendBatchesWithExpiredMessagesToQueue(boolean useServerSideFiltering)
+      throws Exception {
+
+    Map<String, Object> properties = new HashMap<>();
+    properties.put("webServiceUrl", cluster.getAddress());
+    properties.put("jms.enableClientSideEmulation", !useServerSideFiltering);
+    properties.put("jms.useServerSideFiltering", useServerSideFiltering);
+    Map<String, Object> producerConfig = new HashMap<>();
+    producerConfig.put("batchingEnabled", true);
+    // ensure that we create batches with more than 1 message
+    producerConfig.put("batchingMaxPublishDelayMicros", "1000000");
+    // each batch will contain 5 messages
+    producerConfig.put("batchingMaxMessages", "5");
+    properties.put("producerConfig", producerConfig);
+
+    try (PulsarConnectionFactory factory = new PulsarConnectionFactory(properties); ) {
+      try (PulsarConnection connection = factory.createConnection(); ) {
+        connection.start();
+        try (PulsarSession session = connection.createSession(); ) {
+          Queue destination =
+              session.createQueue("persistent://public/default/test-" + UUID.randomUUID());
+
+          List<CompletableFuture<Message>> handles = new ArrayList<>();
+          try (MessageProducer producer = session.createProducer(destination); ) {
+            for (int i = 0; i < 20; i++) {
+              TextMessage textMessage = session.createTextMessage("foo-" + i);
+              // in the first batch all the messages expire,
+              // in the other batches only the last message does not expire
+              long timeToLive = i >= 5 && i % 5 == 4 ? 0 : 1000;
+              CompletableFuture<Message> handle = new CompletableFuture<>();
+              producer.send(
+                  textMessage,
+                  DeliveryMode.PERSISTENT,
+                  Message.DEFAULT_PRIORITY,
+                  timeToLive,
+                  new CompletionListener() {
+                    @Override
+                    public void onCompletion(Message message) {
+                      handle.complete(message);
+                    }
+
+                    @Override
+                    public void onException(Message message, Exception e) {
+                      handle.completeExceptionally(e);
+                    }
+                  });
+              handles.add(handle);
+            }
+          }
+          CompletableFuture.allOf(handles.toArray(new CompletableFuture[0])).get();
+
+          // wait for messages to expire
+          Thread.sleep(2000);
+
+          try (PulsarMessageConsumer consumer1 = session.createConsumer(destination); ) {
+            for (int i = 1; i < 4; i++) {
+              TextMessage textMessage = (TextMessage) consumer1.receive(10000);
+              assertNotNull(textMessage, "only " + (i - 1) + " messages have been received");
+              assertEquals("foo-" + (i * 5 + 4), textMessage.getText());
+            }
+            assertNull(consumer1.receive(1000));
+
+            if (useServerSideFiltering) {
+              // the batch with only expired messages is not dispatched
+              assertEquals(15, consumer1.getReceivedMessages());
+              assertEquals(12, consumer1.getSkippedMessages());
+            } else {
+              assertEquals(20, consumer1.getReceivedMessages());
+              assertEquals(17, consumer1.getSkippedMessages());
+            }
+          }
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright DataStax, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.datastax.oss.pulsar.jms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.impl.BatchMessageIdImpl;
+import org.apache.pulsar.client.impl.MessageIdImpl;
+import org.junit.jupiter.api.Test;
+
+public class UnacknowledgedMessagesTest {
+
+  private static final class TestMessage {
+    final String consumer;
+    final MessageId messageId;
+
+    TestMessage(String consumer, MessageId messageId) {
+      this.consumer = consumer;
+      this.messageId = messageId;
+    }
+  }
+
+  private static UnacknowledgedMessages<TestMessage> newTracker() {
+    return new UnacknowledgedMessages<>(m -> m.consumer, m -> m.messageId);
+  }
+
+  @Test
+  public void testAddRemove() {
+    UnacknowledgedMessages<TestMessage> tracker = newTracker();
+    TestMessage m1 = new TestMessage("c1", new MessageIdImpl(1, 1, -1));
+    TestMessage m2 = new TestMessage("c1", new MessageIdImpl(1, 2, -1));
+    TestMessage m3 = new TestMessage("c2", new MessageIdImpl(1, 3, -1));
+    tracker.add(m1);
+    tracker.add(m2);
+    tracker.add(m3);
+    assertEquals(3, tracker.size());
+
+    tracker.remove(m2);
+    assertEquals(2, tracker.size());
+    // not tracked
+    tracker.remove(m2);
+    tracker.remove(new TestMessage("c3", new MessageIdImpl(1, 4, -1)));
+    assertEquals(2, tracker.size());
+
+    List<TestMessage> removed = tracker.removeAll();
+    assertEquals(2, removed.size());
+    assertTrue(removed.containsAll(Arrays.asList(m1, m3)));
+    assertEquals(0, tracker.size());
+  }
+
+  @Test
+  public void testOrderByConsumer() {
+    UnacknowledgedMessages<TestMessage> tracker = newTracker();
+    TestMessage a1 = new TestMessage("a", new MessageIdImpl(1, 5, -1));
+    TestMessage b1 = new TestMessage("b", new MessageIdImpl(1, 4, -1));
+    TestMessage a2 = new TestMessage("a", new MessageIdImpl(1, 3, -1));
+    TestMessage b2 = new TestMessage("b", new MessageIdImpl(1, 2, -1));
+    tracker.add(a1);
+    tracker.add(b1);
+    tracker.add(a2);
+    tracker.add(b2);
+
+    List<List<TestMessage>> byConsumer = tracker.getAllByConsumer();
+    assertEquals(2, byConsumer.size());
+    assertTrue(byConsumer.contains(Arrays.asList(a1, a2)));
+    assertTrue(byConsumer.contains(Arrays.asList(b1, b2)));
+    // getAll does not remove the messages
+    assertEquals(4, tracker.getAll().size());
+    tracker.clear();
+    assertEquals(0, tracker.size());
+    assertTrue(tracker.getAllByConsumer().isEmpty());
+  }
+
+  @Test
+  public void testRemoveConsumer() {
+    UnacknowledgedMessages<TestMessage> tracker = newTracker();
+    for (int i = 0; i < 100; i++) {
+      tracker.add(new TestMessage(i % 2 == 0 ? "even" : "odd", new MessageIdImpl(1, i, -1)));
+    }
+    tracker.removeConsumer("even");
+    assertEquals(50, tracker.size());
+    assertTrue(tracker.getAll().stream().allMatch(m -> m.consumer.equals("odd")));
+
+    // a message received by the closed consumer is not registered
+    assertFalse(tracker.add(new TestMessage("even", new MessageIdImpl(1, 200, -1))));
+    assertEquals(50, tracker.size());
+    assertTrue(tracker.add(new TestMessage("odd", new MessageIdImpl(1, 201, -1))));
+    assertEquals(51, tracker.size());
+  }
+
+  @Test
+  public void testMessageWithoutConsumer() {
+    UnacknowledgedMessages<TestMessage> tracker = newTracker();
+    TestMessage message = new TestMessage(null, new MessageIdImpl(1, 1, -1));
+    assertThrows(IllegalArgumentException.class, () -> tracker.add(message));
+    tracker.remove(message);
+    assertEquals(0, tracker.size());
+  }
+
+  @Test
+  public void testRemoveEntries() {
+    UnacknowledgedMessages<TestMessage> tracker = newTracker();
+    // the messages of a batch entry
+    TestMessage b0 = new TestMessage("c1", new BatchMessageIdImpl(1, 1, -1, 0));
+    TestMessage b1 = new TestMessage("c1", new BatchMessageIdImpl(1, 1, -1, 1));
+    TestMessage other = new TestMessage("c1", new MessageIdImpl(1, 2, -1));
+    TestMessage otherConsumer = new TestMessage("c2", new MessageIdImpl(2, 1, -1));
+    tracker.add(b0);
+    tracker.add(b1);
+    tracker.add(other);
+    tracker.add(otherConsumer);
+
+    // the ack timeout reports the ids of the entries, without the batch index
+    List<TestMessage> removed =
+        tracker.removeEntries(
+            Arrays.asList(new MessageIdImpl(1, 1, -1), new MessageIdImpl(2, 1, -1)));
+    assertEquals(3, removed.size());
+    assertTrue(removed.containsAll(Arrays.asList(b0, b1, otherConsumer)));
+    assertEquals(Collections.singletonList(other), tracker.getAll());
+
+    assertTrue(
+        tracker.removeEntries(Collections.singletonList(new MessageIdImpl(1, 1, -1))).isEmpty());
+  }
+
+  @Test
+  public void testConcurrentConsumers() throws Exception {
+    UnacknowledgedMessages<TestMessage> tracker = newTracker();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      Future<?>[] results = new Future<?>[4];
+      for (int c = 0; c < 4; c++) {
+        String consumer = "c" + c;
+        long ledgerId = c;
+        results[c] =
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < 10_000; i++) {
+                    TestMessage message =
+                        new TestMessage(consumer, new MessageIdImpl(ledgerId, i, -1));
+                    tracker.add(message);
+                    if (i % 2 == 0) {
+                      tracker.remove(message);
+                    }
+                  }
+                });
+      }
+      for (Future<?> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+    assertEquals(20_000, tracker.size());
+  }
+}